@@ -2,6 +2,9 @@ package org.reactome.server.graph;
 
 import com.martiansoftware.jsap.*;
 import org.reactome.server.graph.batchimport.ReactomeBatchImporter;
+import org.reactome.server.graph.interactors.InteractionImporter;
+import org.reactome.server.graph.sink.GraphSink;
+import org.reactome.server.graph.utils.LongLongMap;
 
 import java.io.File;
 import java.io.IOException;
@@ -25,7 +28,46 @@ public class Main {
                         new FlaggedOption(  "neo4jVersion", JSAP.STRING_PARSER,   ">= 3.5.x",           JSAP.NOT_REQUIRED, 'r', "neo4jVersion", "Neo4j version"),
                         new FlaggedOption(  "intactFile",   JSAP.STRING_PARSER,   JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'f', "intactFile",   "Path to the interaction data file"),
                         new QualifiedSwitch("sqlLite",      JSAP.BOOLEAN_PARSER,  JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'q', "sqlLite",      "Whether the provided file is an SQLite database or a intact-micluster.txt file to be parsed"),
+                        new FlaggedOption(  "taxonomy",     JSAP.STRING_PARSER,   JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'y', "taxonomy",
+                                "Path to the NCBI taxonomy nodes.dmp used to find the species of the " +
+                                "interactors offline (Ensembl is queried otherwise)"),
+                        new FlaggedOption(  "provenance",   JSAP.STRING_PARSER,   "object",             JSAP.NOT_REQUIRED, 'v', "provenance",
+                                "InstanceEdit of the objects created by the interactions import: " +
+                                "object (one each) or run (one shared by all of them)"),
                         new QualifiedSwitch("interactions", JSAP.BOOLEAN_PARSER,  JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'i', "interactions", "Include interaction data. If the intactFile is not provided, the interaction data will be downloaded"),
+                        new QualifiedSwitch("preload",      JSAP.BOOLEAN_PARSER,  JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'l', "preload",
+                                "Preloads the attribute values of all the instances before the import starts (faster but needs more memory)"),
+                        new FlaggedOption(  "threads",      JSAP.INTEGER_PARSER,  "1",                  JSAP.NOT_REQUIRED, 't', "threads",
+                                "Number of concurrent connections used to preload the instances (more than 1 implies preload), to " +
+                                "calculate the checksum of the relational database and to retrieve the interactions"),
+                        new FlaggedOption(  "cache",        JSAP.INTEGER_PARSER,  "0",                  JSAP.NOT_REQUIRED, 'a', "cache",
+                                "Number of instances kept in memory once imported, the least recently " +
+                                "used are released first (0 releases them straight away)"),
+                        new QualifiedSwitch("twoPhase",     JSAP.BOOLEAN_PARSER,  JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'w', "twoPhase",
+                                "Creates all the nodes first and then saves all the relationships"),
+                        new FlaggedOption(  "idMap",        JSAP.STRING_PARSER,   "heap",               JSAP.NOT_REQUIRED, 'm', "idMap",
+                                "Where the dbId to node id map is kept: heap, offheap or mmap (memory mapped temporary file)"),
+                        new FlaggedOption(  "sink",         JSAP.STRING_PARSER,   JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'k', "sink",
+                                "Where the graph is written: neo4j, csv or counting (only counts, to measure the conversion " +
+                                "alone) (default: csv when the csv directory is provided, neo4j otherwise)"),
+                        new FlaggedOption(  "csv",          JSAP.STRING_PARSER,   JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'c', "csv",
+                                "Directory where the CSV files for neo4j-admin import are written " +
+                                "instead of creating the database with the BatchInserter"),
+                        new FlaggedOption(  "neo4jAdmin",   JSAP.STRING_PARSER,   JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'z', "neo4jAdmin",
+                                "Path of neo4j-admin, used to import the CSV files (default: $NEO4J_HOME/bin/neo4j-admin or the one in the PATH)"),
+                        new FlaggedOption(  "checkpoint",   JSAP.INTEGER_PARSER,  "0",                  JSAP.NOT_REQUIRED, 'o', "checkpoint",
+                                "Minimum minutes between checkpoints of the import, taken between import roots and before adding " +
+                                "the interaction data, spaced to keep their cost under 10% of the import time (0 disables them)"),
+                        new QualifiedSwitch("resume",       JSAP.BOOLEAN_PARSER,  JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'e', "resume",
+                                "Continues the import from the last checkpoint instead of starting from scratch"),
+                        new QualifiedSwitch("skipUnchanged", JSAP.BOOLEAN_PARSER, JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'g', "skipUnchanged",
+                                "Leaves the existing graph untouched when the database has not changed since it was imported (neo4j sink only)"),
+                        new QualifiedSwitch("delta",        JSAP.BOOLEAN_PARSER,  JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'x', "delta",
+                                "Only applies the changes made since the release in the existing " +
+                                "graph (created by a previous import with the neo4j sink)"),
+                        new FlaggedOption(  "report",       JSAP.STRING_PARSER,   JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'j', "report",
+                                "Path of the JSON report with the time spent in every phase of the import " +
+                                "and per schema class (default: next to the neo4j database)"),
                         new QualifiedSwitch("bar",          JSAP.BOOLEAN_PARSER,  JSAP.NO_DEFAULT,          JSAP.NOT_REQUIRED, 'b', "bar",          "Forces final status")
                 }
         );
@@ -46,6 +88,51 @@ public class Main {
             includeInteractions = true;
         }
 
+        String taxonomyFile = config.getString("taxonomy");
+        if (taxonomyFile != null && !new File(taxonomyFile).isFile()) {
+            System.err.println(taxonomyFile + " does not exist or it is a directory. Please provide the path to the NCBI taxonomy nodes.dmp file");
+            System.exit(1);
+        }
+
+        InteractionImporter.Provenance provenance = null;
+        for (InteractionImporter.Provenance value : InteractionImporter.Provenance.values()) {
+            if (value.name().equalsIgnoreCase(config.getString("provenance"))) provenance = value;
+        }
+        if (provenance == null) {
+            System.err.println(config.getString("provenance") + " is not a valid provenance value. Please use object or run");
+            System.exit(1);
+        }
+
+        LongLongMap.Storage idMapStorage = null;
+        for (LongLongMap.Storage storage : LongLongMap.Storage.values()) {
+            if (storage.name().equalsIgnoreCase(config.getString("idMap"))) idMapStorage = storage;
+        }
+        if (idMapStorage == null) {
+            System.err.println(config.getString("idMap") + " is not a valid idMap value. Please use heap, offheap or mmap");
+            System.exit(1);
+        }
+
+        String csvDir = config.getString("csv");
+        String sink = config.getString("sink", csvDir != null ? "csv" : "neo4j");
+        GraphSink.Type sinkType = null;
+        for (GraphSink.Type type : GraphSink.Type.values()) {
+            if (type.name().equalsIgnoreCase(sink)) sinkType = type;
+        }
+        if (sinkType == null) {
+            System.err.println(sink + " is not a valid sink value. Please use neo4j, csv or counting");
+            System.exit(1);
+        }
+        if (sinkType == GraphSink.Type.CSV && csvDir == null) {
+            System.err.println("The csv sink needs the directory where the files are written. Please provide it with --csv");
+            System.exit(1);
+        }
+
+        boolean delta = config.getBoolean("delta");
+        if (delta && (includeInteractions || sinkType != GraphSink.Type.NEO4J || config.getBoolean("twoPhase") || config.getBoolean("resume"))) {
+            System.err.println("The delta import only works with the neo4j sink, without interactions, twoPhase or resume");
+            System.exit(1);
+        }
+
         /*
          * @Autowired annotation does not work in a static context. context.getBean has to be used instead.
          * final AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext(MyConfiguration.class);
@@ -61,6 +148,25 @@ public class Main {
                 includeInteractions, intactFile, config.getBoolean("sqlLite"),
                 config.getString("neo4jVersion")
         );
-        batchImporter.importAll(!config.getBoolean("bar"));
+        //The instances are only read concurrently by the preload, without it the extraction uses a single connection
+        batchImporter.setPreload(config.getBoolean("preload") || config.getInt("threads") > 1);
+        batchImporter.setThreads(config.getInt("threads"));
+        batchImporter.setInstanceCacheSize(config.getInt("cache"));
+        batchImporter.setTwoPhase(config.getBoolean("twoPhase"));
+        batchImporter.setIdMapStorage(idMapStorage);
+        batchImporter.setSinkType(sinkType);
+        batchImporter.setCsvDir(csvDir);
+        batchImporter.setNeo4jAdmin(config.getString("neo4jAdmin"));
+        batchImporter.setTaxonomyFile(taxonomyFile);
+        batchImporter.setProvenance(provenance);
+        batchImporter.setCheckpointInterval(config.getInt("checkpoint"));
+        batchImporter.setResume(config.getBoolean("resume"));
+        batchImporter.setSkipUnchanged(config.getBoolean("skipUnchanged"));
+        batchImporter.setReportFile(config.getString("report"));
+        if (delta) {
+            batchImporter.importDelta();
+        } else {
+            batchImporter.importAll(!config.getBoolean("bar"));
+        }
     }
 }
\ No newline at end of file
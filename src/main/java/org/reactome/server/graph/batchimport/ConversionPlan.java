@@ -0,0 +1,76 @@
+package org.reactome.server.graph.batchimport;
+
+import org.gk.model.GKInstance;
+import org.gk.schema.SchemaClass;
+import org.neo4j.graphdb.Label;
+import org.reactome.server.graph.utils.LabelRegistry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything needed to convert the instances of one schema class into a given domain class (eg Pathway, Reaction),
+ * resolved only once: the labels (interned by the LabelRegistry), and one handler per attribute with the renaming, the validity of the attribute in
+ * the schema class and the special cases already taken into account. Converting an instance is then iterating over
+ * the handlers.
+ */
+class ConversionPlan {
+
+    @FunctionalInterface
+    interface PropertyHandler {
+        void apply(GKInstance instance, Map<String, Object> properties);
+    }
+
+    @FunctionalInterface
+    interface RelationshipHandler {
+        void apply(GKInstance instance, List<RelationshipGroup> groups);
+    }
+
+    private final SchemaClass schemaClass;
+    private final Class<?> domainClass;
+    private final Label[] labels;
+    private final Label[] topLevelPathwayLabels;
+    private final Label[] dbInfoLabels;
+    private final List<PropertyHandler> propertyHandlers;
+    private final List<RelationshipHandler> relationshipHandlers;
+
+    ConversionPlan(SchemaClass schemaClass, Class<?> domainClass,
+                   List<PropertyHandler> propertyHandlers, List<RelationshipHandler> relationshipHandlers) {
+        this.schemaClass = schemaClass;
+        this.domainClass = domainClass;
+        this.labels = LabelRegistry.getLabels(domainClass);
+        this.topLevelPathwayLabels = LabelRegistry.getTopLevelPathwayLabels(domainClass);
+        this.dbInfoLabels = LabelRegistry.getDbInfoLabels(domainClass);
+        this.propertyHandlers = Collections.unmodifiableList(propertyHandlers);
+        this.relationshipHandlers = Collections.unmodifiableList(relationshipHandlers);
+    }
+
+    SchemaClass getSchemaClass() {
+        return schemaClass;
+    }
+
+    Class<?> getDomainClass() {
+        return domainClass;
+    }
+
+    Label[] getLabels() {
+        return labels;
+    }
+
+    Label[] getTopLevelPathwayLabels() {
+        return topLevelPathwayLabels;
+    }
+
+    Label[] getDbInfoLabels() {
+        return dbInfoLabels;
+    }
+
+    List<PropertyHandler> getPropertyHandlers() {
+        return propertyHandlers;
+    }
+
+    List<RelationshipHandler> getRelationshipHandlers() {
+        return relationshipHandlers;
+    }
+}
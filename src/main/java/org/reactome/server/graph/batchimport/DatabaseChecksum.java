@@ -0,0 +1,182 @@
+package org.reactome.server.graph.batchimport;
+
+import org.reactome.server.graph.utils.ImportMetrics;
+import org.reactome.server.graph.utils.MySQLConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.reactome.server.graph.utils.FormatUtils.getTimeFormatted;
+
+/**
+ * Calculates the checksum of the relational database (the sum of CHECKSUM TABLE for all its tables) in background,
+ * so it is ready by the time the DBInfo node is written instead of stalling the import. The tables are distributed
+ * among several connections.
+ * <p>
+ * The checksum of every table is kept in a cache file (graph.db.checksums for graph.db) together with the
+ * database name and the UPDATE_TIME reported by information_schema, so the tables that have not changed since the previous import are
+ * not read again. Tables without UPDATE_TIME (depends on the engine and version of MySQL) are always calculated.
+ */
+class DatabaseChecksum {
+
+    private static final Logger importLogger = LoggerFactory.getLogger("import");
+    private static final Logger errorLogger = LoggerFactory.getLogger("import_error");
+
+    @SuppressWarnings({"SqlDialectInspection", "SqlNoDataSourceInspection"})
+    private static final String TABLES_QUERY = "SELECT table_name, update_time FROM information_schema.tables WHERE table_schema = ?";
+
+    private final MySQLConnectionFactory connectionFactory;
+    private final String dbName;
+    private final int threads;
+    private final File cacheFile;
+    private final ImportMetrics metrics;
+    private Future<Long> result;
+
+    /**
+     * @param store   the checksum cache is kept next to it
+     * @param metrics the time of the calculation is added to its CHECKSUM phase
+     */
+    DatabaseChecksum(MySQLConnectionFactory connectionFactory, String dbName, int threads, File store, ImportMetrics metrics) {
+        this.connectionFactory = connectionFactory;
+        this.dbName = dbName;
+        this.threads = Math.max(1, threads);
+        File dir = store.getAbsoluteFile();
+        this.cacheFile = new File(dir.getParentFile(), dir.getName() + ".checksums");
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts the calculation in background (it does nothing if it has already been started)
+     */
+    synchronized void start() {
+        if (result != null) return;
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "database-checksum");
+            thread.setDaemon(true);
+            return thread;
+        });
+        result = executor.submit(this::calculate);
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the calculation (starting it if needed)
+     *
+     * @return the database checksum (0 if it could not be calculated)
+     */
+    Long get() {
+        start();
+        try {
+            if (!result.isDone()) System.out.print("\rWaiting for the database checksum...");
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            errorLogger.error(e.getCause().getMessage(), e.getCause());
+            System.err.println("\rThere was a problem calculating the database checksum (See error log)");
+        }
+        return 0L;
+    }
+
+    private Long calculate() throws Exception {
+        long start = System.currentTimeMillis();
+        long cpuStart = metrics.getCurrentThreadCpuTime();
+        Map<String, String[]> cache = readCache();
+        Map<String, String[]> tables = new TreeMap<>();
+        Queue<String> pending = new ConcurrentLinkedQueue<>();
+        try (Connection connection = connectionFactory.getConnection();
+             PreparedStatement ps = connection.prepareStatement(TABLES_QUERY)) {
+            ps.setString(1, dbName);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String table = rs.getString(1);
+                    Timestamp updateTime = rs.getTimestamp(2);
+                    String[] cached = cache.get(table);
+                    if (updateTime != null && cached != null && cached[0].equals(updateTime.toString())) {
+                        tables.put(table, cached);
+                    } else {
+                        tables.put(table, new String[]{updateTime != null ? updateTime.toString() : "", null});
+                        pending.add(table);
+                    }
+                }
+            }
+        }
+        int reused = tables.size() - pending.size();
+
+        int connections = Math.min(threads, pending.size());
+        List<Future<?>> workers = new ArrayList<>();
+        AtomicLong workersCpu = new AtomicLong(); // the coordinating thread is mostly waiting for the workers
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, connections));
+        for (int i = 0; i < connections; i++) {
+            workers.add(executor.submit(() -> {
+                long workerCpuStart = metrics.getCurrentThreadCpuTime();
+                try (Connection connection = connectionFactory.getConnection();
+                     Statement statement = connection.createStatement()) {
+                    String table;
+                    while ((table = pending.poll()) != null) {
+                        try (ResultSet rs = statement.executeQuery("CHECKSUM TABLE `" + table + "`")) {
+                            long checksum = rs.next() ? rs.getLong("Checksum") : 0L;
+                            synchronized (tables) {
+                                tables.get(table)[1] = Long.toString(checksum);
+                            }
+                        }
+                    }
+                } finally {
+                    workersCpu.addAndGet(metrics.getCurrentThreadCpuTime() - workerCpuStart);
+                }
+                return null;
+            }));
+        }
+        executor.shutdown();
+        for (Future<?> worker : workers) worker.get();
+
+        long checksum = 0L;
+        for (String[] value : tables.values()) checksum += Long.parseLong(value[1]);
+        writeCache(tables);
+        String time = getTimeFormatted(System.currentTimeMillis() - start);
+        long cpu = metrics.getCurrentThreadCpuTime() - cpuStart + workersCpu.get();
+        metrics.record(ImportMetrics.Phase.CHECKSUM, (System.currentTimeMillis() - start) * 1_000_000, cpu);
+        importLogger.info(String.format("Database checksum %d calculated for %,d tables (%,d from the cache) in %s",
+                checksum, tables.size(), reused, time));
+        return checksum;
+    }
+
+    /**
+     * @return table -> [update_time, checksum]
+     */
+    private Map<String, String[]> readCache() {
+        Map<String, String[]> rtn = new HashMap<>();
+        if (!cacheFile.isFile()) return rtn;
+        try {
+            List<String> lines = Files.readAllLines(cacheFile.toPath(), StandardCharsets.UTF_8);
+            //The cache is only valid for the database it was calculated for
+            if (lines.isEmpty() || !lines.get(0).equals("# " + dbName)) return rtn;
+            for (String line : lines.subList(1, lines.size())) {
+                String[] fields = line.split("\t");
+                if (fields.length == 3 && !fields[1].isEmpty()) rtn.put(fields[0], new String[]{fields[1], fields[2]});
+            }
+        } catch (IOException e) {
+            errorLogger.warn("The checksum cache " + cacheFile + " could not be read", e);
+        }
+        return rtn;
+    }
+
+    private void writeCache(Map<String, String[]> tables) {
+        List<String> lines = new ArrayList<>();
+        lines.add("# " + dbName);
+        tables.forEach((table, value) -> lines.add(table + "\t" + value[0] + "\t" + value[1]));
+        try {
+            Files.write(cacheFile.toPath(), lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            errorLogger.warn("The checksum cache " + cacheFile + " could not be written", e);
+        }
+    }
+}
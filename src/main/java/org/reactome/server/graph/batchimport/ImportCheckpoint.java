@@ -0,0 +1,189 @@
+package org.reactome.server.graph.batchimport;
+
+import org.apache.commons.io.FileUtils;
+import org.reactome.server.graph.utils.LongLongMap;
+import org.reactome.server.graph.utils.LongSet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Copy of the store taken between two import roots, next to the importer state needed to carry on from there. It is
+ * kept in a sibling of the store directory (graph.db.checkpoint for graph.db) and replaced atomically, so a failure
+ * while taking a checkpoint leaves the previous one untouched.
+ * <p>
+ * The content of the state file is decided by the importer: this class only provides the streams and the helpers to
+ * write and read the collections it keeps.
+ */
+class ImportCheckpoint {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String STORE = "store";
+    private static final String STATE = "importer.state";
+    private static final long TIME_RESOLUTION = 2_000L; // coarsest file time resolution (FAT)
+
+    @FunctionalInterface
+    interface StateWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface StateReader {
+        void read(DataInputStream in) throws IOException;
+    }
+
+    private final File store;
+    private final File directory;
+
+    ImportCheckpoint(File store) {
+        this.store = store.getAbsoluteFile();
+        this.directory = new File(this.store.getParentFile(), this.store.getName() + ".checkpoint");
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    boolean exists() {
+        return new File(directory, STATE).isFile() && new File(directory, STORE).isDirectory();
+    }
+
+    /**
+     * Copies the store (which has to be flushed beforehand) and writes the state next to it. The files that did not
+     * change since the previous checkpoint are hard linked from it instead of being copied again
+     */
+    void save(StateWriter writer) throws IOException {
+        File tmp = new File(directory.getParentFile(), directory.getName() + ".tmp");
+        if (tmp.exists()) FileUtils.forceDelete(tmp);
+        long taken = exists() ? new File(directory, STATE).lastModified() : 0L;
+        copyStore(store.toPath(), new File(tmp, STORE).toPath(), new File(directory, STORE).toPath(), taken);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(tmp, STATE)), 1 << 16))) {
+            out.writeInt(FORMAT_VERSION);
+            writer.write(out);
+        }
+        if (directory.exists()) FileUtils.forceDelete(directory);
+        if (!tmp.renameTo(directory)) throw new IOException("The checkpoint could not be moved to " + directory);
+    }
+
+    /**
+     * Replaces the content of the store with the one in the checkpoint and reads the state
+     */
+    void restore(StateReader reader) throws IOException {
+        File state = new File(directory, STATE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(state), 1 << 16))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) throw new IOException("Unsupported checkpoint format " + version + " in " + state);
+            reader.read(in);
+        }
+        if (store.exists()) FileUtils.cleanDirectory(store);
+        FileUtils.copyDirectory(new File(directory, STORE), store);
+    }
+
+    void delete() throws IOException {
+        if (directory.exists()) FileUtils.forceDelete(directory);
+    }
+
+    /**
+     * The copies keep the size and modification time of the original files, so a file of the store with the same ones
+     * as its copy in the previous checkpoint has not been written since then. Only files last written a while before
+     * the previous checkpoint was taken are considered, since some file systems keep the times with a low resolution
+     *
+     * @param taken time when the previous checkpoint was taken (0 if there is none)
+     */
+    private static void copyStore(Path source, Path target, Path previous, long taken) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path relative = source.relativize(path);
+                Path destination = target.resolve(relative);
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(destination);
+                } else if (!link(path, previous.resolve(relative), destination, taken - TIME_RESOLUTION)) {
+                    Files.copy(path, destination, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the copy was unchanged and could be linked (hard links are not supported by every file system)
+     */
+    private static boolean link(Path file, Path copy, Path destination, long writtenBefore) {
+        try {
+            if (!Files.isRegularFile(copy) || Files.size(file) != Files.size(copy)) return false;
+            FileTime modified = Files.getLastModifiedTime(file);
+            if (modified.toMillis() >= writtenBefore || !modified.equals(Files.getLastModifiedTime(copy))) return false;
+            Files.createLink(destination, copy);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    static void write(DataOutput out, LongLongMap map) throws IOException {
+        out.writeInt(map.size());
+        try {
+            map.forEach((key, value) -> {
+                try {
+                    out.writeLong(key);
+                    out.writeLong(value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static void read(DataInput in, LongLongMap map) throws IOException {
+        map.clear();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) map.put(in.readLong(), in.readLong());
+    }
+
+    static void write(DataOutput out, LongSet set) throws IOException {
+        out.writeInt(set.size());
+        try {
+            set.forEach(value -> {
+                try {
+                    out.writeLong(value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static void read(DataInput in, LongSet set) throws IOException {
+        set.clear();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) set.add(in.readLong());
+    }
+
+    static void write(DataOutput out, Map<? extends Number, Long> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<? extends Number, Long> entry : map.entrySet()) {
+            out.writeLong(entry.getKey().longValue());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    static void readLongs(DataInput in, Map<Long, Long> map) throws IOException {
+        map.clear();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) map.put(in.readLong(), in.readLong());
+    }
+
+    static void readInts(DataInput in, Map<Integer, Long> map) throws IOException {
+        map.clear();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) map.put((int) in.readLong(), in.readLong());
+    }
+}
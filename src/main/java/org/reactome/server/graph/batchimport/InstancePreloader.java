@@ -0,0 +1,429 @@
+package org.reactome.server.graph.batchimport;
+
+import org.gk.model.GKInstance;
+import org.gk.model.ReactomeJavaConstants;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+import org.reactome.server.graph.utils.MySQLConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.reactome.server.graph.utils.FormatUtils.getTimeFormatted;
+
+/**
+ * Loads the attribute values of every instance in the relational database with a few streaming queries per
+ * class table, instead of letting the MySQLAdaptor query the database attribute by attribute the first time
+ * each GKInstance is accessed during the import.
+ * <p>
+ * Single valued attributes are stored as columns of the table of the class where they are defined, so one query
+ * per table retrieves all of them. Multivalued attributes are stored in their own "Class_2_attribute" table and
+ * are retrieved ordered by rank. Once all the values have been set, the instances are flagged as inflated so the
+ * MySQLAdaptor does not try to load them again.
+ * <p>
+ * When more than one thread is requested, the queries of the big tables are split in dbId ranges that are run by a
+ * pool of workers, each one with its own connection. The workers only read and convert the rows, while the values
+ * are set into the instances by the calling thread, so the GKInstance objects are never modified concurrently.
+ * <p>
+ * The rows are streamed, which blocks the connection until the result has been read, so a connection of its own is
+ * used even when reading sequentially (the one of the MySQLAdaptor is only used when no connection factory is set).
+ */
+public class InstancePreloader {
+
+    private static final Logger importLogger = LoggerFactory.getLogger("import");
+    private static final Logger errorLogger = LoggerFactory.getLogger("import_error");
+
+    //These are either set by fetchInstancesByClass or not needed at all for the conversion
+    private static final Set<String> SKIPPED_ATTRIBUTES = Set.of("DB_ID", "_class", "_displayName", "_timestamp", "_Protege_id");
+
+    //Classes that are not imported and whose instances (or attribute values) are expensive to keep in memory
+    private static final List<String> SKIPPED_CLASSES = List.of(
+            ReactomeJavaConstants.PathwayDiagramItem,
+            ReactomeJavaConstants.ReactionCoordinates,
+            ReactomeJavaConstants.PathwayDiagram
+    );
+
+    private static final int BATCH_SIZE = 10_000;
+    private static final int MAX_PENDING_BATCHES = 64;
+    //Tables with fewer instances than this per thread are not worth splitting in dbId ranges
+    private static final int MIN_RANGE_INSTANCES = 50_000;
+
+    private final MySQLAdaptor dba;
+    private final MySQLConnectionFactory connectionFactory;
+    private final int threads;
+    private final Map<Long, GKInstance> instances = new HashMap<>();
+
+    public InstancePreloader(MySQLAdaptor dba) {
+        this(dba, null, 1);
+    }
+
+    /**
+     * @param dba               the adaptor whose cached instances are populated
+     * @param connectionFactory used to open one extra connection per thread (the dba one is used if null)
+     * @param threads           number of concurrent readers
+     */
+    public InstancePreloader(MySQLAdaptor dba, MySQLConnectionFactory connectionFactory, int threads) {
+        this.dba = dba;
+        this.connectionFactory = connectionFactory;
+        this.threads = connectionFactory == null ? 1 : Math.max(1, threads);
+    }
+
+    /**
+     * Retrieves all the instances and sets their attribute values. If something goes wrong the instances are
+     * deflated so the import falls back to the lazy loading provided by the MySQLAdaptor.
+     */
+    public void preload() {
+        long start = System.currentTimeMillis();
+        System.out.print("\rPreloading instances...");
+        importLogger.info("Preloading instances using " + threads + " connection(s)");
+        try {
+            Map<SchemaClass, DbIdRange> classRanges = new HashMap<>();
+            for (Object o : dba.fetchInstancesByClass(ReactomeJavaConstants.DatabaseObject)) {
+                GKInstance instance = (GKInstance) o;
+                instances.put(instance.getDBID(), instance);
+                classRanges.computeIfAbsent(instance.getSchemClass(), c -> new DbIdRange()).add(instance.getDBID());
+            }
+
+            List<AttributeQuery> queries = getQueries(classRanges);
+            if (threads == 1) {
+                loadSequentially(queries);
+            } else {
+                loadConcurrently(queries);
+            }
+
+            for (GKInstance instance : instances.values()) {
+                if (!isSkipped(instance.getSchemClass())) instance.setIsInflated(true);
+            }
+            String time = getTimeFormatted(System.currentTimeMillis() - start);
+            importLogger.info(String.format("%,d instances preloaded (%s)", instances.size(), time));
+            System.out.println(String.format("\r%,d instances preloaded (%s)", instances.size(), time));
+        } catch (Exception e) {
+            errorLogger.error("An error occurred while preloading the instances. Falling back to lazy loading", e);
+            System.err.println("\rAn error occurred while preloading the instances (See error log)");
+            instances.values().forEach(GKInstance::deflate);
+        } finally {
+            instances.clear();
+        }
+    }
+
+    private void loadSequentially(List<AttributeQuery> queries) throws SQLException, InterruptedException {
+        if (connectionFactory == null) {
+            loadSequentially(dba.getConnection(), queries);
+        } else {
+            try (Connection connection = connectionFactory.getConnection()) {
+                loadSequentially(connection, queries);
+            }
+        }
+    }
+
+    private void loadSequentially(Connection connection, List<AttributeQuery> queries) throws SQLException, InterruptedException {
+        int i = 0;
+        for (AttributeQuery query : queries) {
+            printProgress(++i, queries.size());
+            execute(connection, query, ValueBatch::apply);
+        }
+    }
+
+    private void loadConcurrently(List<AttributeQuery> queries) throws Exception {
+        Queue<AttributeQuery> pending = new ConcurrentLinkedQueue<>(queries);
+        BlockingQueue<ValueBatch> batches = new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        AtomicInteger done = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "instance-preloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try (Connection connection = connectionFactory.getConnection()) {
+                    AttributeQuery query;
+                    while (failure.get() == null && (query = pending.poll()) != null) {
+                        execute(connection, query, batches::put);
+                        done.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    try {
+                        batches.put(ValueBatch.END);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+
+        //The calling thread is the only one setting values into the instances
+        boolean completed = false;
+        try {
+            int running = threads;
+            while (running > 0) {
+                ValueBatch batch = batches.take();
+                if (batch == ValueBatch.END) {
+                    running--;
+                } else {
+                    batch.apply();
+                    printProgress(done.get(), queries.size());
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) stopWorkers(executor, batches, failure);
+        }
+        if (failure.get() != null) throw failure.get();
+    }
+
+    /**
+     * Called when the calling thread stops consuming the batches: the workers are told to stop and interrupted,
+     * and the queue is drained until all of them have finished so none is left blocked on a full queue
+     */
+    private void stopWorkers(ExecutorService executor, BlockingQueue<ValueBatch> batches, AtomicReference<Exception> failure)
+            throws InterruptedException {
+        failure.compareAndSet(null, new IllegalStateException("The attribute values are not consumed any more"));
+        executor.shutdownNow();
+        do {
+            batches.clear();
+        } while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS));
+        batches.clear();
+    }
+
+    private void printProgress(int done, int total) {
+        System.out.print("\rPreloading attribute values: " + Math.round((done * 100.0) / total) + "%");
+    }
+
+    /**
+     * Creates one query per table for the single valued attributes plus one per multivalued attribute. When
+     * running concurrently, the ones of the big tables are split in up to as many dbId ranges as threads (covering
+     * the dbIds of the instances of the table), so they do not end up being read by only one of the workers. The
+     * small tables are read in one go, a range per thread would only add queries returning a handful of rows.
+     *
+     * @param classRanges the number of instances and their dbId range per schema class
+     */
+    private List<AttributeQuery> getQueries(Map<SchemaClass, DbIdRange> classRanges) throws Exception {
+        List<AttributeQuery> rtn = new ArrayList<>();
+        for (SchemaClass table : getTables()) {
+            DbIdRange range = new DbIdRange();
+            classRanges.forEach((schemaClass, classRange) -> {
+                if (schemaClass.isa(table.getName())) range.add(classRange);
+            });
+            int ranges = (int) Math.min(threads, range.count / MIN_RANGE_INSTANCES);
+
+            List<SchemaAttribute> singleValued = new ArrayList<>();
+            List<AttributeQuery> tableQueries = new ArrayList<>();
+            for (SchemaAttribute attribute : getOwnAttributes(table)) {
+                if (attribute.isMultiple()) {
+                    tableQueries.add(new AttributeQuery(table, List.of(attribute), true));
+                } else {
+                    singleValued.add(attribute);
+                }
+            }
+            if (!singleValued.isEmpty()) tableQueries.add(new AttributeQuery(table, singleValued, false));
+
+            for (AttributeQuery query : tableQueries) {
+                if (ranges < 2) {
+                    rtn.add(query);
+                } else {
+                    long rangeSize = (range.max - range.min) / ranges + 1;
+                    for (long from = range.min; from <= range.max; from += rangeSize) {
+                        rtn.add(query.forRange(from, from + rangeSize - 1));
+                    }
+                }
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * @return the schema classes that have got their own table and at least one attribute defined in it
+     */
+    private List<SchemaClass> getTables() throws Exception {
+        List<SchemaClass> rtn = new ArrayList<>();
+        for (Object o : dba.fetchSchema().getClasses()) {
+            SchemaClass schemaClass = (SchemaClass) o;
+            if (isSkipped(schemaClass)) continue;
+            if (!getOwnAttributes(schemaClass).isEmpty()) rtn.add(schemaClass);
+        }
+        return rtn;
+    }
+
+    private void execute(Connection connection, AttributeQuery query, BatchConsumer consumer) throws SQLException, InterruptedException {
+        try (Statement statement = createStreamingStatement(connection); ResultSet rs = statement.executeQuery(query.getSql())) {
+            ValueBatch batch = new ValueBatch(query.multiple);
+            while (rs.next()) {
+                GKInstance instance = instances.get(rs.getLong(1));
+                if (instance == null) continue;
+                for (int i = 0; i < query.attributes.size(); i++) {
+                    SchemaAttribute attribute = query.attributes.get(i);
+                    Object value = getValue(rs, i + 2, attribute);
+                    if (value != null && batch.add(instance, attribute, value)) {
+                        consumer.accept(batch);
+                        batch = new ValueBatch(query.multiple);
+                    }
+                }
+            }
+            if (batch.size > 0) consumer.accept(batch);
+        }
+    }
+
+    /**
+     * The MySQL driver only streams the rows (instead of holding the whole result in memory) for forward only,
+     * read only statements with a fetch size of Integer.MIN_VALUE
+     */
+    private Statement createStreamingStatement(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(Integer.MIN_VALUE);
+        return statement;
+    }
+
+    private Object getValue(ResultSet rs, int column, SchemaAttribute attribute) throws SQLException {
+        if (attribute.isInstanceTypeAttribute()) {
+            long dbId = rs.getLong(column);
+            return rs.wasNull() ? null : instances.get(dbId);
+        }
+        Class<?> type = attribute.getType();
+        Object value;
+        if (Boolean.class.equals(type)) {
+            String aux = rs.getString(column);
+            value = aux == null ? null : Boolean.valueOf(aux.equalsIgnoreCase("TRUE"));
+        } else if (Integer.class.equals(type)) {
+            value = rs.getInt(column);
+        } else if (Long.class.equals(type)) {
+            value = rs.getLong(column);
+        } else if (Float.class.equals(type)) {
+            value = rs.getFloat(column);
+        } else if (String.class.equals(type)) {
+            value = rs.getString(column);
+        } else {
+            value = rs.getObject(column);
+        }
+        return rs.wasNull() ? null : value;
+    }
+
+    private List<SchemaAttribute> getOwnAttributes(SchemaClass schemaClass) {
+        List<SchemaAttribute> rtn = new ArrayList<>();
+        for (Object o : schemaClass.getAttributes()) {
+            SchemaAttribute attribute = (SchemaAttribute) o;
+            if (SKIPPED_ATTRIBUTES.contains(attribute.getName())) continue;
+            if (attribute.getOrigin().getName().equals(schemaClass.getName())) rtn.add(attribute);
+        }
+        return rtn;
+    }
+
+    private boolean isSkipped(SchemaClass schemaClass) {
+        for (String skipped : SKIPPED_CLASSES) {
+            if (schemaClass.isa(skipped)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Number of instances and the lowest and highest of their dbIds
+     */
+    private static class DbIdRange {
+        private long count = 0;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        void add(long dbId) {
+            count++;
+            min = Math.min(min, dbId);
+            max = Math.max(max, dbId);
+        }
+
+        void add(DbIdRange other) {
+            count += other.count;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+    }
+
+    private interface BatchConsumer {
+        void accept(ValueBatch batch) throws InterruptedException;
+    }
+
+    /**
+     * Either all the single valued attributes of a table or one multivalued attribute, optionally for a dbId range
+     */
+    private static class AttributeQuery {
+        private final SchemaClass table;
+        private final List<SchemaAttribute> attributes;
+        private final boolean multiple;
+        private final Long from;
+        private final Long to;
+
+        AttributeQuery(SchemaClass table, List<SchemaAttribute> attributes, boolean multiple) {
+            this(table, attributes, multiple, null, null);
+        }
+
+        private AttributeQuery(SchemaClass table, List<SchemaAttribute> attributes, boolean multiple, Long from, Long to) {
+            this.table = table;
+            this.attributes = attributes;
+            this.multiple = multiple;
+            this.from = from;
+            this.to = to;
+        }
+
+        AttributeQuery forRange(long from, long to) {
+            return new AttributeQuery(table, attributes, multiple, from, to);
+        }
+
+        String getSql() {
+            StringBuilder sql = new StringBuilder("SELECT DB_ID");
+            attributes.forEach(attribute -> sql.append(", ").append(attribute.getName()));
+            sql.append(" FROM ").append(table.getName());
+            if (multiple) sql.append("_2_").append(attributes.get(0).getName());
+            if (from != null) sql.append(" WHERE DB_ID BETWEEN ").append(from).append(" AND ").append(to);
+            if (multiple) sql.append(" ORDER BY DB_ID, ").append(attributes.get(0).getName()).append("_rank");
+            return sql.toString();
+        }
+    }
+
+    /**
+     * A chunk of (instance, attribute, value) entries read from the database and waiting to be set
+     */
+    private static class ValueBatch {
+        private static final ValueBatch END = new ValueBatch(false);
+
+        private final boolean multiple;
+        private final GKInstance[] instances = new GKInstance[BATCH_SIZE];
+        private final SchemaAttribute[] attributes = new SchemaAttribute[BATCH_SIZE];
+        private final Object[] values = new Object[BATCH_SIZE];
+        private int size = 0;
+
+        ValueBatch(boolean multiple) {
+            this.multiple = multiple;
+        }
+
+        /**
+         * @return true if the batch is full
+         */
+        boolean add(GKInstance instance, SchemaAttribute attribute, Object value) {
+            instances[size] = instance;
+            attributes[size] = attribute;
+            values[size] = value;
+            return ++size == BATCH_SIZE;
+        }
+
+        void apply() {
+            for (int i = 0; i < size; i++) {
+                if (multiple) {
+                    instances[i].addAttributeValueNoCheck(attributes[i], values[i]);
+                } else {
+                    instances[i].setAttributeValueNoCheck(attributes[i], values[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.reactome.server.graph.batchimport;
+
+import org.apache.commons.io.FileUtils;
+import org.reactome.server.graph.utils.LongLongMap;
+
+import java.io.*;
+
+/**
+ * The dbId to node id map of a store created with the BatchInserter, kept next to it (graph.db.ids for graph.db)
+ * so a later delta import can find the nodes to rewrite without querying the store. It also records the dbId of
+ * the release saved as DBInfo, the highest InstanceEdit dbId (the delta import applies the changes of the newer
+ * ones) and whether the interaction data was added (those nodes get dbIds that are not in the relational database,
+ * so a delta import cannot be applied on top of them).
+ * <p>
+ * The signature of the source (database name, checksum, importer and neo4j versions, as written in DBInfo) is kept
+ * in the header, so an import can find out whether the store is already up to date without opening it.
+ */
+class NodeIdMapFile {
+
+    private static final int FORMAT_VERSION = 3;
+
+    private final File file;
+    private long releaseDbId;
+    private long lastInstanceEditDbId;
+    private boolean interactions;
+    private String signature;
+
+    NodeIdMapFile(File store) {
+        File dir = store.getAbsoluteFile();
+        this.file = new File(dir.getParentFile(), dir.getName() + ".ids");
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    boolean exists() {
+        return file.isFile();
+    }
+
+    long getReleaseDbId() {
+        return releaseDbId;
+    }
+
+    long getLastInstanceEditDbId() {
+        return lastInstanceEditDbId;
+    }
+
+    boolean hasInteractions() {
+        return interactions;
+    }
+
+    String getSignature() {
+        return signature;
+    }
+
+    void save(long releaseDbId, long lastInstanceEditDbId, boolean interactions, String signature, LongLongMap dbIds) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(releaseDbId);
+            out.writeLong(lastInstanceEditDbId);
+            out.writeBoolean(interactions);
+            out.writeUTF(signature);
+            ImportCheckpoint.write(out, dbIds);
+        }
+        if (file.exists()) FileUtils.forceDelete(file);
+        if (!tmp.renameTo(file)) throw new IOException("The node id map could not be moved to " + file);
+        this.releaseDbId = releaseDbId;
+        this.lastInstanceEditDbId = lastInstanceEditDbId;
+        this.interactions = interactions;
+        this.signature = signature;
+    }
+
+    void load(LongLongMap dbIds) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            readHeader(in);
+            ImportCheckpoint.read(in, dbIds);
+        }
+    }
+
+    /**
+     * Only reads the header (release, last InstanceEdit, interactions and signature), not the map
+     */
+    void loadHeader() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            readHeader(in);
+        }
+    }
+
+    private void readHeader(DataInput in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) throw new IOException("Unsupported node id map format " + version + " in " + file);
+        releaseDbId = in.readLong();
+        lastInstanceEditDbId = in.readLong();
+        interactions = in.readBoolean();
+        signature = in.readUTF();
+    }
+
+    void delete() throws IOException {
+        if (file.exists()) FileUtils.forceDelete(file);
+    }
+}
@@ -0,0 +1,36 @@
+package org.reactome.server.graph.batchimport;
+
+/**
+ * A relationship whose target instance is still waiting in the traversal queue. It is saved as soon as the target
+ * node is created, so the source instance does not have to be kept (inflated) until then.
+ */
+class PendingRelationship {
+
+    private final long from;
+    private final String relationName;
+    private final int stoichiometry;
+    private final int order;
+
+    PendingRelationship(long from, String relationName, int stoichiometry, int order) {
+        this.from = from;
+        this.relationName = relationName;
+        this.stoichiometry = stoichiometry;
+        this.order = order;
+    }
+
+    long getFrom() {
+        return from;
+    }
+
+    String getRelationName() {
+        return relationName;
+    }
+
+    int getStoichiometry() {
+        return stoichiometry;
+    }
+
+    int getOrder() {
+        return order;
+    }
+}
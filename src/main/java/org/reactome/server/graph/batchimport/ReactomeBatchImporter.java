@@ -3,25 +3,29 @@ package org.reactome.server.graph.batchimport;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.IllegalClassException;
-import org.apache.commons.lang.StringUtils;
 import org.gk.model.GKInstance;
 import org.gk.model.ReactomeJavaConstants;
-import org.gk.pathwaylayout.PathwayDiagramXMLGenerator;
 import org.gk.persistence.MySQLAdaptor;
 import org.gk.schema.InvalidClassException;
-import org.neo4j.batchinsert.BatchInserter;
-import org.neo4j.batchinsert.BatchInserters;
+import org.gk.schema.SchemaClass;
+import org.neo4j.batchinsert.BatchRelationship;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.RelationshipType;
-import org.neo4j.io.layout.DatabaseLayout;
 import org.reactome.server.graph.Main;
 import org.reactome.server.graph.domain.annotations.ReactomeProperty;
 import org.reactome.server.graph.domain.annotations.ReactomeRelationship;
 import org.reactome.server.graph.domain.annotations.ReactomeTransient;
 import org.reactome.server.graph.domain.model.*;
 import org.reactome.server.graph.interactors.InteractionImporter;
+import org.reactome.server.graph.sink.*;
 import org.reactome.server.graph.utils.DatabaseToPrefix;
 import org.reactome.server.graph.utils.GKInstanceHelper;
+import org.reactome.server.graph.utils.ImportMetrics;
+import org.reactome.server.graph.utils.InstanceCache;
+import org.reactome.server.graph.utils.LongLongMap;
+import org.reactome.server.graph.utils.LongSet;
+import org.reactome.server.graph.utils.MySQLConnectionFactory;
+import org.reactome.server.graph.utils.ProcessNodeExtractor;
 import org.reactome.server.graph.utils.ProgressBarUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +33,7 @@ import org.springframework.data.neo4j.core.schema.Relationship;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
@@ -42,6 +47,8 @@ import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static org.reactome.server.graph.utils.FormatUtils.getTimeFormatted;
@@ -54,7 +61,8 @@ public class ReactomeBatchImporter {
     private static final Logger consistencyCheckReportLogger = LoggerFactory.getLogger("consistency_check_report");
 
     private static MySQLAdaptor dba;
-    private static BatchInserter batchInserter;
+    private static MySQLConnectionFactory connectionFactory;
+    private static GraphSink graphSink;
     private static String DATA_DIR;
     private String neo4jVersion;
 
@@ -71,37 +79,75 @@ public class ReactomeBatchImporter {
     public static final String STOICHIOMETRY = "stoichiometry";
     public static final String ORDER = "order";
 
+    //Relationships saved from the target to the instance holding the attribute
+    private static final Set<String> REVERSED_RELATIONSHIPS = Set.of("author", "authored", "created", "edited", "modified", "revised", "reviewed");
+    //Relationships that can be saved from any of both ends, so their owner cannot be told from the direction
+    private static final Set<String> UNDIRECTED_RELATIONSHIPS = Set.of("reverseReaction", "equivalentTo", "inferredTo");
+    //Relationships resolved (and written) together in the second phase of the two-phase import
+    private static final int RELATIONSHIP_CHUNK_SIZE = 100_000;
+    //The checkpoints are spaced so copying the store takes at most a tenth of the import time
+    private static final int CHECKPOINT_COST_FACTOR = 10;
+
     private static final Map<Class<?>, List<ReactomeAttribute>> primitiveAttributesMap = new HashMap<>();
     private static final Map<Class<?>, List<ReactomeAttribute>> primitiveListAttributesMap = new HashMap<>();
     private static final Map<Class<?>, List<ReactomeAttribute>> relationAttributesMap = new HashMap<>();
     private static final Map<ReactomeAttribute, String> attributeRenaming = new HashMap<>();
+    private final Map<String, ConversionPlan> conversionPlans = new HashMap<>();
+    private final Map<SchemaClass, Boolean> drugSchemaClasses = new HashMap<>();
 
     public static Long maxDbId;
-    private static final Map<Long, Long> dbIds = new HashMap<>();
-    private static final Set<Long> discarded = new HashSet<>();
+    private static LongLongMap dbIds = new LongLongMap();
+    private static LongSet discarded = new LongSet();
     private static final Map<Long, Long> reverseReactions = new HashMap<>();
+    private static final ImportMetrics metrics = new ImportMetrics();
     private static final Map<Long, Long> equivalentTo = new HashMap<>();
-    private static final Map<Class<?>, Label[]> labelMap = new HashMap<>();
     private static final Map<Integer, Long> taxIdDbId = new HashMap<>();
 
-    private static final Set<Long> topLevelPathways = new HashSet<>();
+    private static LongSet topLevelPathways = new LongSet();
 
     private static int total;
 
     private static final DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
     private Set<String> trivialMolecules;
-    private InteractionImporter interactionImporter;
+    private final boolean includeInteractors;
+    private final String interactorsFile;
+    private final boolean isSQLLite;
     private final GKInstanceHelper gkInstanceHelper;
+    private final ProcessNodeExtractor processNodeExtractor;
 
     private GKInstance currentRelease;
 
+    private boolean preload = false;
+    private int threads = 1;
+    private InstanceCache instanceCache = new InstanceCache(InstanceCache.DEFAULT_MAX_ENTRIES);
+    private boolean twoPhase = false;
+    private GraphSink.Type sinkType = GraphSink.Type.NEO4J;
+    private String csvDir = null;
+    private String neo4jAdmin = null;
+    private File taxonomyFile = null;
+    private InteractionImporter.Provenance provenance = InteractionImporter.Provenance.OBJECT;
+    private final RelationshipBuffer relationshipBuffer = new RelationshipBuffer();
+
+    private boolean resume = false;
+    private boolean skipUnchanged = false;
+    private int checkpointInterval = 0;
+    private ImportCheckpoint checkpoint;
+    private long lastCheckpoint;
+    private long lastCheckpointCost = 0;
+    private boolean constraintsCreated = false;
+    private boolean rootsImported = false;
+    private ReverseReferenceIndex referenceIndex;
+    private DatabaseChecksum databaseChecksum;
+    private File reportFile = null;
+
     public ReactomeBatchImporter(String host, Integer port, String name, String user, String password, String neo4j,
                                  boolean includeInteractors, String interactorsFile, boolean isSQLLite, String neo4jVersion) {
         try {
             DATA_DIR = neo4j;
             this.neo4jVersion = neo4jVersion;
             dba = new MySQLAdaptor(host, name, user, password, port);
+            connectionFactory = new MySQLConnectionFactory(host, port, name, user, password);
             maxDbId = dba.fetchMaxDbId();
 
             total = (int) dba.getClassInstanceCount(ReactomeJavaConstants.DatabaseObject);
@@ -130,16 +176,232 @@ public class ReactomeBatchImporter {
             importLogger.error("An error occurred while retrieving the trivial molecules", e);
         }
 
-        if (includeInteractors)
-            interactionImporter = new InteractionImporter(dba, dbIds, taxIdDbId, interactorsFile, isSQLLite);
+        this.includeInteractors = includeInteractors;
+        this.interactorsFile = interactorsFile;
+        this.isSQLLite = isSQLLite;
         gkInstanceHelper = new GKInstanceHelper(dba);
+        processNodeExtractor = new ProcessNodeExtractor(dba);
+    }
+
+    /**
+     * Starts calculating the database checksum (needed for the DBInfo node) in background using as many connections
+     * as threads
+     */
+    private void startDatabaseChecksum() {
+        databaseChecksum = new DatabaseChecksum(connectionFactory, dba.getDBName(), threads, new File(DATA_DIR), metrics);
+        databaseChecksum.start();
+    }
+
+    /**
+     * @param preload true to load all the attribute values per schema class before the import starts
+     */
+    public void setPreload(boolean preload) {
+        this.preload = preload;
+    }
+
+    /**
+     * @param maxEntries number of instances kept inflated once they have been imported (0 deflates them straight away)
+     */
+    public void setInstanceCacheSize(int maxEntries) {
+        this.instanceCache = new InstanceCache(maxEntries);
+    }
+
+    /**
+     * @param threads number of concurrent connections used to read from the relational database and the interaction data.
+     *                The instances are only read concurrently when they are preloaded (see setPreload)
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param twoPhase true to create all the nodes first and then save all the relationships
+     */
+    public void setTwoPhase(boolean twoPhase) {
+        this.twoPhase = twoPhase;
+    }
+
+    /**
+     * @param sinkType where the converted graph is written (see {@link GraphSink.Type})
+     */
+    public void setSinkType(GraphSink.Type sinkType) {
+        this.sinkType = sinkType;
+    }
+
+    /**
+     * Sets the sink directly (e.g. an {@link InMemoryGraphSink} to be inspected afterwards). Takes precedence over
+     * the sink type
+     */
+    public void setGraphSink(GraphSink graphSink) {
+        ReactomeBatchImporter.graphSink = graphSink;
+    }
+
+    /**
+     * @param csvDir directory where the CSV files for neo4j-admin import are written instead of using the BatchInserter
+     */
+    public void setCsvDir(String csvDir) {
+        this.csvDir = csvDir;
+    }
+
+    /**
+     * @param neo4jAdmin path of neo4j-admin used to import the CSV files (null to look for it in $NEO4J_HOME and the PATH)
+     */
+    public void setNeo4jAdmin(String neo4jAdmin) {
+        this.neo4jAdmin = neo4jAdmin;
+    }
+
+    /**
+     * @param taxonomyFile NCBI taxonomy nodes.dmp used to find the species of the interactors (null to query Ensembl)
+     */
+    public void setTaxonomyFile(String taxonomyFile) {
+        this.taxonomyFile = taxonomyFile == null ? null : new File(taxonomyFile);
+    }
+
+    /**
+     * @param reportFile where the JSON report with the metrics of the run is written (null to write it next to the store)
+     */
+    public void setReportFile(String reportFile) {
+        this.reportFile = reportFile == null ? null : new File(reportFile);
+    }
+
+    /**
+     * @param provenance how the objects created by the interactions import are tracked (see InteractionImporter)
+     */
+    public void setProvenance(InteractionImporter.Provenance provenance) {
+        this.provenance = provenance;
+    }
+
+    /**
+     * @param resume true to continue from the last checkpoint (if any) instead of starting from scratch
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * @param skipUnchanged true to leave the existing store untouched when it was created from the same database
+     *                      (same checksum) by the same version of the importer
+     */
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    /**
+     * @param minutes minimum time between two checkpoints (0 disables them). Checkpoints are only taken between import
+     *                roots and right before the interaction data is added, and never more often than needed to keep the
+     *                time spent copying the store under 1/CHECKPOINT_COST_FACTOR of the import time
+     */
+    public void setCheckpointInterval(int minutes) {
+        this.checkpointInterval = minutes;
+    }
+
+    /**
+     * @param storage where the dbId to node id map (and the other dbId collections) are kept during the import
+     */
+    public void setIdMapStorage(LongLongMap.Storage storage) {
+        dbIds = new LongLongMap(storage, total);
+        discarded = new LongSet(storage, 1024);
+        topLevelPathways = new LongSet(storage, 1024);
     }
 
     public void importAll(boolean barComplete) throws IOException {
         final long start = System.currentTimeMillis();
+        lastCheckpoint = start;
+        startDatabaseChecksum();
+        if (skipUnchanged && !resume && sinkType == GraphSink.Type.NEO4J && isStoreUpToDate()) {
+            String message = "The database '" + dba.getDBName() + "' has not changed since " + DATA_DIR + " was imported. Nothing to do";
+            importLogger.info(message);
+            System.out.println("\r" + message);
+            writeReport("skipped");
+            return;
+        }
         prepareDatabase();
 
+        boolean succeeded = true;
+        if (!rootsImported) {
+            try {
+                importRoots(barComplete);
+            } catch (Exception e) {
+                succeeded = false;
+                e.printStackTrace();
+            }
+        }
+
+        if (includeInteractors) {
+            if (referenceIndex == null) buildReferenceIndex();
+            InteractionImporter interactionImporter = new InteractionImporter(dba, dbIds, taxIdDbId, interactorsFile, isSQLLite,
+                    referenceIndex, instanceCache, taxonomyFile);
+            interactionImporter.setProvenance(provenance);
+            interactionImporter.setThreads(threads);
+            try (ImportMetrics.Scope ignored = metrics.measure(ImportMetrics.Phase.INTERACTIONS)) {
+                interactionImporter.addInteractionData(graphSink);
+            }
+        }
+
+        printConsistencyCheckReport();
+
+        if (!constraintsCreated) createConstraints();
+        importLogger.info("Storing the graph");
+        System.out.print("\n\nPlease wait while storing the graph...");
+        try (ImportMetrics.Scope ignored = metrics.measure(ImportMetrics.Phase.SHUTDOWN)) {
+            graphSink.shutdown();
+        }
+        //The map of a previous store was deleted by prepareDatabase, so an incomplete store is left without one
+        if (graphSink instanceof BatchInserterGraphSink && succeeded) saveNodeIdMap(new NodeIdMapFile(new File(DATA_DIR)));
+        if (graphSink instanceof ResumableGraphSink) checkpoint.delete();
+        importLogger.info("The database '" + dba.getDBName() + "' has been imported to Neo4j");
+        Long time = System.currentTimeMillis() - start;
+        System.out.println("\rThe database '" + dba.getDBName() + "' has been imported to Neo4j (" + getTimeFormatted(time) + ")");
+        writeReport("full");
+
+    }
+
+    /**
+     * Applies the changes made in the relational database since the release saved as DBInfo to an existing store
+     * created by a previous (full or delta) import with the neo4j sink, instead of creating the whole graph again.
+     * <p>
+     * The changed instances are the InstanceEdits newer than the releaseDate of the DBInfo node, the instances they
+     * created or modified, the owners of the changed StableIdentifiers, the pathways of the changed PathwayDiagrams,
+     * the top level pathways and both the previous and the current release. The ones already in the graph are
+     * rewritten in place (see rewriteNode) while the new ones are imported when found from the import roots or from a
+     * rewritten instance, exactly as in a full import. Nodes of instances that are not in the relational database any
+     * more, and relationships that are not valid any more, are deleted by the script left next to the store because
+     * the BatchInserter cannot delete them. That script has to be executed (and removed) before the next delta import.
+     * <p>
+     * Properties taken from other instances (eg the url from the ReferenceDatabase) are only refreshed when the
+     * instance holding them changes.
+     */
+    public void importDelta() throws IOException {
+        final long start = System.currentTimeMillis();
+        File store = new File(DATA_DIR);
+        NodeIdMapFile nodeIdMap = new NodeIdMapFile(store);
+        if (!nodeIdMap.exists()) {
+            importLogger.error("The delta import needs " + nodeIdMap.getFile() + ", which is saved by the imports using the neo4j sink");
+            System.err.println("No node id map found in " + nodeIdMap.getFile() + ". Please run a full import first");
+            return;
+        }
+        //The deletions of the previous delta import refer to nodes and relationships that are still in the store and
+        //that this import would see (and keep or rewrite) as if they were valid
+        File pending = BatchInserterGraphSink.getDeletionsScript(store);
+        if (pending.exists()) {
+            importLogger.error("The deletions of the previous delta import in " + pending + " have not been executed yet");
+            System.err.println("Execute " + pending.getAbsolutePath() + " once the database is started and remove it before the next delta import");
+            return;
+        }
+        nodeIdMap.load(dbIds);
+        if (nodeIdMap.hasInteractions()) {
+            importLogger.error("The delta import cannot be applied to a graph including the interaction data");
+            System.err.println("The delta import cannot be applied to a graph including the interaction data. Please run a full import");
+            return;
+        }
+
+        startDatabaseChecksum();
+        BatchInserterGraphSink sink = new BatchInserterGraphSink(store);
+        graphSink = sink;
+        boolean succeeded = false;
         try {
+            if (preload) new InstancePreloader(dba, connectionFactory, threads).preload();
+            buildReferenceIndex();
             currentRelease = getLatestRelease();
 
             LinkedHashMap<String, List<GKInstance>> typesToImport = new LinkedHashMap<>();
@@ -148,53 +410,445 @@ public class ReactomeBatchImporter {
             typesToImport.put("Release", getInstancesByClass("_Release"));
             typesToImport.put("Update Trackers", getInstancesByClass("_UpdateTracker"));
 
-            for (Map.Entry<String, List<GKInstance>> entry : typesToImport.entrySet()) {
-                importLogger.info(MessageFormat.format("Started importing {0} {1}", entry.getValue().size(), entry.getKey()));
-                System.out.println(MessageFormat.format("Started importing {0} {1}\n", entry.getValue().size(), entry.getKey()));
-                importFromRoots(entry.getValue());
-                if (barComplete)
-                    ProgressBarUtils.completeProgressBar(total); //This is just forcing a 100% in the progress bar
-                importLogger.info(MessageFormat.format("Finished importing {0} {1}", entry.getValue().size(), entry.getKey()));
-                System.out.println(MessageFormat.format("Finished importing {0} {1}\n", entry.getValue().size(), entry.getKey()));
+            long lastInstanceEdit = nodeIdMap.getLastInstanceEditDbId();
+            LongSet changed = getChangedInstances(lastInstanceEdit);
+            topLevelPathways.forEach(changed::add);
+            changed.add(nodeIdMap.getReleaseDbId());
+            changed.add(currentRelease.getDBID());
+            int deleted = deleteMissingInstances(sink);
+            String summary = String.format("%,d instances changed after InstanceEdit %d and %,d deleted", changed.size(), lastInstanceEdit, deleted);
+            importLogger.info(summary);
+            System.out.println(summary + "\n");
+
+            //Only the instances already in the graph are rewritten, the new ones are created from the roots
+            LongSet toRewrite = new LongSet();
+            LongSet changedNodes = new LongSet();
+            changed.forEach(dbId -> {
+                long node = dbIds.get(dbId);
+                if (node == LongLongMap.NOT_FOUND) return;
+                toRewrite.add(dbId);
+                changedNodes.add(node);
+            });
+
+            int nodes = dbIds.size();
+            for (List<GKInstance> roots : typesToImport.values()) importFromRoots(roots);
+
+            //Undirected relationships are only deleted once every rewritten instance has told whether it needs them
+            Set<RelationshipKey> wanted = new HashSet<>();
+            List<BatchRelationship> undirected = new ArrayList<>();
+            int rewritten = 0;
+            for (long dbId : toLongArray(toRewrite)) {
+                GKInstance instance = dba.fetchInstance(dbId);
+                if (instance == null) continue;
+                ProgressBarUtils.updateProgressBar(++rewritten, toRewrite.size());
+                rewriteNode(sink, instance, wanted, undirected);
+                instanceCache.release(instance);
             }
+            LongSet removed = new LongSet();
+            for (BatchRelationship relationship : undirected) {
+                if (!changedNodes.contains(relationship.getStartNode()) || !changedNodes.contains(relationship.getEndNode())) continue;
+                RelationshipKey key = getRelationshipKey(relationship.getStartNode(), relationship.getEndNode(), relationship.getType().name());
+                if (!wanted.contains(key) && removed.add(relationship.getId())) sink.deleteRelationship(relationship);
+            }
+
+            String message = String.format("%,d nodes rewritten and %,d created", rewritten, dbIds.size() - nodes);
+            importLogger.info(message);
+            System.out.println("\r" + message);
+            succeeded = true;
         } catch (Exception e) {
+            errorLogger.error("An error occurred during the delta import", e);
             e.printStackTrace();
         }
 
-        if (interactionImporter != null) interactionImporter.addInteractionData(batchInserter);
-
         printConsistencyCheckReport();
 
         importLogger.info("Storing the graph");
         System.out.print("\n\nPlease wait while storing the graph...");
-        batchInserter.shutdown();
-        importLogger.info("The database '" + dba.getDBName() + "' has been imported to Neo4j");
+        try (ImportMetrics.Scope ignored = metrics.measure(ImportMetrics.Phase.SHUTDOWN)) {
+            sink.shutdown();
+        }
+        if (succeeded) {
+            saveNodeIdMap(nodeIdMap);
+        } else {
+            saveUnfinishedNodeIdMap(nodeIdMap);
+        }
+        File script = sink.getDeletionsScript();
+        if (script.exists()) {
+            importLogger.info("Deletions to be executed once the database is started are in " + script.getAbsolutePath());
+            System.out.println("\rExecute " + script.getAbsolutePath() + " once the database is started and remove it before the next delta import");
+        }
         Long time = System.currentTimeMillis() - start;
-        System.out.println("\rThe database '" + dba.getDBName() + "' has been imported to Neo4j (" + getTimeFormatted(time) + ")");
+        importLogger.info("The changes in '" + dba.getDBName() + "' have been imported to Neo4j");
+        System.out.println("\rThe changes in '" + dba.getDBName() + "' have been imported to Neo4j (" + getTimeFormatted(time) + ")");
+        writeReport("delta");
+    }
+
+    /**
+     * Replaces the properties and labels of the node of an existing instance and brings its relationships up to date
+     * (see RelationshipDiff), importing the new targets. An undirected relationship (see UNDIRECTED_RELATIONSHIPS) may
+     * have been saved by the other end, so it is only added to the given list and removed later if neither end needs it.
+     *
+     * @param wanted     keys of the undirected relationships needed by the rewritten instances
+     * @param undirected undirected relationships of the rewritten instances that are not needed by them
+     */
+    private void rewriteNode(BatchInserterGraphSink sink, GKInstance instance, Set<RelationshipKey> wanted, List<BatchRelationship> undirected)
+            throws ClassNotFoundException {
+        ConversionPlan plan = getConversionPlan(instance);
+        long id = dbIds.get(instance.getDBID());
+        sink.setNode(id, getNodeProperties(instance, plan), getNodeLabels(instance, plan));
+
+        Map<RelationshipKey, Map<String, Object>> needed = new LinkedHashMap<>();
+        for (RelationshipGroup group : getRelationshipGroups(instance, plan)) {
+            if (group.isImportOnly()) {
+                importGkInstances(group.getTargets());
+                continue;
+            }
+            String relationName = group.getRelationName();
+            String type = relationName.equals("inferredToReverse") ? "inferredTo" : relationName;
+            boolean reversed = !type.equals(relationName) || REVERSED_RELATIONSHIPS.contains(relationName);
+            for (GkInstancePropertiesHelper target : getRelationshipTargets(id, group.getTargets(), relationName).values()) {
+                long targetId = dbIds.get(target.getInstance().getDBID());
+                if (targetId == LongLongMap.NOT_FOUND) {
+                    importGkInstances(List.of(target.getInstance()));
+                    targetId = dbIds.get(target.getInstance().getDBID());
+                    if (targetId == LongLongMap.NOT_FOUND) continue;
+                }
+                RelationshipKey key = reversed ? getRelationshipKey(targetId, id, type) : getRelationshipKey(id, targetId, type);
+                needed.put(key, getRelationshipProperties(target.getCount(), target.getOrder()));
+                if (UNDIRECTED_RELATIONSHIPS.contains(type)) wanted.add(key);
+            }
+        }
+
+        RelationshipDiff diff = new RelationshipDiff(id, needed, sink.getRelationships(id), sink::getRelationshipProperties,
+                REVERSED_RELATIONSHIPS, UNDIRECTED_RELATIONSHIPS);
+        diff.getUpdated().forEach(sink::setRelationshipProperties);
+        diff.getDeleted().forEach(sink::deleteRelationship);
+        undirected.addAll(diff.getUndirected());
+        diff.getCreated().forEach((key, properties) ->
+                sink.createRelationship(key.getStart(), key.getEnd(), RelationshipType.withName(key.getType()), properties));
+    }
+
+    private static RelationshipKey getRelationshipKey(long start, long end, String type) {
+        return RelationshipKey.of(start, end, type, UNDIRECTED_RELATIONSHIPS.contains(type));
+    }
+
+    /**
+     * The changes are found by InstanceEdit DB_ID rather than by date: the release database is a slice of the curation
+     * database taken before the release date, so the edits made between the slice and the release date are older than
+     * the release but were not imported. The instances listed by the _UpdateTrackers that are not in the graph yet
+     * are added as well.
+     *
+     * @param lastInstanceEdit highest InstanceEdit DB_ID when the store was imported
+     * @return the dbIds of the InstanceEdits newer than the given one plus the instances created or modified by them,
+     * the instances updated according to the new _UpdateTrackers, the instances holding the changed StableIdentifiers
+     * and the pathways represented by the changed PathwayDiagrams
+     */
+    private LongSet getChangedInstances(long lastInstanceEdit) throws Exception {
+        LongSet changed = new LongSet();
+        @SuppressWarnings({"SqlDialectInspection", "SqlNoDataSourceInspection"})
+        String[] queries = {
+                "SELECT DB_ID FROM InstanceEdit WHERE DB_ID > ?",
+                "SELECT d.DB_ID FROM DatabaseObject d WHERE d.created > ?",
+                "SELECT m.DB_ID FROM DatabaseObject_2_modified m WHERE m.modified > ?"
+        };
+        Connection connection = dba.getConnection();
+        for (String query : queries) {
+            try (PreparedStatement ps = connection.prepareStatement(query)) {
+                ps.setLong(1, lastInstanceEdit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) changed.add(rs.getLong(1));
+                }
+            }
+        }
+        @SuppressWarnings({"SqlDialectInspection", "SqlNoDataSourceInspection"})
+        String trackers = "SELECT DB_ID, updatedInstance FROM _UpdateTracker_2_updatedInstance";
+        try (PreparedStatement ps = connection.prepareStatement(trackers); ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                if (!dbIds.containsKey(rs.getLong(1))) changed.add(rs.getLong(2));
+            }
+        }
+        for (long dbId : toLongArray(changed)) {
+            GKInstance instance = dba.fetchInstance(dbId);
+            if (instance == null) continue;
+            if (instance.getSchemClass().isa(ReactomeJavaConstants.StableIdentifier)) {
+                Collection<GKInstance> owners = getCollectionFromGkInstanceReferrals(instance, ReactomeJavaConstants.stableIdentifier);
+                if (owners != null) owners.forEach(owner -> changed.add(owner.getDBID()));
+            } else if (instance.getSchemClass().isa(ReactomeJavaConstants.PathwayDiagram)) {
+                Collection<GKInstance> pathways = getAttributeValuesList(instance, ReactomeJavaConstants.representedPathway);
+                if (pathways != null) pathways.forEach(pathway -> changed.add(pathway.getDBID()));
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Deletes the nodes of the instances that are not in the relational database any more
+     *
+     * @return the number of deleted nodes
+     */
+    private int deleteMissingInstances(BatchInserterGraphSink sink) throws SQLException {
+        LongSet existing = new LongSet();
+        @SuppressWarnings({"SqlDialectInspection", "SqlNoDataSourceInspection"})
+        String query = "SELECT DB_ID FROM DatabaseObject";
+        try (PreparedStatement ps = dba.getConnection().prepareStatement(query); ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) existing.add(rs.getLong(1));
+        }
+        LongSet missing = new LongSet();
+        dbIds.forEach((dbId, node) -> {
+            if (!existing.contains(dbId)) missing.add(dbId);
+        });
+        missing.forEach(dbId -> {
+            sink.deleteNode(dbId);
+            dbIds.remove(dbId);
+        });
+        return missing.size();
+    }
+
+    private static long[] toLongArray(LongSet set) {
+        long[] values = new long[set.size()];
+        int[] i = {0};
+        set.forEach(value -> values[i[0]++] = value);
+        return values;
+    }
+
+    /**
+     * Indexes the referrers looked up for (almost) every instance of a class: inferredFrom during the conversion and
+     * the ones used to find the interaction data targets. If it fails, the referrers are queried one by one.
+     */
+    private void buildReferenceIndex() {
+        List<String> attributes = new ArrayList<>(List.of(ReactomeJavaConstants.inferredFrom));
+        if (includeInteractors) {
+            attributes.add(ReactomeJavaConstants.referenceEntity);
+            attributes.addAll(Arrays.asList(InteractionImporter.TARGET_ATTRIBUTES));
+        }
+        try {
+            referenceIndex = new ReverseReferenceIndex(dba, attributes.toArray(new String[0]));
+        } catch (Exception e) {
+            referenceIndex = null;
+            errorLogger.error("The referrers could not be indexed. They will be queried one by one", e);
+        }
+    }
+
+    private void saveNodeIdMap(NodeIdMapFile nodeIdMap) {
+        try {
+            if (currentRelease == null) currentRelease = getLatestRelease();
+            nodeIdMap.save(currentRelease.getDBID(), getLastInstanceEdit(), includeInteractors, getSourceSignature(), dbIds);
+        } catch (Exception e) {
+            errorLogger.error("The node id map could not be saved in " + nodeIdMap.getFile(), e);
+        }
+    }
+
+    /**
+     * Keeps the node ids of the nodes created by a failed delta import, but neither its signature (so the store is not
+     * taken as up to date) nor its release and InstanceEdit (so the next delta import applies the same changes again)
+     */
+    private void saveUnfinishedNodeIdMap(NodeIdMapFile nodeIdMap) {
+        try {
+            nodeIdMap.save(nodeIdMap.getReleaseDbId(), nodeIdMap.getLastInstanceEditDbId(), nodeIdMap.hasInteractions(), "", dbIds);
+        } catch (IOException e) {
+            errorLogger.error("The node id map could not be saved in " + nodeIdMap.getFile(), e);
+        }
+    }
+
+    /**
+     * @return the highest InstanceEdit DB_ID, the changes of a later delta import are the ones made by newer edits
+     */
+    private static long getLastInstanceEdit() throws SQLException {
+        @SuppressWarnings({"SqlDialectInspection", "SqlNoDataSourceInspection"})
+        String query = "SELECT MAX(DB_ID) FROM InstanceEdit";
+        try (PreparedStatement ps = dba.getConnection().prepareStatement(query); ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        }
+    }
+
+    /**
+     * @return true if the store was created (or updated) from the current content of the relational database, with
+     * the same interaction data option, by the same version of the importer and neo4j, and has no pending deletions
+     */
+    private boolean isStoreUpToDate() {
+        NodeIdMapFile nodeIdMap = new NodeIdMapFile(new File(DATA_DIR));
+        if (!new File(DATA_DIR).isDirectory() || !nodeIdMap.exists()) return false;
+        //Until the deletions are executed the store still has the nodes and relationships they remove
+        if (BatchInserterGraphSink.getDeletionsScript(new File(DATA_DIR)).exists()) return false;
+        if (getImporterVersion() == null) {
+            importLogger.warn("The importer version is unknown so the existing store cannot be reused");
+            return false;
+        }
+        try {
+            nodeIdMap.loadHeader();
+            return nodeIdMap.hasInteractions() == includeInteractors && getSourceSignature().equals(nodeIdMap.getSignature());
+        } catch (IOException e) {
+            errorLogger.warn("The node id map " + nodeIdMap.getFile() + " could not be read", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the values written in DBInfo (database name, checksum and neo4j version) plus the importer version
+     */
+    private String getSourceSignature() {
+        if (databaseChecksum == null) startDatabaseChecksum();
+        return String.join("|", dba.getDBName(), String.valueOf(databaseChecksum.get()), String.valueOf(getImporterVersion()), getNeo4jVersion());
+    }
+
+    private static String getImporterVersion() {
+        String version = Main.class.getPackage().getImplementationVersion();
+        if (version != null) return version;
+        try (InputStream is = Main.class.getResourceAsStream("/META-INF/maven/org.reactome.server.graph/graph-importer/pom.properties")) {
+            if (is == null) return null;
+            Properties properties = new Properties();
+            properties.load(is);
+            return properties.getProperty("version");
+        } catch (IOException e) {
+            return null;
+        }
+    }
 
+    /**
+     * Writes the metrics of the run (see ImportMetrics) as JSON, next to the store unless another file was given
+     *
+     * @param mode full, delta or skipped
+     */
+    private void writeReport(String mode) {
+        File file = reportFile;
+        if (file == null) {
+            File store = new File(DATA_DIR).getAbsoluteFile();
+            file = new File(store.getParentFile(), store.getName() + ".report.json");
+        }
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("database", dba.getDBName());
+        properties.put("mode", mode);
+        properties.put("importerVersion", String.valueOf(getImporterVersion()));
+        properties.put("sink", sinkType.name().toLowerCase());
+        properties.put("threads", threads);
+        properties.put("preload", preload);
+        properties.put("twoPhase", twoPhase);
+        properties.put("interactions", includeInteractors);
+        properties.put("nodes", dbIds.size());
+        properties.put("maxDbId", maxDbId);
+        try {
+            metrics.writeReport(file, properties);
+            importLogger.info("Import report written to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            errorLogger.error("The import report could not be written to " + file.getAbsolutePath(), e);
+        }
+    }
+
+    private void importRoots(boolean barComplete) throws Exception {
+        if (preload) new InstancePreloader(dba, connectionFactory, threads).preload();
+        buildReferenceIndex();
+
+        currentRelease = getLatestRelease();
+
+        LinkedHashMap<String, List<GKInstance>> typesToImport = new LinkedHashMap<>();
+        typesToImport.put("Top Level Pathways", getTopLevelPathways());
+        typesToImport.put("Deleted", getInstancesByClass("_Deleted"));
+        typesToImport.put("Release", getInstancesByClass("_Release"));
+        typesToImport.put("Update Trackers", getInstancesByClass("_UpdateTracker"));
+
+        for (Map.Entry<String, List<GKInstance>> entry : typesToImport.entrySet()) {
+            importLogger.info(MessageFormat.format("Started importing {0} {1}", entry.getValue().size(), entry.getKey()));
+            System.out.println(MessageFormat.format("Started importing {0} {1}\n", entry.getValue().size(), entry.getKey()));
+            importFromRoots(entry.getValue());
+            if (barComplete)
+                ProgressBarUtils.completeProgressBar(total); //This is just forcing a 100% in the progress bar
+            importLogger.info(MessageFormat.format("Finished importing {0} {1}", entry.getValue().size(), entry.getKey()));
+            System.out.println(MessageFormat.format("Finished importing {0} {1}\n", entry.getValue().size(), entry.getKey()));
+        }
+        if (twoPhase) saveBufferedRelationships();
+        if (checkpointInterval > 0 && includeInteractors) saveCheckpoint(true);
     }
 
     private void importFromRoots(List<GKInstance> importRoots) {
         for (GKInstance instance : importRoots) {
             long instanceStart = System.currentTimeMillis();
-            if (!dbIds.containsKey(instance.getDBID())) {
-                try {
-                    importGkInstance(instance);
-                } catch (ClassNotFoundException e) {
-                    importLogger.error(instance.getDisplayName() + " failed to be fully imported because it is using directly or indirectly a class not defined in graph-core : " + e.getMessage());
-                }
-            }
+            if (!dbIds.containsKey(instance.getDBID())) importGkInstances(List.of(instance));
             long elapsedTime = System.currentTimeMillis() - instanceStart;
             int ms = (int) elapsedTime % 1000;
             int sec = (int) (elapsedTime / 1000) % 60;
             int min = (int) ((elapsedTime / (1000 * 60)) % 60);
             importLogger.info(instance.getDisplayName() + " was processed within: " + min + " min " + sec + " sec " + ms + " ms");
+            long sinceLastCheckpoint = System.currentTimeMillis() - lastCheckpoint;
+            long interval = Math.max(checkpointInterval * 60_000L, lastCheckpointCost * CHECKPOINT_COST_FACTOR);
+            if (checkpointInterval > 0 && sinceLastCheckpoint >= interval) {
+                saveCheckpoint(false);
+            }
         }
     }
 
+    /**
+     * Flushes the sink and keeps a copy of the store together with everything needed to carry on from this point:
+     * the dbId to node id map, the discarded instances, the reverseReaction and equivalentTo relationships already
+     * saved, the taxonomy map, maxDbId and (in the two-phase mode) the buffered relationships. Every root is fully
+     * imported when this is called, so the traversal stack is empty and the remaining roots are the ones not present
+     * in dbIds.
+     *
+     * @param rootsImported true when only the interaction data is left
+     */
+    private void saveCheckpoint(boolean rootsImported) {
+        long start = System.currentTimeMillis();
+        System.out.print("\rSaving checkpoint...");
+        try {
+            ((ResumableGraphSink) graphSink).flush();
+            checkpoint.save(out -> {
+                out.writeUTF(dba.getDBName());
+                out.writeBoolean(twoPhase);
+                out.writeBoolean(rootsImported);
+                out.writeLong(maxDbId);
+                ImportCheckpoint.write(out, dbIds);
+                ImportCheckpoint.write(out, discarded);
+                ImportCheckpoint.write(out, reverseReactions);
+                ImportCheckpoint.write(out, equivalentTo);
+                ImportCheckpoint.write(out, taxIdDbId);
+                relationshipBuffer.write(out);
+            });
+            importLogger.info(String.format("Checkpoint with %,d nodes saved in %s (%s)", dbIds.size(),
+                    checkpoint.getDirectory(), getTimeFormatted(System.currentTimeMillis() - start)));
+        } catch (IOException e) {
+            errorLogger.error("The checkpoint could not be saved in " + checkpoint.getDirectory(), e);
+        }
+        lastCheckpoint = System.currentTimeMillis();
+        lastCheckpointCost = lastCheckpoint - start;
+    }
+
+    /**
+     * Restores the store and the importer state kept in the last checkpoint (see saveCheckpoint)
+     *
+     * @return the store directory
+     */
+    private File restoreCheckpoint() throws IOException {
+        if (!checkpoint.exists()) {
+            importLogger.warn("No checkpoint found in " + checkpoint.getDirectory() + ". Starting from scratch");
+            System.out.println("No checkpoint found in " + checkpoint.getDirectory() + ". Starting from scratch");
+            return cleanDatabase();
+        }
+        checkpoint.restore(in -> {
+            String name = in.readUTF();
+            boolean checkpointTwoPhase = in.readBoolean();
+            if (!name.equals(dba.getDBName()) || checkpointTwoPhase != twoPhase) {
+                throw new IOException("The checkpoint in " + checkpoint.getDirectory() + " was taken importing '" + name
+                        + "'" + (checkpointTwoPhase ? " in" : " not in") + " two-phase mode");
+            }
+            rootsImported = in.readBoolean();
+            maxDbId = in.readLong();
+            ImportCheckpoint.read(in, dbIds);
+            ImportCheckpoint.read(in, discarded);
+            ImportCheckpoint.readLongs(in, reverseReactions);
+            ImportCheckpoint.readLongs(in, equivalentTo);
+            ImportCheckpoint.readInts(in, taxIdDbId);
+            relationshipBuffer.read(in);
+        });
+        String message = String.format("Resuming from the checkpoint in %s with %,d nodes%s", checkpoint.getDirectory(),
+                dbIds.size(), rootsImported ? " (only the interaction data is left)" : "");
+        importLogger.info(message);
+        System.out.println(message);
+        return new File(DATA_DIR);
+    }
+
     private Map<String, Object> addDbInfo(Map<String, Object> properties) {
         properties.put("name", dba.getDBName());
-        properties.put("checksum", getDatabaseChecksum());
+        if (databaseChecksum == null) startDatabaseChecksum();
+        properties.put("checksum", databaseChecksum.get());
         properties.put("neo4j", getNeo4jVersion());
         return properties;
     }
@@ -252,126 +906,240 @@ public class ReactomeBatchImporter {
     }
 
     /**
-     * Imports one single GkInstance into neo4j.
-     * When iterating through the relationAttributes it is possible to go deeper
-     * into the GkInstance hierarchy (eg hasEvents)
+     * Imports the GkInstances reachable from the given roots into neo4j. Instead of recursing through the relation
+     * attributes (eg hasEvents), the hierarchy is traversed depth first using an explicit stack of instances that
+     * still have to be imported, so the stack and the number of inflated instances do not grow with the depth of
+     * the hierarchy: every instance is released to the instanceCache as soon as its node has been created and its
+     * relationships resolved.
+     * <p>
+     * Relationships to instances that are already imported are saved straight away, while those pointing to
+     * instances still in the stack are kept as PendingRelationship and saved when the target node is created.
+     * In the two-phase mode all of them are kept in the relationshipBuffer instead.
      *
-     * @param instance GkInstance
-     * @return Neo4j native id (generated by the BatchInserter)
+     * @param roots the instances to start the traversal from
      */
-    private Long importGkInstance(GKInstance instance) throws ClassNotFoundException {
-        ProgressBarUtils.updateProgressBar(dbIds.size() + discarded.size(), total);
-
-        String clazzName = getClassName(instance);
-        Class<?> clazz = Class.forName(clazzName);
-        setUpFields(clazz); //Sets up the attribute map per class populating relationAttributesMap and primitiveListAttributesMap
-        Long id = saveDatabaseObject(instance, clazz);
-        dbIds.put(instance.getDBID(), id); //caching the "saved" object mapped to the corresponding Neo4j node id
+    private void importGkInstances(Collection<GKInstance> roots) {
+        Deque<GKInstance> stack = new ArrayDeque<>(roots);
+        Map<Long, List<PendingRelationship>> pending = new HashMap<>();
+        while (!stack.isEmpty()) {
+            GKInstance instance = stack.pop();
+            if (dbIds.containsKey(instance.getDBID())) continue;
+            long instanceStart = System.nanoTime();
+            try {
+                ConversionPlan plan;
+                try (ImportMetrics.Scope ignored = metrics.measure(ImportMetrics.Phase.EXTRACTION)) {
+                    plan = getConversionPlan(instance);
+                }
+                Long id = createNode(instance, plan);
+                for (PendingRelationship relationship : pending.getOrDefault(instance.getDBID(), List.of())) {
+                    saveRelationship(id, relationship.getFrom(), RelationshipType.withName(relationship.getRelationName()),
+                            getRelationshipProperties(relationship.getStoichiometry(), relationship.getOrder()));
+                }
+                pending.remove(instance.getDBID());
 
-        if (relationAttributesMap.containsKey(clazz)) {
-            for (ReactomeAttribute reactomeAttribute : relationAttributesMap.get(clazz)) {
-                String targetAttribute = reactomeAttribute.getAttribute();
-                String originAttribute = attributeRenaming.getOrDefault(reactomeAttribute, targetAttribute);
-                ReactomeAttribute.PropertyType type = reactomeAttribute.getType();
-                switch (originAttribute) {
-                    case "orthologousEvent":
-                        if (isCuratedEvent(instance)) {
-                            Collection<GKInstance> orthologousAll = getCollectionFromGkInstance(instance, originAttribute);
-                            if (orthologousAll != null && !orthologousAll.isEmpty()) {
-                                Collection<?> alreadyPointing = getCollectionFromGkInstanceReferrals(instance, ReactomeJavaConstants.inferredFrom);
-                                //orthologousEvents collection will only contain those that are not pointing to instance as inferredFrom to avoid inferredTo duplicates
-                                Collection<GKInstance> orthologousEvents = new ArrayList<>();
-                                for (GKInstance orthologousEvent : orthologousAll) {
-                                    if (isGKInstanceInCollection(orthologousEvent, alreadyPointing)) {
-                                        if (!dbIds.containsKey(orthologousEvent.getDBID())) {
-                                            //The link is not added but it has to be imported to ensure the object (and link) are created
-                                            importGkInstance(orthologousEvent);
-                                        }
-                                    } else {
-                                        orthologousEvents.add(orthologousEvent);
-                                    }
-                                }
-                                //saveRelationships might enter in recursion so changes in "orthologousEvent" have to be carefully thought
-                                saveRelationships(id, orthologousEvents, "inferredTo");
-                            }
-                        }
-                        break;
-                    case "inferredFrom": //Only for Event because in PhysicalEntity is ReactomeTransient
-                        if (isValidGkInstanceAttribute(instance, originAttribute)) {
-                            Collection<GKInstance> inferredFrom = getCollectionFromGkInstance(instance, originAttribute);
-                            saveRelationships(id, inferredFrom, "inferredToReverse");
-                        }
-                        break;
-                    case "inferredTo": //Only for PhysicalEntity
-                        if (isValidGkInstanceAttribute(instance, originAttribute)) {
-                            Collection<GKInstance> inferredTo = getCollectionFromGkInstance(instance, originAttribute);
-                            if (inferredTo == null || inferredTo.isEmpty()) {
-                                inferredTo = getCollectionFromGkInstanceReferrals(instance, ReactomeJavaConstants.inferredFrom);
-                            }
-                            saveRelationships(id, inferredTo, targetAttribute);
-                        }
-                        break;
-                    case "hasEncapsulatedEvent":
-                        GKInstance normalPathway = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.normalPathway);
-                        if (normalPathway == null) { //No encapsulation is taken into account for none infectious disease pathways
-                            try {
-                                GKInstance diagram = gkInstanceHelper.getHasDiagram(instance);
-                                if (diagram != null) {
-                                    PathwayDiagramXMLGenerator xmlGenerator = new PathwayDiagramXMLGenerator();
-                                    String xml = xmlGenerator.generateXMLForPathwayDiagram(diagram, instance);
-                                    Collection<GKInstance> encapsulatedEvents = new HashSet<>();
-                                    for (String line : StringUtils.split(xml, System.lineSeparator())) {
-
-                                        if (line.trim().startsWith("<org.gk.render.ProcessNode") && line.contains("reactomeId")) {
-                                            String dbId = line.split("reactomeId=\"")[1].split("\"")[0];
-                                            GKInstance target = dba.fetchInstance(Long.valueOf(dbId));
-                                            if (!gkInstanceHelper.pathwayContainsProcessNode(instance, target)) {
-                                                encapsulatedEvents.add(target);
-                                            }
-                                        }
-                                    }
-                                    diagram.deflate();
-                                    saveRelationships(id, encapsulatedEvents, targetAttribute);
-                                }
-                            } catch (Exception e) {
-                                errorLogger.error("An exception occurred while trying to retrieve a diagram from entry with dbId: " + instance.getDBID() + "and name: " + instance.getDisplayName());
-                            }
-                        }
-                        break;
-                    default:
-                        if (isValidGkInstanceAttribute(instance, originAttribute)) {
-                            Collection<GKInstance> relationships = getCollectionFromGkInstance(instance, originAttribute);
-                            if (isConsistent(instance, relationships, originAttribute, type)) {
-                                //saveRelationships might enter in recursion so changes in "orthologousEvent" have to be carefully thought
-                                saveRelationships(id, relationships, targetAttribute);
-                            }
+                List<RelationshipGroup> groups;
+                try (ImportMetrics.Scope ignored = metrics.measure(ImportMetrics.Phase.EXTRACTION)) {
+                    groups = getRelationshipGroups(instance, plan);
+                }
+                for (RelationshipGroup group : groups) {
+                    if (group.isImportOnly()) {
+                        //The link is not added but it has to be imported to ensure the object (and link) are created
+                        group.getTargets().stream().filter(t -> !dbIds.containsKey(t.getDBID())).forEach(stack::push);
+                        continue;
+                    }
+                    String relationName = group.getRelationName();
+                    Map<Long, GkInstancePropertiesHelper> targets;
+                    try (ImportMetrics.Scope ignored = metrics.measure(ImportMetrics.Phase.EXTRACTION)) {
+                        targets = getRelationshipTargets(id, group.getTargets(), relationName);
+                    }
+                    for (GkInstancePropertiesHelper target : targets.values()) {
+                        Long targetDbId = target.getInstance().getDBID();
+                        long targetId = dbIds.get(targetDbId);
+                        if (twoPhase) {
+                            relationshipBuffer.add(id, targetDbId, relationName, target.getCount(), target.getOrder());
+                        } else if (targetId != LongLongMap.NOT_FOUND) {
+                            saveRelationship(targetId, id, RelationshipType.withName(relationName),
+                                    getRelationshipProperties(target.getCount(), target.getOrder()));
+                        } else {
+                            pending.computeIfAbsent(targetDbId, k -> new ArrayList<>())
+                                    .add(new PendingRelationship(id, relationName, target.getCount(), target.getOrder()));
                         }
+                        if (targetId == LongLongMap.NOT_FOUND) stack.push(target.getInstance());
+                    }
                 }
+            } catch (ClassNotFoundException e) {
+                List<PendingRelationship> lost = pending.remove(instance.getDBID());
+                importLogger.error(instance.getDisplayName() + " cannot be imported because it is using a class not defined in graph-core : "
+                        + e.getMessage() + (lost != null ? " (" + lost.size() + " relationship(s) pointing to it are skipped)" : ""));
+            }
+            metrics.recordInstance(instance.getSchemClass().getName(), System.nanoTime() - instanceStart);
+            instanceCache.release(instance); //will ensure that the use of the GkInstance does not end in an OutOfMemory exception
+        }
+    }
+
+    /**
+     * Second phase of the two-phase import: the relationships kept during the first phase are emitted as a separate
+     * stream sorted by source node and split in chunks. The target nodes of the chunks are resolved by a pool of
+     * workers (when more than one thread is used) while a single writer saves the previous chunks in order, because
+     * the sinks are not thread safe. Relationships whose target node could not be created are reported and skipped.
+     */
+    private void saveBufferedRelationships() {
+        importLogger.info(String.format("Saving %,d relationships", relationshipBuffer.size()));
+        int[] sorted = relationshipBuffer.sortedBySource();
+        if (threads > 1) {
+            AtomicInteger count = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "relationship-resolver-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                //Only a few chunks per worker are resolved ahead of the writer to keep the memory bounded
+                Deque<Future<long[]>> pending = new ArrayDeque<>();
+                int next = 0;
+                for (int from = 0; from < sorted.length; from += RELATIONSHIP_CHUNK_SIZE) {
+                    while (next < sorted.length && pending.size() < threads * 2) {
+                        int start = next, end = Math.min(next + RELATIONSHIP_CHUNK_SIZE, sorted.length);
+                        pending.add(executor.submit(() -> resolveTargetNodes(sorted, start, end)));
+                        next = end;
+                    }
+                    saveRelationshipChunk(sorted, from, getResolvedChunk(pending.poll()));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        } else {
+            for (int from = 0; from < sorted.length; from += RELATIONSHIP_CHUNK_SIZE) {
+                saveRelationshipChunk(sorted, from, resolveTargetNodes(sorted, from, Math.min(from + RELATIONSHIP_CHUNK_SIZE, sorted.length)));
+            }
+        }
+        System.out.println("\rSaving relationships: 100%");
+        relationshipBuffer.clear();
+    }
+
+    /**
+     * Only reads dbIds, which is not modified during the second phase, so chunks can be resolved concurrently
+     *
+     * @return the target node of the relationships sorted[from..to) (NOT_FOUND when it has not been imported)
+     */
+    private long[] resolveTargetNodes(int[] sorted, int from, int to) {
+        long[] rtn = new long[to - from];
+        for (int i = from; i < to; i++) rtn[i - from] = dbIds.get(relationshipBuffer.getToDbId(sorted[i]));
+        return rtn;
+    }
+
+    private long[] getResolvedChunk(Future<long[]> chunk) {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while resolving the relationships", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("The relationships could not be resolved", e.getCause());
+        }
+    }
+
+    /**
+     * Saves the relationships sorted[from..from + targets.length) given the target nodes resolved for them
+     */
+    private void saveRelationshipChunk(int[] sorted, int from, long[] targets) {
+        System.out.print("\rSaving relationships: " + Math.round((from * 100.0) / sorted.length) + "%");
+        //The sinks copy the properties, so the same map is used for the whole chunk
+        Map<String, Object> properties = new HashMap<>();
+        Map<String, RelationshipType> types = new HashMap<>();
+        for (int i = 0; i < targets.length; i++) {
+            int r = sorted[from + i];
+            if (targets[i] == LongLongMap.NOT_FOUND) {
+                errorLogger.error("Relationship '" + relationshipBuffer.getType(r) + "' skipped because the instance with dbId "
+                        + relationshipBuffer.getToDbId(r) + " has not been imported");
+                continue;
             }
+            properties.put(STOICHIOMETRY, relationshipBuffer.getStoichiometry(r));
+            properties.put(ORDER, relationshipBuffer.getOrder(r));
+            RelationshipType type = types.computeIfAbsent(relationshipBuffer.getType(r), RelationshipType::withName);
+            saveRelationship(targets[i], relationshipBuffer.getFrom(r), type, properties);
         }
-        instance.deflate(); //will ensure that the use of the GkInstance does not end in an OutOfMemory exception
+    }
+
+    /**
+     * Gets the ConversionPlan for the instance, which only depends on its schema class (and the drugType for the Drug
+     * instances, see getClassName). Plans are created the first time a given pair is found and cached afterwards.
+     */
+    private ConversionPlan getConversionPlan(GKInstance instance) throws ClassNotFoundException {
+        SchemaClass schemaClass = instance.getSchemClass();
+        String key = schemaClass.getName();
+        if (drugSchemaClasses.computeIfAbsent(schemaClass, c -> c.isa("Drug") && c.isValidAttribute(ReactomeJavaConstants.drugType))) {
+            GKInstance drugType = getObjectFromGkInstance(instance, ReactomeJavaConstants.drugType, GKInstance.class);
+            if (drugType != null) key += ":" + drugType.getDisplayName();
+        }
+        ConversionPlan plan = conversionPlans.get(key);
+        if (plan == null) {
+            plan = createConversionPlan(schemaClass, Class.forName(getClassName(instance)));
+            conversionPlans.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Saves the node for the given instance and keeps track of it in the dbIds map
+     *
+     * @return node id (generated by the GraphSink)
+     */
+    private Long createNode(GKInstance instance, ConversionPlan plan) {
+        ProgressBarUtils.updateProgressBar(dbIds.size() + discarded.size(), total);
+        Long id = saveDatabaseObject(instance, plan);
+        dbIds.put(instance.getDBID(), id); //caching the "saved" object mapped to the corresponding Neo4j node id
         return id;
     }
 
+    /**
+     * Resolves the targets of every relationship attribute of the instance, taking into account the special cases.
+     * Nothing is written to the graph here.
+     *
+     * @param instance GkInstance
+     * @param plan     ConversionPlan for the instance
+     * @return the relationship groups to be saved for the instance
+     */
+    private List<RelationshipGroup> getRelationshipGroups(GKInstance instance, ConversionPlan plan) {
+        List<RelationshipGroup> groups = new ArrayList<>();
+        for (ConversionPlan.RelationshipHandler handler : plan.getRelationshipHandlers()) {
+            handler.apply(instance, groups);
+        }
+        return groups;
+    }
+
     /**
      * Saves one single GkInstance to neo4j. Only primitive attributes will be saved (Attributes that are not reference
      * to another GkInstance eg values like Strings)
-     * Get the attributes map and check null is slightly faster than contains.
      *
      * @param instance GkInstance
-     * @param clazz    Clazz of object that will result form converting the instance (eg Pathway, Reaction)
-     * @return Neo4j native id (generated by the BatchInserter)
+     * @param plan     ConversionPlan for the instance
+     * @return node id (generated by the GraphSink)
      */
-    private Long saveDatabaseObject(GKInstance instance, Class<?> clazz) throws IllegalArgumentException {
-
-        Label[] labels = getLabels(clazz);
-        String schemaClass = clazz.getSimpleName();
-        if (topLevelPathways.contains(instance.getDBID())) {
-            schemaClass = "TopLevelPathway";
-            Label[] newLabels = Arrays.copyOf(labels, labels.length + 1);
-            newLabels[labels.length] = Label.label(schemaClass);
-            labels = newLabels;
+    private Long saveDatabaseObject(GKInstance instance, ConversionPlan plan) throws IllegalArgumentException {
+        // The node is now ready to be inserted in the graph database
+        try {
+            Map<String, Object> properties;
+            Label[] labels;
+            try (ImportMetrics.Scope ignored = metrics.measure(ImportMetrics.Phase.CONVERSION)) {
+                properties = getNodeProperties(instance, plan);
+                labels = getNodeLabels(instance, plan);
+            }
+            return saveNode(properties, labels);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalClassException("A problem occurred when trying to save entry to the Graph: " + instance.getDisplayName() + ":" + instance.getDBID());
         }
+    }
+
+    private Label[] getNodeLabels(GKInstance instance, ConversionPlan plan) {
+        if (isCurrentRelease(instance)) return plan.getDbInfoLabels();
+        if (topLevelPathways.contains(instance.getDBID())) return plan.getTopLevelPathwayLabels();
+        return plan.getLabels();
+    }
+
+    private Map<String, Object> getNodeProperties(GKInstance instance, ConversionPlan plan) {
+        String schemaClass = plan.getDomainClass().getSimpleName();
+        if (topLevelPathways.contains(instance.getDBID())) schemaClass = "TopLevelPathway";
 
         /*
          * GKInstances getAttribute value method do NOT provide dbID nor displayName
@@ -380,15 +1148,62 @@ public class ReactomeBatchImporter {
         Map<String, Object> properties = new HashMap<>();
         properties.put("schemaClass", schemaClass);
         properties.put(DBID, instance.getDBID());
-        if (instance == currentRelease) {
-            List<Label> list = new ArrayList<>(Arrays.asList(labels));
-            list.add(0, Label.label("DBInfo"));
-            labels = list.toArray(new Label[0]);
-            addDbInfo(properties);
-        }
-        if (instance.getDisplayName() != null) {
-            // TO fix Different Styles in Person display Name (example Jupe, Steven or Jupe, S)
-            if (instance.getSchemClass().isa(ReactomeJavaConstants.Person)) {
+        if (isCurrentRelease(instance)) addDbInfo(properties);
+
+        for (ConversionPlan.PropertyHandler handler : plan.getPropertyHandlers()) {
+            handler.apply(instance, properties);
+        }
+        return properties;
+    }
+
+    private boolean isCurrentRelease(GKInstance instance) {
+        return currentRelease != null && currentRelease.getDBID().equals(instance.getDBID());
+    }
+
+    /**
+     * Creates the ConversionPlan for the given pair. The attribute renaming, the validity of the attribute in the
+     * schema class and the special cases are resolved here, so they are not evaluated again for every instance.
+     *
+     * @param schemaClass the schema class of the instances to be converted
+     * @param clazz       Clazz of object that will result form converting the instance (eg Pathway, Reaction)
+     */
+    private ConversionPlan createConversionPlan(SchemaClass schemaClass, Class<?> clazz) {
+        setUpFields(clazz); //Sets up the attribute map per class populating relationAttributesMap and primitiveListAttributesMap
+
+        List<ConversionPlan.PropertyHandler> propertyHandlers = new ArrayList<>();
+        propertyHandlers.add(getDisplayNameHandler(schemaClass));
+        // Next thing is iterating across all the primitive attributes previously mapped in primitiveAttributesMap
+        for (ReactomeAttribute reactomeAttribute : primitiveAttributesMap.getOrDefault(clazz, List.of())) {
+            ConversionPlan.PropertyHandler handler = getPropertyHandler(schemaClass, reactomeAttribute);
+            if (handler != null) propertyHandlers.add(handler);
+        }
+        // Then the list of objects previously mapped in primitiveListAttributesMap
+        for (ReactomeAttribute reactomeAttribute : primitiveListAttributesMap.getOrDefault(clazz, List.of())) {
+            ConversionPlan.PropertyHandler handler = getListPropertyHandler(schemaClass, reactomeAttribute);
+            if (handler != null) propertyHandlers.add(handler);
+        }
+        // TODO find a better solution for ReferenceGroup than not including them, but for now they create duplicate stId with ReferenceMolecule
+        if (schemaClass.isa(ReactomeJavaConstants.ReferenceEntity) && !schemaClass.isa(ReactomeJavaConstants.ReferenceGroup)) {
+            propertyHandlers.add(this::addReferenceEntityStId);
+        }
+
+        List<ConversionPlan.RelationshipHandler> relationshipHandlers = new ArrayList<>();
+        for (ReactomeAttribute reactomeAttribute : relationAttributesMap.getOrDefault(clazz, List.of())) {
+            ConversionPlan.RelationshipHandler handler = getRelationshipHandler(schemaClass, reactomeAttribute);
+            if (handler != null) relationshipHandlers.add(handler);
+        }
+
+        return new ConversionPlan(schemaClass, clazz, propertyHandlers, relationshipHandlers);
+    }
+
+    private ConversionPlan.PropertyHandler getDisplayNameHandler(SchemaClass schemaClass) {
+        // TO fix Different Styles in Person display Name (example Jupe, Steven or Jupe, S)
+        boolean isPerson = schemaClass.isa(ReactomeJavaConstants.Person);
+        return (instance, properties) -> {
+            if (instance.getDisplayName() == null) {
+                //These guys will also be reported in one of the GraphQA tests in the graph-qa project
+                errorLogger.error("Found an entry without display name! dbId: " + instance.getDBID());
+            } else if (isPerson) {
                 String name = "";
                 String initial = (String) getObjectFromGkInstance(instance, ReactomeJavaConstants.initial);
                 if (initial != null) {
@@ -402,194 +1217,269 @@ public class ReactomeBatchImporter {
             } else {
                 properties.put(NAME, instance.getDisplayName());
             }
-        } else {
-            //These guys will also be reported in one of the GraphQA tests in the graph-qa project
-            errorLogger.error("Found an entry without display name! dbId: " + instance.getDBID());
-        }
-
-        // Next thing is iterating across all the primitive attributes previously mapped in primitiveAttributesMap
-        if (primitiveAttributesMap.containsKey(clazz)) {
-            for (ReactomeAttribute reactomeAttribute : primitiveAttributesMap.get(clazz)) {
-                String targetAttribute = reactomeAttribute.getAttribute();
-                String originAttribute = attributeRenaming.getOrDefault(reactomeAttribute, targetAttribute);
-                ReactomeAttribute.PropertyType type = reactomeAttribute.getType();
-                switch (originAttribute) {
-                    case STID:
-                        GKInstance stableIdentifier = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.stableIdentifier);
-                        if (stableIdentifier == null) continue;
-                        String stId = (String) getObjectFromGkInstance(stableIdentifier, ReactomeJavaConstants.identifier);
-                        if (stId == null) continue;
-                        properties.put(targetAttribute, stId);
-                        //Stable identifier version
-                        String version = (String) getObjectFromGkInstance(stableIdentifier, ReactomeJavaConstants.identifierVersion);
-                        if (version != null) properties.put("stIdVersion", stId + "." + version);
-                        //Keeping old stable identifier if present
-                        String oldStId = (String) getObjectFromGkInstance(stableIdentifier, "oldIdentifier");
-                        if (oldStId != null) {
-                            if (oldStId.isEmpty()) { //Avoids adding empty OLD_STID in the graph database
-                                errorLogger.warn("'" + OLD_STID + "' is empty for " + instance.getDBID() + ": " + instance.getDisplayName());
-                            } else {
-                                properties.put(OLD_STID, oldStId);
-                            }
-                        }
-                        break;
-                    case DELETED_STID:
-                        GKInstance deletedStableIdentifier = (GKInstance) getObjectFromGkInstance(instance, "deletedStableIdentifier");
-                        if (deletedStableIdentifier == null) continue;
-                        String dStId = (String) getObjectFromGkInstance(deletedStableIdentifier, ReactomeJavaConstants.identifier);
-                        if (dStId == null) continue;
-                        properties.put(targetAttribute, dStId);
-                        break;
-                    case "orcidId":
-                        GKInstance orcid = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.crossReference);
-                        if (orcid == null) continue;
-                        String orcidId = (String) getObjectFromGkInstance(orcid, ReactomeJavaConstants.identifier);
-                        if (orcidId == null) continue;
-                        properties.put(targetAttribute, orcidId);
-                        break;
-                    case TAXONOMY_ID:
-                        GKInstance taxon = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.crossReference);
-                        String taxId = taxon != null ? (String) getObjectFromGkInstance(taxon, ReactomeJavaConstants.identifier) : null;
-                        if (taxId != null && !taxId.isEmpty()) {
-                            taxIdDbId.put(Integer.valueOf(taxId), instance.getDBID());
-                            properties.put(targetAttribute, taxId);
-                        } else if (!instance.getDBID().equals(TAXONOMY_ROOT)) {
-                            errorLogger.warn("'" + TAXONOMY_ID + "' cannot be set for " + instance.getDBID() + ": " + instance.getDisplayName());
-                        }
-                        break;
-                    case "hasDiagram":
-                        GKInstance diagram = gkInstanceHelper.getHasDiagram(instance);
-                        boolean hasDiagram = diagram != null;
-                        properties.put(targetAttribute, hasDiagram);
-                        if (hasDiagram) {
-                            properties.put("diagramWidth", getObjectFromGkInstance(diagram, "width"));
-                            properties.put("diagramHeight", getObjectFromGkInstance(diagram, "height"));
-                            diagram.deflate();
-                        }
-                        properties.put(targetAttribute, hasDiagram);
-                        break;
-                    case "hasEHLD":
-                        Boolean hasEHLD = (Boolean) getObjectFromGkInstance(instance, ReactomeJavaConstants.hasEHLD);
-                        properties.put(targetAttribute, hasEHLD != null && hasEHLD);
-                        break;
-                    case "isInDisease":
-                        GKInstance disease = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.disease);
-                        properties.put(targetAttribute, disease != null);
-                        break;
-                    case "isInferred":
-                        GKInstance isInferredFrom = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.inferredFrom);
-                        properties.put(targetAttribute, isInferredFrom != null);
-                        break;
-                    case "referenceType":
-                        GKInstance referenceEntity = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.referenceEntity);
-                        if (referenceEntity == null) continue;
-                        properties.put(targetAttribute, referenceEntity.getSchemClass().getName());
-                        break;
-                    case "speciesName":
-                        if (instance.getSchemClass().isa(ReactomeJavaConstants.OtherEntity)) continue;
-                        if (instance.getSchemClass().isa(ReactomeJavaConstants.ChemicalDrug)) continue;
-                        List<?> speciesList = (List<?>) getCollectionFromGkInstance(instance, ReactomeJavaConstants.species);
-                        if (speciesList == null || speciesList.isEmpty()) continue;
-                        GKInstance species = (GKInstance) speciesList.get(0);
-                        properties.put(targetAttribute, species.getDisplayName());
-                        break;
-                    case "trivial":
-                        String chebiId = (String) getObjectFromGkInstance(instance, "identifier");
-                        properties.put(targetAttribute, chebiId != null && trivialMolecules.contains(chebiId));
-                        break;
-                    case "url": //Can be added or existing
-                        if (!instance.getSchemClass().isa(ReactomeJavaConstants.ReferenceDatabase) && !instance.getSchemClass().isa(ReactomeJavaConstants.Figure)) {
-                            GKInstance referenceDatabase = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.referenceDatabase);
-                            if (referenceDatabase == null) continue;
-                            String databaseName = referenceDatabase.getDisplayName();
-                            String identifier;
-                            if (instance.getSchemClass().isa(ReactomeJavaConstants.GO_BiologicalProcess) || instance.getSchemClass().isa(ReactomeJavaConstants.GO_MolecularFunction) || instance.getSchemClass().isa(ReactomeJavaConstants.GO_CellularComponent)) {
-                                identifier = (String) getObjectFromGkInstance(instance, ReactomeJavaConstants.accession);
-                            } else {
-                                if (instance.getSchemClass().isa(ReactomeJavaConstants.ReferenceIsoform)) {
-                                    identifier = (String) getObjectFromGkInstance(instance, ReactomeJavaConstants.variantIdentifier);
-                                } else {
-                                    identifier = (String) getObjectFromGkInstance(instance, ReactomeJavaConstants.identifier);
-                                }
-                            }
-                            String url = (String) getObjectFromGkInstance(referenceDatabase, ReactomeJavaConstants.accessUrl);
-                            if (url == null || identifier == null) continue;
+        };
+    }
 
-                            properties.put("databaseName", databaseName);
-                            properties.put(targetAttribute, url.replace("###ID###", identifier));
+    /**
+     * @return the handler for a primitive attribute or null when there is nothing to be done for the schema class
+     */
+    private ConversionPlan.PropertyHandler getPropertyHandler(SchemaClass schemaClass, ReactomeAttribute reactomeAttribute) {
+        String targetAttribute = reactomeAttribute.getAttribute();
+        String originAttribute = attributeRenaming.getOrDefault(reactomeAttribute, targetAttribute);
+        ReactomeAttribute.PropertyType type = reactomeAttribute.getType();
+        switch (originAttribute) {
+            case STID:
+                return (instance, properties) -> {
+                    GKInstance stableIdentifier = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.stableIdentifier);
+                    if (stableIdentifier == null) return;
+                    String stId = (String) getObjectFromGkInstance(stableIdentifier, ReactomeJavaConstants.identifier);
+                    if (stId == null) return;
+                    properties.put(targetAttribute, stId);
+                    //Stable identifier version
+                    String version = (String) getObjectFromGkInstance(stableIdentifier, ReactomeJavaConstants.identifierVersion);
+                    if (version != null) properties.put("stIdVersion", stId + "." + version);
+                    //Keeping old stable identifier if present
+                    String oldStId = (String) getObjectFromGkInstance(stableIdentifier, "oldIdentifier");
+                    if (oldStId != null) {
+                        if (oldStId.isEmpty()) { //Avoids adding empty OLD_STID in the graph database
+                            errorLogger.warn("'" + OLD_STID + "' is empty for " + instance.getDBID() + ": " + instance.getDisplayName());
                         } else {
-                            defaultAction(instance, originAttribute, targetAttribute, properties, type);   //Can be added or existing
+                            properties.put(OLD_STID, oldStId);
                         }
-                        break;
-                    default: //Here we are in a none graph-added field. The field content has to be treated based on the schema definition
-                        defaultAction(instance, originAttribute, targetAttribute, properties, type);
-                }
-            }
-        }
-
-        // Last thing is iterating across all the list of objects previously mapped in primitiveListAttributesMap
-        if (primitiveListAttributesMap.containsKey(clazz)) {
-            for (ReactomeAttribute reactomeAttribute : primitiveListAttributesMap.get(clazz)) {
-                String targetAttribute = reactomeAttribute.getAttribute();
-                String originAttribute = attributeRenaming.getOrDefault(reactomeAttribute, targetAttribute);
-                ReactomeAttribute.PropertyType type = reactomeAttribute.getType();
-                if (isValidGkInstanceAttribute(instance, originAttribute)) {
-                    Collection<?> values = getCollectionFromGkInstance(instance, originAttribute);
-                    if (isConsistent(instance, values, originAttribute, type)) {
-                        Class<?> attributeType = reactomeAttribute.getClazz();
-                        Object[] castedValues = (Object[]) Array.newInstance(attributeType, values.size());
-                        values.stream().map(attributeType::cast).collect(Collectors.toList()).toArray(castedValues);
-                        properties.put(targetAttribute, castedValues);
                     }
+                };
+            case DELETED_STID:
+                return (instance, properties) -> {
+                    GKInstance deletedStableIdentifier = (GKInstance) getObjectFromGkInstance(instance, "deletedStableIdentifier");
+                    if (deletedStableIdentifier == null) return;
+                    String dStId = (String) getObjectFromGkInstance(deletedStableIdentifier, ReactomeJavaConstants.identifier);
+                    if (dStId != null) properties.put(targetAttribute, dStId);
+                };
+            case "orcidId":
+                return (instance, properties) -> {
+                    GKInstance orcid = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.crossReference);
+                    if (orcid == null) return;
+                    String orcidId = (String) getObjectFromGkInstance(orcid, ReactomeJavaConstants.identifier);
+                    if (orcidId != null) properties.put(targetAttribute, orcidId);
+                };
+            case TAXONOMY_ID:
+                return (instance, properties) -> {
+                    GKInstance taxon = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.crossReference);
+                    String taxId = taxon != null ? (String) getObjectFromGkInstance(taxon, ReactomeJavaConstants.identifier) : null;
+                    if (taxId != null && !taxId.isEmpty()) {
+                        taxIdDbId.put(Integer.valueOf(taxId), instance.getDBID());
+                        properties.put(targetAttribute, taxId);
+                    } else if (!instance.getDBID().equals(TAXONOMY_ROOT)) {
+                        errorLogger.warn("'" + TAXONOMY_ID + "' cannot be set for " + instance.getDBID() + ": " + instance.getDisplayName());
+                    }
+                };
+            case "hasDiagram":
+                return (instance, properties) -> {
+                    GKInstance diagram = gkInstanceHelper.getHasDiagram(instance);
+                    boolean hasDiagram = diagram != null;
+                    properties.put(targetAttribute, hasDiagram);
+                    if (hasDiagram) {
+                        properties.put("diagramWidth", getObjectFromGkInstance(diagram, "width"));
+                        properties.put("diagramHeight", getObjectFromGkInstance(diagram, "height"));
+                        instanceCache.release(diagram);
+                    }
+                };
+            case "hasEHLD":
+                return (instance, properties) -> {
+                    Boolean hasEHLD = (Boolean) getObjectFromGkInstance(instance, ReactomeJavaConstants.hasEHLD);
+                    properties.put(targetAttribute, hasEHLD != null && hasEHLD);
+                };
+            case "isInDisease":
+                return (instance, properties) ->
+                        properties.put(targetAttribute, getObjectFromGkInstance(instance, ReactomeJavaConstants.disease) != null);
+            case "isInferred":
+                return (instance, properties) ->
+                        properties.put(targetAttribute, getObjectFromGkInstance(instance, ReactomeJavaConstants.inferredFrom) != null);
+            case "referenceType":
+                return (instance, properties) -> {
+                    GKInstance referenceEntity = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.referenceEntity);
+                    if (referenceEntity != null) properties.put(targetAttribute, referenceEntity.getSchemClass().getName());
+                };
+            case "speciesName":
+                if (schemaClass.isa(ReactomeJavaConstants.OtherEntity)) return null;
+                if (schemaClass.isa(ReactomeJavaConstants.ChemicalDrug)) return null;
+                return (instance, properties) -> {
+                    List<?> speciesList = (List<?>) getCollectionFromGkInstance(instance, ReactomeJavaConstants.species);
+                    if (speciesList == null || speciesList.isEmpty()) return;
+                    GKInstance species = (GKInstance) speciesList.get(0);
+                    properties.put(targetAttribute, species.getDisplayName());
+                };
+            case "trivial":
+                return (instance, properties) -> {
+                    String chebiId = (String) getObjectFromGkInstance(instance, "identifier");
+                    properties.put(targetAttribute, chebiId != null && trivialMolecules.contains(chebiId));
+                };
+            case "url": //Can be added or existing
+                if (schemaClass.isa(ReactomeJavaConstants.ReferenceDatabase) || schemaClass.isa(ReactomeJavaConstants.Figure)) {
+                    return getDefaultPropertyHandler(schemaClass, originAttribute, targetAttribute, type);
                 }
-            }
-        }
-
-        // TODO find a better solution for ReferenceGroup than not including them, but for now they create duplicate stId with ReferenceMolecule
-        if (instance.getSchemClass().isa(ReactomeJavaConstants.ReferenceEntity) && !instance.getSchemClass().isa(ReactomeJavaConstants.ReferenceGroup)) {
-            String identifier = getObjectFromGkInstance(instance, ReactomeJavaConstants.identifier, String.class);
-            String variant = getObjectFromGkInstance(instance, ReactomeJavaConstants.variantIdentifier, String.class);
-            if (variant != null && !variant.isBlank()) identifier = variant;
-            if (identifier != null) {
-                GKInstance referenceDatabase = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.referenceDatabase);
-                String prefix = getObjectFromGkInstance(referenceDatabase, ReactomeJavaConstants.identifiersPrefix, String.class);
-                if (prefix == null && referenceDatabase != null)
-                    prefix = DatabaseToPrefix.mapping.get(referenceDatabase.getDBID());
-                if (prefix == null && referenceDatabase != null) {
-                    Collection<String> names = getCollectionFromGkInstance(instance, ReactomeJavaConstants.name, String.class);
-                    if (names == null) names = List.of();
-                    prefix = names.stream()
-                            .filter(name -> !name.contains(" "))
-                            .min(Comparator.comparingInt(String::length))
-                            .orElse(referenceDatabase.getDisplayName().replaceAll("[\\s:]", ".").trim().toLowerCase());
-                    importLogger.warn("No prefix found for reference database with dbId: " + referenceDatabase.getDBID() + ", used to create the stId for " + identifier + " (dbId" + instance.getDBID() + "). Falling back to the made-up prefix: " + prefix  );
+                String identifierAttribute;
+                if (schemaClass.isa(ReactomeJavaConstants.GO_BiologicalProcess)
+                        || schemaClass.isa(ReactomeJavaConstants.GO_MolecularFunction)
+                        || schemaClass.isa(ReactomeJavaConstants.GO_CellularComponent)) {
+                    identifierAttribute = ReactomeJavaConstants.accession;
+                } else if (schemaClass.isa(ReactomeJavaConstants.ReferenceIsoform)) {
+                    identifierAttribute = ReactomeJavaConstants.variantIdentifier;
+                } else {
+                    identifierAttribute = ReactomeJavaConstants.identifier;
                 }
-                if (prefix != null) properties.put(STID, prefix + ":" + identifier);
-            }
-        }
-
-        // The node is now ready to be inserted in the graph database
-        try {
-            return batchInserter.createNode(properties, labels);
-        } catch (IllegalArgumentException e) {
-            throw new IllegalClassException("A problem occurred when trying to save entry to the Graph: " + instance.getDisplayName() + ":" + instance.getDBID());
+                return (instance, properties) -> {
+                    GKInstance referenceDatabase = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.referenceDatabase);
+                    if (referenceDatabase == null) return;
+                    String identifier = (String) getObjectFromGkInstance(instance, identifierAttribute);
+                    String url = (String) getObjectFromGkInstance(referenceDatabase, ReactomeJavaConstants.accessUrl);
+                    if (url == null || identifier == null) return;
+                    properties.put("databaseName", referenceDatabase.getDisplayName());
+                    properties.put(targetAttribute, url.replace("###ID###", identifier));
+                };
+            default: //Here we are in a none graph-added field. The field content has to be treated based on the schema definition
+                return getDefaultPropertyHandler(schemaClass, originAttribute, targetAttribute, type);
         }
     }
 
     //saveDatabaseObject default option
-    private void defaultAction(GKInstance instance, String originAttribute, String targetAttribute, Map<String, Object> properties, ReactomeAttribute.PropertyType type) {
-        if (isValidGkInstanceAttribute(instance, originAttribute)) {
-            Object value = getObjectFromGkInstance(instance, originAttribute);
+    private ConversionPlan.PropertyHandler getDefaultPropertyHandler(SchemaClass schemaClass, String originAttribute, String targetAttribute,
+                                                                     ReactomeAttribute.PropertyType type) {
+        if (!isValidSchemaClassAttribute(schemaClass, originAttribute)) return null;
+        return (instance, properties) -> {
+            Object value = getAttributeValue(instance, originAttribute);
             if (isConsistent(instance, value, originAttribute, type)) {
                 properties.put(targetAttribute, value);
             }
+        };
+    }
+
+    private ConversionPlan.PropertyHandler getListPropertyHandler(SchemaClass schemaClass, ReactomeAttribute reactomeAttribute) {
+        String targetAttribute = reactomeAttribute.getAttribute();
+        String originAttribute = attributeRenaming.getOrDefault(reactomeAttribute, targetAttribute);
+        ReactomeAttribute.PropertyType type = reactomeAttribute.getType();
+        if (!isValidSchemaClassAttribute(schemaClass, originAttribute)) return null;
+        Class<?> attributeType = reactomeAttribute.getClazz();
+        return (instance, properties) -> {
+            Collection<?> values = getAttributeValuesList(instance, originAttribute);
+            if (isConsistent(instance, values, originAttribute, type)) {
+                Object[] castedValues = (Object[]) Array.newInstance(attributeType, values.size());
+                int i = 0;
+                for (Object value : values) castedValues[i++] = attributeType.cast(value);
+                properties.put(targetAttribute, castedValues);
+            }
+        };
+    }
+
+    private void addReferenceEntityStId(GKInstance instance, Map<String, Object> properties) {
+        String identifier = getObjectFromGkInstance(instance, ReactomeJavaConstants.identifier, String.class);
+        String variant = getObjectFromGkInstance(instance, ReactomeJavaConstants.variantIdentifier, String.class);
+        if (variant != null && !variant.isBlank()) identifier = variant;
+        if (identifier != null) {
+            GKInstance referenceDatabase = (GKInstance) getObjectFromGkInstance(instance, ReactomeJavaConstants.referenceDatabase);
+            String prefix = getObjectFromGkInstance(referenceDatabase, ReactomeJavaConstants.identifiersPrefix, String.class);
+            if (prefix == null && referenceDatabase != null)
+                prefix = DatabaseToPrefix.mapping.get(referenceDatabase.getDBID());
+            if (prefix == null && referenceDatabase != null) {
+                Collection<String> names = getCollectionFromGkInstance(instance, ReactomeJavaConstants.name, String.class);
+                if (names == null) names = List.of();
+                prefix = names.stream()
+                        .filter(name -> !name.contains(" "))
+                        .min(Comparator.comparingInt(String::length))
+                        .orElse(referenceDatabase.getDisplayName().replaceAll("[\\s:]", ".").trim().toLowerCase());
+                importLogger.warn("No prefix found for reference database with dbId: " + referenceDatabase.getDBID()
+                        + ", used to create the stId for " + identifier + " (dbId" + instance.getDBID() + ")."
+                        + " Falling back to the made-up prefix: " + prefix);
+            }
+            if (prefix != null) properties.put(STID, prefix + ":" + identifier);
+        }
+    }
+
+    /**
+     * @return the handler for a relationship attribute or null when there is nothing to be done for the schema class
+     */
+    private ConversionPlan.RelationshipHandler getRelationshipHandler(SchemaClass schemaClass, ReactomeAttribute reactomeAttribute) {
+        String targetAttribute = reactomeAttribute.getAttribute();
+        String originAttribute = attributeRenaming.getOrDefault(reactomeAttribute, targetAttribute);
+        ReactomeAttribute.PropertyType type = reactomeAttribute.getType();
+        switch (originAttribute) {
+            case "orthologousEvent":
+                if (!isValidSchemaClassAttribute(schemaClass, originAttribute)) return null;
+                return (instance, groups) -> {
+                    if (!isCuratedEvent(instance)) return;
+                    Collection<GKInstance> orthologousAll = getAttributeValuesList(instance, originAttribute);
+                    if (orthologousAll == null || orthologousAll.isEmpty()) return;
+                    Collection<?> alreadyPointing = getCollectionFromGkInstanceReferrals(instance, ReactomeJavaConstants.inferredFrom);
+                    //orthologousEvents collection will only contain those that are not pointing to instance as inferredFrom
+                    //to avoid inferredTo duplicates
+                    Collection<GKInstance> orthologousEvents = new ArrayList<>();
+                    Collection<GKInstance> importOnly = new ArrayList<>();
+                    for (GKInstance orthologousEvent : orthologousAll) {
+                        if (isGKInstanceInCollection(orthologousEvent, alreadyPointing)) {
+                            importOnly.add(orthologousEvent);
+                        } else {
+                            orthologousEvents.add(orthologousEvent);
+                        }
+                    }
+                    groups.add(RelationshipGroup.importOnly(importOnly));
+                    groups.add(RelationshipGroup.relationship("inferredTo", orthologousEvents));
+                };
+            case "inferredFrom": //Only for Event because in PhysicalEntity is ReactomeTransient
+                if (!isValidSchemaClassAttribute(schemaClass, originAttribute)) return null;
+                return (instance, groups) ->
+                        groups.add(RelationshipGroup.relationship("inferredToReverse", getAttributeValuesList(instance, originAttribute)));
+            case "inferredTo": //Only for PhysicalEntity
+                if (!isValidSchemaClassAttribute(schemaClass, originAttribute)) return null;
+                return (instance, groups) -> {
+                    Collection<GKInstance> inferredTo = getAttributeValuesList(instance, originAttribute);
+                    if (inferredTo == null || inferredTo.isEmpty()) {
+                        inferredTo = getCollectionFromGkInstanceReferrals(instance, ReactomeJavaConstants.inferredFrom);
+                    }
+                    groups.add(RelationshipGroup.relationship(targetAttribute, inferredTo));
+                };
+            case "hasEncapsulatedEvent":
+                boolean hasNormalPathway = schemaClass.isValidAttribute(ReactomeJavaConstants.normalPathway);
+                return (instance, groups) -> {
+                    //No encapsulation is taken into account for none infectious disease pathways
+                    if (hasNormalPathway && getAttributeValue(instance, ReactomeJavaConstants.normalPathway) != null) return;
+                    try {
+                        GKInstance diagram = gkInstanceHelper.getHasDiagram(instance);
+                        if (diagram != null) {
+                            Collection<GKInstance> encapsulatedEvents = new HashSet<>();
+                            try (ImportMetrics.Scope ignored = metrics.measure(ImportMetrics.Phase.DIAGRAMS)) {
+                                for (GKInstance target : processNodeExtractor.getProcessNodes(diagram, instance)) {
+                                    if (!gkInstanceHelper.pathwayContainsProcessNode(instance, target)) {
+                                        encapsulatedEvents.add(target);
+                                    }
+                                }
+                            }
+                            instanceCache.release(diagram);
+                            groups.add(RelationshipGroup.relationship(targetAttribute, encapsulatedEvents));
+                        }
+                    } catch (Exception e) {
+                        errorLogger.error("An exception occurred while trying to retrieve a diagram from entry with dbId: " + instance.getDBID()
+                                + "and name: " + instance.getDisplayName());
+                    }
+                };
+            default:
+                if (!isValidSchemaClassAttribute(schemaClass, originAttribute)) return null;
+                return (instance, groups) -> {
+                    Collection<GKInstance> relationships = getAttributeValuesList(instance, originAttribute);
+                    if (isConsistent(instance, relationships, originAttribute, type)) {
+                        groups.add(RelationshipGroup.relationship(targetAttribute, relationships));
+                    }
+                };
         }
     }
 
+    private Map<String, Object> getRelationshipProperties(int stoichiometry, int order) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(STOICHIOMETRY, stoichiometry);
+        properties.put(ORDER, order);
+        return properties;
+    }
+
     /**
-     * Creating a relationship between the old instance (using oldId) and its children (List objects).
-     * Relationships will be created depth first, if new instance does not already exist recursion will begin
-     * (newId = importGkInstance)
      * Every relationship entry will have a stoichiometry attribute, which is used as a counter. The same input of a Reaction
      * for example can be present multiple times. Instead of saving a lot of relationships we just set a counter to indicate
      * this behaviour. Since we can not query using the Batch inserter we have to iterate the collection of relationships
@@ -598,12 +1488,14 @@ public class ReactomeBatchImporter {
      * comparing instances will not work. In the helperObject the instance and a counter will be saved. Counter is used
      * to set stoichiometry of a relationship.
      *
-     * @param oldId        Old native neo4j id, used for saving a relationship to neo4j.
+     * @param oldId        Old native neo4j id, only used for reporting.
      * @param objects      New list of GkInstances that have relationship to the old Instance (oldId).
      * @param relationName Name of the relationship.
+     * @return the target instances (and their stoichiometry and order) mapped by dbId
      */
-    private void saveRelationships(Long oldId, Collection<GKInstance> objects, String relationName) throws ClassNotFoundException {
-        if (objects == null || objects.isEmpty()) return;
+    private Map<Long, GkInstancePropertiesHelper> getRelationshipTargets(Long oldId, Collection<GKInstance> objects, String relationName) {
+        Map<Long, GkInstancePropertiesHelper> propertiesMap = new HashMap<>();
+        if (objects == null || objects.isEmpty()) return propertiesMap;
 
         if (relationName.equals("modified")) {
             try {
@@ -619,15 +1511,14 @@ public class ReactomeBatchImporter {
                         latestModified = gkInstance;
                     }
                 }
-                objects.clear();
-                objects.add(latestModified);
+                //Filtered on a copy, the collection is the list of values of the instance
+                objects = List.of(latestModified);
                 discarded.remove(latestModified.getDBID());
             } catch (Exception e) {
                 importLogger.error("Problem while filtering tbe 'modified' relationship for " + oldId, e);
             }
         }
 
-        Map<Long, GkInstancePropertiesHelper> propertiesMap = new HashMap<>();
         objects.stream().filter(Objects::nonNull).forEach(object -> {
             if (propertiesMap.containsKey(object.getDBID())) {
                 propertiesMap.get(object.getDBID()).increment();
@@ -636,73 +1527,87 @@ public class ReactomeBatchImporter {
                 propertiesMap.put(object.getDBID(), new GkInstancePropertiesHelper(object, order));
             }
         });
-
-        for (Long dbId : propertiesMap.keySet()) {
-            GKInstance instance = propertiesMap.get(dbId).getInstance();
-            Long newId;
-            if (!dbIds.containsKey(dbId)) {
-                newId = importGkInstance(instance);
-                instance.deflate();
-            } else {
-                newId = dbIds.get(dbId);
+        return propertiesMap;
+    }
+    @SuppressWarnings("Duplicates")
+    public static void saveRelationship(Long toId, Long fromId, RelationshipType relationshipType, Map<String, Object> properties) {
+        try (ImportMetrics.Scope ignored = metrics.measure(ImportMetrics.Phase.RELATIONSHIP_WRITES)) {
+            String relationName = relationshipType.name();
+            switch (relationName) {
+                case "reverseReaction":
+                    if (!(reverseReactions.containsKey(fromId) && reverseReactions.containsValue(toId)) &&
+                            !(reverseReactions.containsKey(toId) && reverseReactions.containsValue(fromId))) {
+                        graphSink.createRelationship(fromId, toId, relationshipType, properties);
+                        reverseReactions.put(fromId, toId);
+                    }
+                    break;
+                case "equivalentTo":
+                    if (!(equivalentTo.containsKey(fromId) && equivalentTo.containsValue(toId)) &&
+                            !(equivalentTo.containsKey(toId) && equivalentTo.containsValue(fromId))) {
+                        graphSink.createRelationship(fromId, toId, relationshipType, properties);
+                        equivalentTo.put(fromId, toId);
+                    }
+                    break;
+                case "inferredToReverse":
+                    graphSink.createRelationship(toId, fromId, RelationshipType.withName("inferredTo"), properties);
+                    break;
+                default:
+                    if (REVERSED_RELATIONSHIPS.contains(relationName)) {
+                        graphSink.createRelationship(toId, fromId, relationshipType, properties);
+                    } else {
+                        graphSink.createRelationship(fromId, toId, relationshipType, properties);
+                    }
+                    break;
             }
-            Map<String, Object> properties = new HashMap<>();
-            properties.put(STOICHIOMETRY, propertiesMap.get(dbId).getCount());
-            properties.put(ORDER, propertiesMap.get(dbId).getOrder());
-            RelationshipType relationshipType = RelationshipType.withName(relationName);
-            saveRelationship(newId, oldId, relationshipType, properties);
         }
     }
 
-    @SuppressWarnings("Duplicates")
-    public static void saveRelationship(Long toId, Long fromId, RelationshipType relationshipType, Map<String, Object> properties) {
-        String relationName = relationshipType.name();
-        switch (relationName) {
-            case "reverseReaction":
-                if (!(reverseReactions.containsKey(fromId) && reverseReactions.containsValue(toId)) &&
-                        !(reverseReactions.containsKey(toId) && reverseReactions.containsValue(fromId))) {
-                    batchInserter.createRelationship(fromId, toId, relationshipType, properties);
-                    reverseReactions.put(fromId, toId);
-                }
-                break;
-            case "equivalentTo":
-                if (!(equivalentTo.containsKey(fromId) && equivalentTo.containsValue(toId)) &&
-                        !(equivalentTo.containsKey(toId) && equivalentTo.containsValue(fromId))) {
-                    batchInserter.createRelationship(fromId, toId, relationshipType, properties);
-                    equivalentTo.put(fromId, toId);
-                }
-                break;
-            case "inferredToReverse":
-                batchInserter.createRelationship(toId, fromId, RelationshipType.withName("inferredTo"), properties);
-                break;
-            case "author":
-            case "authored":
-            case "created":
-            case "edited":
-            case "modified":
-            case "revised":
-            case "reviewed":
-                batchInserter.createRelationship(toId, fromId, relationshipType, properties);
-                break;
-            default:
-                batchInserter.createRelationship(fromId, toId, relationshipType, properties);
-                break;
+    /**
+     * Creates a node in the GraphSink, accounting it in the NODE_WRITES (also used for the interactions data)
+     *
+     * @return node id (generated by the GraphSink)
+     */
+    public static long saveNode(Map<String, Object> properties, Label... labels) {
+        try (ImportMetrics.Scope ignored = metrics.measure(ImportMetrics.Phase.NODE_WRITES)) {
+            return graphSink.createNode(properties, labels);
         }
     }
 
     /**
-     * Cleaning the old database folder, instantiate BatchInserter, create Constraints for the new DB
+     * Cleaning the old database folder (or restoring the last checkpoint when resuming), instantiate the GraphSink and
+     * create Constraints for the new DB. When checkpoints are taken, the constraints are only created at the end, so the
+     * checkpoints do not have to copy their indexes.
      */
     private void prepareDatabase() throws IOException {
-        File file = cleanDatabase();
-
-        batchInserter = BatchInserters.inserter(DatabaseLayout.ofFlat(file.toPath()));
-        createConstraints();
+        checkpoint = new ImportCheckpoint(new File(DATA_DIR));
+        if (graphSink == null) {
+            switch (sinkType) {
+                case CSV:
+                    graphSink = new CsvGraphSink(new File(csvDir), new File(DATA_DIR).getName(), neo4jAdmin);
+                    break;
+                case COUNTING:
+                    graphSink = new CountingGraphSink();
+                    break;
+                default:
+                    new NodeIdMapFile(new File(DATA_DIR)).delete();
+                    graphSink = new BatchInserterGraphSink(resume ? restoreCheckpoint() : cleanDatabase());
+                    break;
+            }
+        }
+        if ((resume || checkpointInterval > 0) && !(graphSink instanceof ResumableGraphSink)) {
+            importLogger.warn("Checkpoints are not supported by " + graphSink.getClass().getSimpleName() + ". Ignored");
+            System.err.println("Checkpoints are not supported by " + graphSink.getClass().getSimpleName() + ". Ignored");
+            checkpointInterval = 0;
+        }
+        if (checkpointInterval == 0 && !resume) {
+            createConstraints();
+            constraintsCreated = true;
+        }
     }
 
     /**
      * Creating uniqueness constraints and indexes for the new DB.
-     * WARNING: Constraints can not be enforced while importing, only after batchInserter.shutdown()
+     * WARNING: Constraints can not be enforced while importing, only after graphSink.shutdown()
      */
     private void createConstraints() {
 
@@ -765,7 +1670,7 @@ public class ReactomeBatchImporter {
      */
     private static void createSchemaConstraint(Class<?> clazz, String name) {
         try {
-            batchInserter.createDeferredConstraint(Label.label(clazz.getSimpleName())).assertPropertyIsUnique(name).create();
+            graphSink.createUniqueConstraint(Label.label(clazz.getSimpleName()), name);
         } catch (Throwable e) {
             //ConstraintViolationException and PreexistingIndexEntryConflictException are both catch here
             importLogger.warn("Could not create Constraint on " + clazz.getSimpleName() + " for " + name);
@@ -780,7 +1685,7 @@ public class ReactomeBatchImporter {
      */
     private static void createDeferredSchemaIndex(Class<?> clazz, String name) {
         try {
-            batchInserter.createDeferredSchemaIndex(Label.label(clazz.getSimpleName())).on(name).create();
+            graphSink.createIndex(Label.label(clazz.getSimpleName()), name);
         } catch (Throwable e) {
             //ConstraintViolationException and PreexistingIndexEntryConflictException are both catch here
             importLogger.warn("Could not create Index on " + clazz.getSimpleName() + " for " + name);
@@ -827,47 +1732,6 @@ public class ReactomeBatchImporter {
         }
     }
 
-    /**
-     * Getting all SimpleNames as neo4j labels, for given class.
-     *
-     * @param clazz Clazz of object that will result form converting the instance (eg Pathway, Reaction)
-     * @return Array of Neo4j SchemaClassCount
-     */
-    public static Label[] getLabels(Class<?> clazz) {
-
-        if (!labelMap.containsKey(clazz)) {
-            Label[] labels = getAllClassNames(clazz).toArray(new Label[]{});
-            labelMap.put(clazz, labels);
-            return labels;
-        } else {
-            return labelMap.get(clazz);
-        }
-    }
-
-    /**
-     * Getting all SimpleNames as neo4j labels, for given class.
-     *
-     * @param clazz Clazz of object that will result form converting the instance (eg Pathway, Reaction)
-     * @return Array of Neo4j SchemaClassCount
-     */
-    private static List<Label> getAllClassNames(Class<?> clazz) {
-        return recursiveClassFetcher(clazz, new ArrayList<>());
-    }
-
-    private static List<Label> recursiveClassFetcher(Class<?> clazz, List<Label> labels) {
-        if (clazz == Object.class) return labels;
-        labels.add(Label.label(clazz.getSimpleName()));
-        labels.addAll(Arrays.stream(clazz.getAnnotatedInterfaces())
-                .filter(type -> type.getType() instanceof Class<?>)
-                .map(type -> ((Class<?>) type.getType()))
-                .filter(i -> i.getPackage().equals(DatabaseObject.class.getPackage()))
-                .map(i -> Label.label(i.getSimpleName()))
-                .collect(Collectors.toList()));
-        recursiveClassFetcher(clazz.getSuperclass(), labels);
-        return labels;
-    }
-
-
     /**
      * Gets all Fields for specific Class in order to create attribute map.
      * Annotations are used to differentiate attributes:
@@ -961,6 +1825,22 @@ public class ReactomeBatchImporter {
         return false;
     }
 
+    /**
+     * Checks if an attributeName is a valid attribute for a schema class. Used while creating the ConversionPlan, so
+     * the warning is only logged once per schema class instead of once per instance
+     *
+     * @param schemaClass SchemaClass
+     * @param attribute   FieldName
+     * @return boolean
+     */
+    private static boolean isValidSchemaClassAttribute(SchemaClass schemaClass, String attribute) {
+        if (schemaClass.isValidAttribute(attribute)) {
+            return true;
+        }
+        errorLogger.warn(attribute + " is not a valid attribute for " + schemaClass.getName() + " and will be skipped for all its instances");
+        return false;
+    }
+
     /**
      * A simple wrapper of the GkInstance.getAttributeValue Method used for error handling
      *
@@ -969,13 +1849,18 @@ public class ReactomeBatchImporter {
      * @return Object
      */
     public static Object getObjectFromGkInstance(GKInstance instance, String attribute) {
-        if (isValidGkInstanceAttribute(instance, attribute)) {
-            try {
-                return instance.getAttributeValue(attribute);
-            } catch (Exception e) {
-                errorLogger.error("An error occurred when trying to retrieve the '" + attribute + "' from instance with DbId:"
-                        + instance.getDBID() + " and Name:" + instance.getDisplayName(), e);
-            }
+        return isValidGkInstanceAttribute(instance, attribute) ? getAttributeValue(instance, attribute) : null;
+    }
+
+    /**
+     * Same as getObjectFromGkInstance for attributes already known to be valid for the instance schema class
+     */
+    private static Object getAttributeValue(GKInstance instance, String attribute) {
+        try {
+            return instance.getAttributeValue(attribute);
+        } catch (Exception e) {
+            errorLogger.error("An error occurred when trying to retrieve the '" + attribute + "' from instance with DbId:"
+                    + instance.getDBID() + " and Name:" + instance.getDisplayName(), e);
         }
         return null;
     }
@@ -1007,17 +1892,23 @@ public class ReactomeBatchImporter {
      * @return Object
      */
     private Collection<GKInstance> getCollectionFromGkInstance(GKInstance instance, String attribute) {
-        Collection<GKInstance> rtn = null;
-        if (isValidGkInstanceAttribute(instance, attribute)) {
-            try {
-                rtn = instance.getAttributeValuesList(attribute);
-                //In the converter we assume that the empty lists are the result of defensive programming in the
-                //GKInstance layer, so we turn those to null to reduce the number of field category check reports
-                rtn = (rtn == null || rtn.isEmpty()) ? null : rtn;
-            } catch (Exception e) {
-                errorLogger.error("An error occurred when trying to retrieve the '" + attribute + "' from instance with DbId:"
-                        + instance.getDBID() + " and Name:" + instance.getDisplayName(), e);
-            }
+        return isValidGkInstanceAttribute(instance, attribute) ? getAttributeValuesList(instance, attribute) : null;
+    }
+
+    /**
+     * Same as getCollectionFromGkInstance for attributes already known to be valid for the instance schema class
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Collection<T> getAttributeValuesList(GKInstance instance, String attribute) {
+        Collection<T> rtn = null;
+        try {
+            rtn = instance.getAttributeValuesList(attribute);
+            //In the converter we assume that the empty lists are the result of defensive programming in the
+            //GKInstance layer, so we turn those to null to reduce the number of field category check reports
+            rtn = (rtn == null || rtn.isEmpty()) ? null : rtn;
+        } catch (Exception e) {
+            errorLogger.error("An error occurred when trying to retrieve the '" + attribute + "' from instance with DbId:"
+                    + instance.getDBID() + " and Name:" + instance.getDisplayName(), e);
         }
         return rtn;
     }
@@ -1046,17 +1937,21 @@ public class ReactomeBatchImporter {
     }
 
     /**
-     * A simple wrapper of the GkInstance.getReferrers Method used for error handling
+     * A simple wrapper of the GkInstance.getReferrers Method used for error handling. Answered from the referenceIndex
+     * when it covers the attribute
      *
      * @param instance  GkInstance
      * @param attribute FieldName
      * @return Object
      */
-    @SuppressWarnings("SameParameterValue")
     private Collection<GKInstance> getCollectionFromGkInstanceReferrals(GKInstance instance, String attribute) {
         Collection<GKInstance> rtn = null;
         try {
-            rtn = instance.getReferers(attribute);
+            if (referenceIndex != null && referenceIndex.covers(attribute)) {
+                rtn = referenceIndex.getReferrers(instance.getDBID(), attribute);
+            } else {
+                rtn = instance.getReferers(attribute);
+            }
             //In the converter we assume that the empty lists are the result of defensive programming in the
             //GKInstance layer, so we turn those to null to reduce the number of field category check reports
             rtn = (rtn == null || rtn.isEmpty()) ? null : rtn;
@@ -1086,41 +1981,6 @@ public class ReactomeBatchImporter {
         return false;
     }
 
-    //############################## NEXT BIT IS USED TO CALCULATE THE DATABASE CHECKSUM ###############################
-
-    private Long getDatabaseChecksum() {
-        String prefix = "\rCalculating the database checksum: ";
-        System.out.print(prefix + "0%");
-        long checkSum = 0L;
-        @SuppressWarnings({"SqlDialectInspection", "SqlNoDataSourceInspection"})
-        String queries = "SELECT CONCAT('CHECKSUM TABLE ', table_name, ';') AS statement FROM information_schema.tables WHERE table_schema = ?";
-        try {
-            Connection dbaConn = dba.getConnection();
-            PreparedStatement ps = dbaConn.prepareStatement(queries);
-            ps.setString(1, dba.getDBName());
-
-            List<String> checkSumQueries = new ArrayList<>();
-            final ResultSet resultSet = ps.executeQuery();
-            while (resultSet.next()) checkSumQueries.add(resultSet.getString("statement"));
-            resultSet.close();
-
-            double total = checkSumQueries.size();
-            int i = 0;
-            for (String checkSumQuery : checkSumQueries) {
-                System.out.print(prefix + Math.round((++i / total) * 100) + "% (please wait...)");
-                PreparedStatement css = dbaConn.prepareStatement(checkSumQuery);
-                ResultSet cs = css.executeQuery();
-                if (cs.next()) checkSum += cs.getLong("Checksum");
-                cs.close();
-            }
-            System.out.println("\rDatabase checksum successfully calculated: " + checkSum);
-        } catch (SQLException ex) {
-            errorLogger.error(ex.getMessage(), ex);
-            System.err.println("\rThere was a problem calculating the database checksum (See error log)");
-        }
-        return checkSum;
-    }
-
     //##################################### NEXT BIT IS USED FOR CONSISTENCY CHECK #####################################
 
     private boolean isConsistent(GKInstance instance, Object value, String attribute, ReactomeAttribute.PropertyType type) {
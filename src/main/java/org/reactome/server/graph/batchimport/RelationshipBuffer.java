@@ -0,0 +1,152 @@
+package org.reactome.server.graph.batchimport;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Keeps the relationships found while creating the nodes in the first phase of a two-phase import, so they can be
+ * written once every node exists. Relationships are stored column-wise in primitive arrays (source node, target
+ * dbId, type, stoichiometry and order) to keep the footprint of millions of entries low.
+ */
+class RelationshipBuffer {
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final List<String> types = new ArrayList<>();
+    private final Map<String, Integer> typeIndex = new HashMap<>();
+
+    private long[] from = new long[INITIAL_CAPACITY];
+    private long[] toDbId = new long[INITIAL_CAPACITY];
+    private int[] type = new int[INITIAL_CAPACITY];
+    private int[] stoichiometry = new int[INITIAL_CAPACITY];
+    private int[] order = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    void add(long fromNode, long targetDbId, String relationName, int count, int position) {
+        if (size == from.length) grow();
+        from[size] = fromNode;
+        toDbId[size] = targetDbId;
+        type[size] = typeIndex.computeIfAbsent(relationName, k -> {
+            types.add(k);
+            return types.size() - 1;
+        });
+        stoichiometry[size] = count;
+        order[size] = position;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Nodes are created in the same order their relationships are added, so the buffer is usually sorted already.
+     * Otherwise every relationship gets a primitive key with the source node in the high bits and its index in the
+     * low ones, so sorting the keys sorts by source node keeping the original order per node (no boxing involved).
+     *
+     * @return the relationship indexes sorted by source node (stable, so the original order is kept per node)
+     */
+    int[] sortedBySource() {
+        int[] rtn = new int[size];
+        boolean sorted = true;
+        for (int i = 0; i < size; i++) {
+            rtn[i] = i;
+            if (i > 0 && from[i - 1] > from[i]) sorted = false;
+        }
+        if (sorted) return rtn;
+
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            if (from[i] < 0 || from[i] > Integer.MAX_VALUE) return mergeSortBySource(rtn);
+            keys[i] = from[i] << 32 | i;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < size; i++) rtn[i] = (int) keys[i];
+        return rtn;
+    }
+
+    /**
+     * Stable bottom-up merge sort of the indexes by source node, only for node ids that do not fit in the packed key
+     */
+    private int[] mergeSortBySource(int[] indexes) {
+        int[] src = indexes;
+        int[] dst = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int lo = 0; lo < size; lo += 2 * width) {
+                int mid = Math.min(lo + width, size), hi = Math.min(lo + 2 * width, size);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) dst[k++] = from[src[j]] < from[src[i]] ? src[j++] : src[i++];
+                while (i < mid) dst[k++] = src[i++];
+                while (j < hi) dst[k++] = src[j++];
+            }
+            int[] aux = src;
+            src = dst;
+            dst = aux;
+        }
+        return src;
+    }
+
+    long getFrom(int i) {
+        return from[i];
+    }
+
+    long getToDbId(int i) {
+        return toDbId[i];
+    }
+
+    String getType(int i) {
+        return types.get(type[i]);
+    }
+
+    int getStoichiometry(int i) {
+        return stoichiometry[i];
+    }
+
+    int getOrder(int i) {
+        return order[i];
+    }
+
+    void clear() {
+        from = new long[INITIAL_CAPACITY];
+        toDbId = new long[INITIAL_CAPACITY];
+        type = new int[INITIAL_CAPACITY];
+        stoichiometry = new int[INITIAL_CAPACITY];
+        order = new int[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Writes the buffered relationships, so they can be kept in a checkpoint
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(from[i]);
+            out.writeLong(toDbId[i]);
+            out.writeUTF(types.get(type[i]));
+            out.writeInt(stoichiometry[i]);
+            out.writeInt(order[i]);
+        }
+    }
+
+    /**
+     * Adds the relationships previously written with {@link #write(DataOutput)}
+     */
+    void read(DataInput in) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            add(in.readLong(), in.readLong(), in.readUTF(), in.readInt(), in.readInt());
+        }
+    }
+
+    private void grow() {
+        int capacity = from.length * 2;
+        from = Arrays.copyOf(from, capacity);
+        toDbId = Arrays.copyOf(toDbId, capacity);
+        type = Arrays.copyOf(type, capacity);
+        stoichiometry = Arrays.copyOf(stoichiometry, capacity);
+        order = Arrays.copyOf(order, capacity);
+    }
+}
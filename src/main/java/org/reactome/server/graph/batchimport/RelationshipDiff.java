@@ -0,0 +1,72 @@
+package org.reactome.server.graph.batchimport;
+
+import org.neo4j.batchinsert.BatchRelationship;
+
+import java.util.*;
+import java.util.function.LongFunction;
+
+/**
+ * Compares the relationships a node rewritten by the delta import needs with the ones it has in the store: the ones
+ * still needed are kept (their properties are updated when they changed), the missing ones have to be created and
+ * the ones owned by the node that are not needed any more have to be deleted. The relationships owned by other nodes
+ * are left untouched. An undirected relationship may have been saved by the other end, so when it is not needed it
+ * is only set aside, to be deleted later if the other end does not need it either.
+ */
+class RelationshipDiff {
+
+    private final Map<Long, Map<String, Object>> updated = new LinkedHashMap<>();
+    private final List<BatchRelationship> deleted = new ArrayList<>();
+    private final List<BatchRelationship> undirected = new ArrayList<>();
+    private final Map<RelationshipKey, Map<String, Object>> created;
+
+    /**
+     * @param node            the rewritten node
+     * @param needed          the relationships the node needs, with their properties
+     * @param existing        the relationships of the node in the store (both directions)
+     * @param properties      gives the properties of an existing relationship
+     * @param reversedTypes   types saved from the target to the node holding the attribute
+     * @param undirectedTypes types that can be saved from any of both ends
+     */
+    RelationshipDiff(long node, Map<RelationshipKey, Map<String, Object>> needed, Iterable<BatchRelationship> existing,
+                     LongFunction<Map<String, Object>> properties, Set<String> reversedTypes, Set<String> undirectedTypes) {
+        created = new LinkedHashMap<>(needed);
+        for (BatchRelationship relationship : existing) {
+            String type = relationship.getType().name();
+            boolean isUndirected = undirectedTypes.contains(type);
+            RelationshipKey key = RelationshipKey.of(relationship.getStartNode(), relationship.getEndNode(), type, isUndirected);
+            Map<String, Object> wanted = created.remove(key);
+            if (wanted != null) {
+                if (!wanted.equals(properties.apply(relationship.getId()))) updated.put(relationship.getId(), wanted);
+            } else if (isUndirected) {
+                undirected.add(relationship);
+            } else if (reversedTypes.contains(type) ? relationship.getEndNode() == node : relationship.getStartNode() == node) {
+                deleted.add(relationship);
+            }
+        }
+    }
+
+    /**
+     * @return relationship id to the properties it has to get
+     */
+    Map<Long, Map<String, Object>> getUpdated() {
+        return updated;
+    }
+
+    List<BatchRelationship> getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return the undirected relationships of the node it does not need
+     */
+    List<BatchRelationship> getUndirected() {
+        return undirected;
+    }
+
+    /**
+     * @return the needed relationships that are not in the store yet
+     */
+    Map<RelationshipKey, Map<String, Object>> getCreated() {
+        return created;
+    }
+}
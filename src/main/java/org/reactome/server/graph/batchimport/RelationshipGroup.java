@@ -0,0 +1,41 @@
+package org.reactome.server.graph.batchimport;
+
+import org.gk.model.GKInstance;
+
+import java.util.Collection;
+
+/**
+ * The target instances of one relationship attribute of a GkInstance, once the special cases (orthologousEvent,
+ * inferredTo, hasEncapsulatedEvent...) have been resolved. A group without relationship name only contains
+ * instances that have to be imported but not linked (e.g. orthologous events already pointing via inferredFrom)
+ */
+class RelationshipGroup {
+
+    private final String relationName;
+    private final Collection<GKInstance> targets;
+
+    private RelationshipGroup(String relationName, Collection<GKInstance> targets) {
+        this.relationName = relationName;
+        this.targets = targets;
+    }
+
+    static RelationshipGroup relationship(String relationName, Collection<GKInstance> targets) {
+        return new RelationshipGroup(relationName, targets);
+    }
+
+    static RelationshipGroup importOnly(Collection<GKInstance> targets) {
+        return new RelationshipGroup(null, targets);
+    }
+
+    String getRelationName() {
+        return relationName;
+    }
+
+    Collection<GKInstance> getTargets() {
+        return targets;
+    }
+
+    boolean isImportOnly() {
+        return relationName == null;
+    }
+}
@@ -0,0 +1,54 @@
+package org.reactome.server.graph.batchimport;
+
+import java.util.Objects;
+
+/**
+ * Identifies a relationship by its ends and type (the importer does not keep more than one relationship of a type
+ * between two nodes). The ends of an undirected relationship are sorted, so it gets the same key in both directions.
+ */
+final class RelationshipKey {
+
+    private final long start;
+    private final long end;
+    private final String type;
+
+    private RelationshipKey(long start, long end, String type) {
+        this.start = start;
+        this.end = end;
+        this.type = type;
+    }
+
+    static RelationshipKey of(long start, long end, String type, boolean undirected) {
+        return undirected && end < start ? new RelationshipKey(end, start, type) : new RelationshipKey(start, end, type);
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long getEnd() {
+        return end;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RelationshipKey)) return false;
+        RelationshipKey that = (RelationshipKey) o;
+        return start == that.start && end == that.end && type.equals(that.type);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(start, end, type);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + start + ")-[:" + type + "]->(" + end + ")";
+    }
+}
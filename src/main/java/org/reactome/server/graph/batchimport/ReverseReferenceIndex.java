@@ -0,0 +1,160 @@
+package org.reactome.server.graph.batchimport;
+
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+import org.reactome.server.graph.utils.LongLongMultimap;
+import org.reactome.server.graph.utils.LongSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+import static org.reactome.server.graph.utils.FormatUtils.getTimeFormatted;
+
+/**
+ * Answers "which instances refer to X via the attribute A" from memory, instead of running one query per call as
+ * GKInstance.getReferers does. For every indexed attribute, the tables where it is stored (the column of the table
+ * of each class defining it, or the Class_2_attribute table when it is multivalued) are streamed once into a
+ * LongLongMultimap from the referred dbId to the referrer dbIds. There is one value per row, so a referrer listing
+ * the same instance twice is only collapsed at lookup time, keeping the order in which the referrers were first seen.
+ * <p>
+ * Not thread safe: the lookups share one buffer for the referrer dbIds.
+ */
+public class ReverseReferenceIndex {
+
+    private static final Logger importLogger = LoggerFactory.getLogger("import");
+
+    //Below this many referrers a linear scan is cheaper than a LongSet to find the duplicates
+    private static final int SMALL_LOOKUP = 32;
+
+    private final MySQLAdaptor dba;
+    private final Map<String, LongLongMultimap> referrers = new HashMap<>();
+    //Reused by getReferrers, which is called for every imported instance
+    private long[] buffer = new long[16];
+
+    /**
+     * @param dba        adaptor used to read the tables and to retrieve the referrer instances
+     * @param attributes the attributes to be indexed
+     */
+    public ReverseReferenceIndex(MySQLAdaptor dba, String... attributes) throws Exception {
+        this.dba = dba;
+        long start = System.currentTimeMillis();
+        System.out.print("\rIndexing the referrers...");
+        for (String attribute : attributes) {
+            LongLongMultimap map = new LongLongMultimap();
+            for (String sql : getQueries(dba, attribute)) {
+                try (Statement statement = createStreamingStatement(dba); ResultSet rs = statement.executeQuery(sql)) {
+                    while (rs.next()) map.put(rs.getLong(2), rs.getLong(1));
+                }
+            }
+            referrers.put(attribute, map);
+        }
+        String time = getTimeFormatted(System.currentTimeMillis() - start);
+        importLogger.info("Referrers indexed for " + String.join(", ", attributes) + " (" + time + ")");
+        System.out.println("\rReferrers indexed (" + time + ")");
+    }
+
+    /**
+     * @return true when the referrers via the attribute are in the index
+     */
+    public boolean covers(String attribute) {
+        return referrers.containsKey(attribute);
+    }
+
+    public boolean hasReferrers(Long dbId, String attribute) {
+        return getMap(attribute).containsKey(dbId);
+    }
+
+    /**
+     * @return the distinct dbIds of the instances referring to the one with the given dbId via the attribute
+     */
+    public long[] getReferrerDbIds(Long dbId, String attribute) {
+        long[] rtn = getMap(attribute).get(dbId);
+        int n = distinct(rtn, rtn.length);
+        return n == rtn.length ? rtn : Arrays.copyOf(rtn, n);
+    }
+
+    /**
+     * @return the instances referring to the one with the given dbId via the attribute, or null if there are none
+     * (as GKInstance.getReferers does)
+     */
+    public List<GKInstance> getReferrers(Long dbId, String attribute) throws Exception {
+        LongLongMultimap map = getMap(attribute);
+        int n = map.get(dbId, buffer);
+        if (n == 0) return null;
+        if (n > buffer.length) {
+            buffer = new long[Integer.highestOneBit(n) << 1];
+            map.get(dbId, buffer);
+        }
+        n = distinct(buffer, n);
+        List<GKInstance> rtn = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            GKInstance instance = dba.fetchInstance(buffer[i]);
+            if (instance != null) rtn.add(instance);
+        }
+        return rtn;
+    }
+
+    /**
+     * Moves the distinct values of values[0..n) to its beginning, keeping the order in which they are first seen
+     *
+     * @return the number of distinct values
+     */
+    static int distinct(long[] values, int n) {
+        if (n < 2) return n;
+        int size = 0;
+        if (n <= SMALL_LOOKUP) {
+            outer:
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < size; j++) if (values[j] == values[i]) continue outer;
+                values[size++] = values[i];
+            }
+        } else {
+            LongSet seen = new LongSet();
+            for (int i = 0; i < n; i++) if (seen.add(values[i])) values[size++] = values[i];
+        }
+        return size;
+    }
+
+    private LongLongMultimap getMap(String attribute) {
+        LongLongMultimap map = referrers.get(attribute);
+        if (map == null) throw new IllegalArgumentException("Referrers via '" + attribute + "' are not indexed");
+        return map;
+    }
+
+    /**
+     * @return one query per class defining the attribute, selecting the (referrer, referred) pairs
+     */
+    public static List<String> getQueries(MySQLAdaptor dba, String attribute) throws Exception {
+        List<String> rtn = new ArrayList<>();
+        Set<String> origins = new HashSet<>();
+        for (Object o : dba.fetchSchema().getClasses()) {
+            SchemaClass schemaClass = (SchemaClass) o;
+            if (!schemaClass.isValidAttribute(attribute)) continue;
+            SchemaAttribute schemaAttribute = schemaClass.getAttribute(attribute);
+            if (!schemaAttribute.isInstanceTypeAttribute()) continue;
+            String origin = schemaAttribute.getOrigin().getName();
+            if (!origins.add(origin)) continue;
+            if (schemaAttribute.isMultiple()) {
+                rtn.add("SELECT DB_ID, " + attribute + " FROM " + origin + "_2_" + attribute);
+            } else {
+                rtn.add("SELECT DB_ID, " + attribute + " FROM " + origin + " WHERE " + attribute + " IS NOT NULL");
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * The MySQL driver only streams the rows for forward only, read only statements with a fetch size of Integer.MIN_VALUE
+     */
+    public static Statement createStreamingStatement(MySQLAdaptor dba) throws SQLException {
+        Statement statement = dba.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(Integer.MIN_VALUE);
+        return statement;
+    }
+}
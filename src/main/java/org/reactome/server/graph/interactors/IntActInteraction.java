@@ -0,0 +1,41 @@
+package org.reactome.server.graph.interactors;
+
+/**
+ * An interaction seen from one of its interactors (A), so only the partner (B) is kept
+ */
+class IntActInteraction {
+
+    private final long id;
+    private final IntActInteractor interactorB;
+    private final String[] accessions;  //IntAct interaction accessions
+    private final String[] pubmeds;
+    private final Double score;
+
+    IntActInteraction(long id, IntActInteractor interactorB, String[] accessions, String[] pubmeds, Double score) {
+        this.id = id;
+        this.interactorB = interactorB;
+        this.accessions = accessions;
+        this.pubmeds = pubmeds;
+        this.score = score;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    IntActInteractor getInteractorB() {
+        return interactorB;
+    }
+
+    String[] getAccessions() {
+        return accessions;
+    }
+
+    String[] getPubmeds() {
+        return pubmeds;
+    }
+
+    Double getScore() {
+        return score;
+    }
+}
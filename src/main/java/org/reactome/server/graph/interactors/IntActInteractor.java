@@ -0,0 +1,47 @@
+package org.reactome.server.graph.interactors;
+
+/**
+ * The partner (interactor B) of an interaction, as needed to create its ReferenceEntity when it is not in Reactome
+ */
+class IntActInteractor {
+
+    private final String acc;           //resource:identifier
+    private final String resourceName;
+    private final String alias;
+    private final String aliasWithoutSpecies;
+    private final Integer taxId;
+    private final String[] synonyms;
+
+    IntActInteractor(String acc, String resourceName, String alias, String aliasWithoutSpecies, Integer taxId, String[] synonyms) {
+        this.acc = acc;
+        this.resourceName = resourceName;
+        this.alias = alias;
+        this.aliasWithoutSpecies = aliasWithoutSpecies;
+        this.taxId = taxId;
+        this.synonyms = synonyms;
+    }
+
+    String getAcc() {
+        return acc;
+    }
+
+    String getResourceName() {
+        return resourceName;
+    }
+
+    String getAlias() {
+        return alias;
+    }
+
+    String getAliasWithoutSpecies() {
+        return aliasWithoutSpecies;
+    }
+
+    Integer getTaxId() {
+        return taxId;
+    }
+
+    String[] getSynonyms() {
+        return synonyms;
+    }
+}
@@ -1,22 +1,25 @@
 package org.reactome.server.graph.interactors;
 
 import org.apache.commons.io.FileUtils;
-import org.gk.model.GKInstance;
 import org.gk.model.ReactomeJavaConstants;
 import org.gk.persistence.MySQLAdaptor;
-import org.neo4j.batchinsert.BatchInserter;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.RelationshipType;
 import org.reactome.server.graph.batchimport.ReactomeBatchImporter;
+import org.reactome.server.graph.batchimport.ReverseReferenceIndex;
 import org.reactome.server.graph.domain.model.ReferenceGeneProduct;
 import org.reactome.server.graph.domain.model.ReferenceIsoform;
 import org.reactome.server.graph.domain.model.ReferenceMolecule;
 import org.reactome.server.graph.domain.model.UndirectedInteraction;
+import org.reactome.server.graph.sink.GraphSink;
+import org.reactome.server.graph.utils.InstanceCache;
+import org.reactome.server.graph.utils.LabelRegistry;
+import org.reactome.server.graph.utils.LongLongMap;
+import org.reactome.server.graph.utils.LongSet;
 import org.reactome.server.graph.utils.ProgressBarUtils;
 import org.reactome.server.graph.utils.TaxonomyHelper;
 import org.reactome.server.interactors.IntactParser;
 import org.reactome.server.interactors.database.InteractorsDatabase;
-import org.reactome.server.interactors.exception.InvalidInteractionResourceException;
 import org.reactome.server.interactors.model.Interaction;
 import org.reactome.server.interactors.model.Interactor;
 import org.reactome.server.interactors.model.InteractorResource;
@@ -41,14 +44,55 @@ public class InteractionImporter {
 
     private static final Logger importLogger = LoggerFactory.getLogger("import");
 
+    //A PhysicalEntity referred via any of these is target for interaction data
+    public static final String[] TARGET_ATTRIBUTES = {
+            ReactomeJavaConstants.input,
+            ReactomeJavaConstants.output,
+            ReactomeJavaConstants.physicalEntity,
+            ReactomeJavaConstants.diseaseEntity,
+            ReactomeJavaConstants.regulator
+    };
+
+    /**
+     * How the objects created by the interactions import are tracked: OBJECT creates one InstanceEdit for each of
+     * them while RUN creates one for the whole import run
+     */
+    public enum Provenance {OBJECT, RUN}
+
     private final MySQLAdaptor dba;
-    private final Map<Long, Long> dbIds;
+    private final LongLongMap dbIds;
+    private final ReverseReferenceIndex referenceIndex;
 
     private final TaxonomyHelper taxonomyHelper;
+    private final InstanceCache instanceCache;
+    private Provenance provenance = Provenance.OBJECT;
+    private Long runInstanceEdit = null;
 
     private static final Long REACTOME_UNIPROT_REFERENCE_DATABASE = 2L;
     private static final Long REACTOME_CHEBI_REFERENCE_DATABASE = 114984L;
 
+    //Shared by all the nodes and relationships created for the interactions
+    private static final RelationshipType INTERACTOR = RelationshipType.withName("interactor");
+    private static final RelationshipType REFERENCE_DATABASE = RelationshipType.withName("referenceDatabase");
+    private static final RelationshipType SPECIES = RelationshipType.withName("species");
+    private static final String INTACT = "IntAct";
+    private static final String UNIPROT = "UniProt";
+    private static final String INTACT_INTERACTION_URL = "https://www.ebi.ac.uk/intact/pages/interactions/interactions.xhtml?query=";
+    private static final String INTACT_URL = "https://www.ebi.ac.uk/intact/query/";
+    private static final String UNIPROT_URL = "https://www.uniprot.org/uniprotkb/";
+    private static final String CHEBI_URL = "https://www.ebi.ac.uk/chebi/searchId.do?chebiId=CHEBI:";
+    private static final String UNDIRECTED_INTERACTION = UndirectedInteraction.class.getSimpleName();
+    private static final String REFERENCE_GENE_PRODUCT = ReferenceGeneProduct.class.getSimpleName();
+    private static final String REFERENCE_ISOFORM = ReferenceIsoform.class.getSimpleName();
+    private static final String REFERENCE_MOLECULE = ReferenceMolecule.class.getSimpleName();
+    private static final Label[] UNDIRECTED_INTERACTION_LABELS = LabelRegistry.getLabels(UndirectedInteraction.class);
+    private static final Label[] REFERENCE_GENE_PRODUCT_LABELS = LabelRegistry.getLabels(ReferenceGeneProduct.class);
+    private static final Label[] REFERENCE_ISOFORM_LABELS = LabelRegistry.getLabels(ReferenceIsoform.class);
+    private static final Label[] REFERENCE_MOLECULE_LABELS = LabelRegistry.getLabels(ReferenceMolecule.class);
+    //The relationship properties are copied by the sinks, so the same maps are used for all the relationships
+    private static final Map<String, Object> STD_RELATIONSHIP_PROP = Map.of(STOICHIOMETRY, 1, ORDER, 1);
+    private static final Map<String, Object> TARGET_RELATIONSHIP_PROP = Map.of(STOICHIOMETRY, 1, ORDER, 2);
+
     private static Boolean useUserInteractionData;
     private static Boolean isSQLLite;
     private static String userInteractionDataFile;
@@ -59,109 +103,96 @@ public class InteractionImporter {
     private InteractorResourceService interactorResourceService;
 
     private Long intActReferenceDatabaseDbId;
-    private static final Map<String, Set<Long>> referenceEntityMap = new HashMap<>(); // (UniProt:12345) -> [dbId]
+    private long uniProtReferenceDatabaseNode;
+    private long chEBIReferenceDatabaseNode;
+
+    //Used while writing the interactions
+    private GraphSink graphSink;
+    private Long graphImporterUserNode;
+    private long intActReferenceDatabaseNode;
+    private final LongSet addedInteractions = new LongSet();
+    private int addedReferenceEntities = 0;
+    private int threads = 1;
+    private static final Map<String, long[]> referenceEntityMap = new HashMap<>(); // (UniProt:12345) -> [dbId]
+    //ReferenceEntities created for the interactors that are not in Reactome, only used by the writer so the
+    //referenceEntityMap is not modified while the interactions are prepared
+    private final Map<String, Long> createdReferenceEntities = new HashMap<>();
     private static final Map<Long, InteractorResource> interactorResourceMap = new HashMap<>();
 
-    public InteractionImporter(MySQLAdaptor dba, Map<Long, Long> dbIds, Map<Integer, Long> taxIdDbId, String fileName, Boolean isSQLLite) {
+    /**
+     * @param referenceIndex index covering referenceEntity and the TARGET_ATTRIBUTES (null to query the referrers)
+     * @param instanceCache  decides when the instances used here are deflated
+     * @param taxonomyFile   NCBI taxonomy nodes.dmp to resolve the species offline (null to query Ensembl)
+     */
+    public InteractionImporter(MySQLAdaptor dba, LongLongMap dbIds, Map<Integer, Long> taxIdDbId, String fileName, Boolean isSQLLite,
+                               ReverseReferenceIndex referenceIndex, InstanceCache instanceCache, File taxonomyFile) {
         this.dba = dba;
         this.dbIds = dbIds;
-        this.taxonomyHelper = new TaxonomyHelper(taxIdDbId);
+        this.referenceIndex = referenceIndex;
+        this.instanceCache = instanceCache;
+        this.taxonomyHelper = getTaxonomyHelper(taxIdDbId, taxonomyFile);
         useUserInteractionData = fileName != null && !fileName.isEmpty();
         userInteractionDataFile = fileName;
         this.isSQLLite = isSQLLite;
     }
 
-    public void addInteractionData(BatchInserter batchInserter) {
+    private static TaxonomyHelper getTaxonomyHelper(Map<Integer, Long> taxIdDbId, File taxonomyFile) {
+        if (taxonomyFile != null) {
+            try {
+                return new TaxonomyHelper(taxIdDbId, taxonomyFile);
+            } catch (IOException e) {
+                importLogger.error("The taxonomy could not be loaded from " + taxonomyFile + ". The Ensembl REST API will be used instead", e);
+            }
+        }
+        return new TaxonomyHelper(taxIdDbId);
+    }
+
+    /**
+     * @param provenance whether every created object gets its own InstanceEdit or they all share one per run
+     */
+    public void setProvenance(Provenance provenance) {
+        this.provenance = provenance;
+    }
+
+    /**
+     * @param threads number of workers retrieving the interactions from the interaction database while they are
+     *                written (1 retrieves all of them before writing)
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void addInteractionData(GraphSink graphSink) {
         long start = System.currentTimeMillis();
         initialise();
 
-        RelationshipType interactor = RelationshipType.withName("interactor");
-        RelationshipType referenceDatabase = RelationshipType.withName("referenceDatabase");
-        RelationshipType species = RelationshipType.withName("species");
-
-        Map<String, Object> stdRelationshipProp = new HashMap<>();
-        stdRelationshipProp.put(STOICHIOMETRY, 1);
-        stdRelationshipProp.put(ORDER, 1);
-
-        Long graphImporterUserNode = TrackingObjects.createGraphImporterUserNode(batchInserter);
-        intActReferenceDatabaseDbId = TrackingObjects.createIntActReferenceDatabase(dbIds, graphImporterUserNode, batchInserter);
-        Long intActReferenceDatabaseNode = dbIds.get(intActReferenceDatabaseDbId);
-
-        Set<Long> addedInteractions = new HashSet<>();
-        int addedReferenceEntities = 0;
-        Collection<GKInstance> referenceEntities = getTargetReferenceEntities();
-        int i = 0; int total = referenceEntities.size();
-        for (GKInstance referenceEntity : referenceEntities) {
-            ProgressBarUtils.updateProgressBar(++i, total);
-            if(i % QUERIES_OFFSET == 0) cleanInteractorsCache();
-            final Long a = dbIds.get(referenceEntity.getDBID());
-            if (a == null) continue;
-
-            String sourceIdentifier = (String) ReactomeBatchImporter.getObjectFromGkInstance(referenceEntity, "variantIdentifier");
-            if (sourceIdentifier == null) sourceIdentifier = (String) ReactomeBatchImporter.getObjectFromGkInstance(referenceEntity, "identifier");
-            if (sourceIdentifier != null) {
-                String resource = getReferenceDatabaseName(referenceEntity);
-                for (Interaction intactInteraction : getIntActInteraction(resource, sourceIdentifier)) {
-
-                    final String targetIdentifier = intactInteraction.getInteractorB().getAcc().trim().split(" ")[0];
-
-                    final Set<Long> targetEntities = referenceEntityMap.get(targetIdentifier);
-
-                    final List<Long> targetNodes = new ArrayList<>();
-                    if (targetEntities != null && !targetEntities.isEmpty())  {
-                        targetEntities.forEach(t -> {
-                            if (dbIds.containsKey(t)) targetNodes.add(dbIds.get(t));
-                        });
-                    } else {
-                        Interactor ib = intactInteraction.getInteractorB();
-                        Map<String, Object> toReferenceEntity = createReferenceEntityMap(ib);
-                        Long dbId = (Long) toReferenceEntity.get("dbId");
-                        Long refDbNode = (Long) toReferenceEntity.remove("referenceDatabaseNode");
-                        Label[] labels = (Label[]) toReferenceEntity.remove("labels");
-                        Long b = batchInserter.createNode(toReferenceEntity, labels);
-                        TrackingObjects.addCreatedModified(b, graphImporterUserNode, batchInserter);
-                        dbIds.put(dbId, b);
-                        targetNodes.add(b);
-                        referenceEntityMap.computeIfAbsent(targetIdentifier, k -> new HashSet<>()).add(dbId);
-                        ReactomeBatchImporter.saveRelationship(refDbNode, b, referenceDatabase, stdRelationshipProp);
-                        //Adding species relationship when exists
-                        Long speciesDbId = taxonomyHelper.getTaxonomyLineage(ib.getTaxid());
-                        if (speciesDbId != null) {
-                            Long speciesNode = dbIds.get(speciesDbId);
-                            if (speciesNode != null) {
-                                ReactomeBatchImporter.saveRelationship(speciesNode, b, species, stdRelationshipProp);
-                                importLogger.info("species " + speciesDbId + " added to " + dbId);
-                            }
-                        }
-                        addedReferenceEntities++;
-                    }
-
-                    String sourceName = resource + ":" + sourceIdentifier;
-                    String interactionName =  sourceName + " <-> " + targetIdentifier + " (IntAct)";
-                    for (Long b : targetNodes) {
-                        //Check whether the interaction has been added before
-                        if (addedInteractions.contains(intactInteraction.getId())) continue;
-                        addedInteractions.add(intactInteraction.getId());
-
-                        //Add interaction instance (UndirectedInteraction)
-                        Long dbId = ++maxDbId;
-                        Map<String, Object> interaction = createInteractionMap(dbId, interactionName, intactInteraction);
-                        Long interactionNode = batchInserter.createNode(interaction, ReactomeBatchImporter.getLabels(UndirectedInteraction.class));
-                        ReactomeBatchImporter.saveRelationship(intActReferenceDatabaseNode, interactionNode, referenceDatabase, stdRelationshipProp);
-                        TrackingObjects.addCreatedModified(interactionNode, graphImporterUserNode, batchInserter);
-                        dbIds.put(dbId, interactionNode);
-
-                        //Add interaction source (A)
-                        Map<String, Object> properties = new HashMap<>();
-                        properties.put(STOICHIOMETRY, 1);
-                        properties.put(ORDER, 1);
-                        ReactomeBatchImporter.saveRelationship(a, interactionNode, interactor, properties);
-
-                        //Add interaction target (B)
-                        properties.put(ORDER, 2);
-                        ReactomeBatchImporter.saveRelationship(b, interactionNode, interactor, properties);
-                    }
-                }
+        this.graphSink = graphSink;
+        graphImporterUserNode = TrackingObjects.createGraphImporterUserNode(graphSink);
+        intActReferenceDatabaseDbId = TrackingObjects.createIntActReferenceDatabase(dbIds, graphSink);
+        intActReferenceDatabaseNode = dbIds.get(intActReferenceDatabaseDbId);
+        addCreated(intActReferenceDatabaseNode, graphImporterUserNode, graphSink);
+        uniProtReferenceDatabaseNode = dbIds.get(REACTOME_UNIPROT_REFERENCE_DATABASE);
+        chEBIReferenceDatabaseNode = dbIds.get(REACTOME_CHEBI_REFERENCE_DATABASE);
+
+        //The node and the accession of the target ReferenceEntity instances that are in the graph
+        TargetReferenceEntities referenceEntities = getTargetReferenceEntities();
+        long[] sources = new long[referenceEntities.size()];
+        List<String> accessions = new ArrayList<>(referenceEntities.size());
+        for (int i = 0; i < referenceEntities.size(); i++) {
+            long a = dbIds.get(referenceEntities.getDbId(i));
+            if (a == LongLongMap.NOT_FOUND) continue;
+            sources[accessions.size()] = a;
+            accessions.add(referenceEntities.getResource(i) + ":" + referenceEntities.getIdentifier(i));
+        }
+
+        if (threads > 1 && interactorsDatabase != null) {
+            addInteractionsInParallel(sources, accessions);
+        } else {
+            InteractionIndex interactionIndex = getInteractionIndex(accessions);
+            int total = accessions.size();
+            for (int i = 0; i < total; i++) {
+                ProgressBarUtils.updateProgressBar(i + 1, total);
+                addInteractions(sources[i], prepare(accessions.get(i), interactionIndex.getInteractions(accessions.get(i))));
             }
         }
 
@@ -175,107 +206,258 @@ public class InteractionImporter {
         );
     }
 
-    private Map<String, Object> createInteractionMap(Long dbId, String name, Interaction interaction){
-        String interactionURL = "https://www.ebi.ac.uk/intact/pages/interactions/interactions.xhtml?query=";
-        List<String> accession = new ArrayList<>();
-        interaction.getInteractionDetailsList().forEach(details -> accession.add(details.getInteractionAc()));
-        List<String> pubmeds = interaction.getPubmedIdentifiers();
+    /**
+     * The interactions are retrieved and prepared (see prepare) by the lookup workers while the ones of the previous
+     * batches are written here. The batches are written in the same order as in the serial mode and the interactions
+     * already added from the other side are skipped here too, so the dbIds are assigned the same way.
+     */
+    private void addInteractionsInParallel(long[] sources, List<String> accessions) {
+        System.out.print("\rRetrieving the interactions of the target ReferenceEntity instances...");
+        importLogger.info(String.format("Retrieving the interactions of the target ReferenceEntity instances with %d workers", threads));
+        List<List<String>> batches = new ArrayList<>();
+        for (int from = 0; from < accessions.size(); from += QUERIES_OFFSET) {
+            batches.add(accessions.subList(from, Math.min(from + QUERIES_OFFSET, accessions.size())));
+        }
+        String databaseFile = useUserInteractionData ? userInteractionDataFile : INTERACTION_DATA_TMP_FILE;
+        try (InteractionLookupWorkers workers = new InteractionLookupWorkers(databaseFile, threads, this::prepareInteractions)) {
+            Iterator<Map<String, List<InteractionPayload>>> results = workers.lookup(batches);
+            int i = 0; int total = accessions.size();
+            for (List<String> batch : batches) {
+                Map<String, List<InteractionPayload>> interactions = results.next();
+                for (String accession : batch) {
+                    ProgressBarUtils.updateProgressBar(i + 1, total);
+                    addInteractions(sources[i++], interactions.getOrDefault(accession, Collections.emptyList()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Prepares the node properties of the interactions of a target ReferenceEntity (and of the partners that are not
+     * in Reactome) to be written by addInteractions. Only the state that does not change while writing is read here,
+     * so it can run in the lookup workers
+     *
+     * @param sourceName the accession of the target ReferenceEntity (resource:identifier)
+     */
+    private List<InteractionPayload> prepare(String sourceName, List<IntActInteraction> interactions) {
+        List<InteractionPayload> rtn = new ArrayList<>(interactions.size());
+        for (IntActInteraction intactInteraction : interactions) {
+            IntActInteractor ib = intactInteraction.getInteractorB();
+            String targetIdentifier = getIdentifier(ib.getAcc().trim());
+            long[] targetEntities = referenceEntityMap.get(targetIdentifier);
+            if (targetEntities != null && targetEntities.length == 0) targetEntities = null;
+            String interactionName = sourceName + " <-> " + targetIdentifier + " (IntAct)";
+            rtn.add(new InteractionPayload(intactInteraction.getId(), targetIdentifier, targetEntities,
+                    createInteractionMap(interactionName, intactInteraction), targetEntities == null ? getReferenceEntity(ib) : null));
+        }
+        return rtn;
+    }
+
+    /**
+     * Converts (from the side of the queried accession) and prepares the interactions provided by the service
+     */
+    private List<InteractionPayload> prepareInteractions(String sourceName, List<Interaction> interactions) {
+        List<IntActInteraction> converted = new ArrayList<>(interactions.size());
+        for (Interaction interaction : interactions) converted.add(convert(interaction));
+        return prepare(sourceName, converted);
+    }
+
+    /**
+     * Adds the interactions of the target ReferenceEntity, creating the interactors that are not in Reactome
+     *
+     * @param a the node of the target ReferenceEntity
+     */
+    private void addInteractions(long a, List<InteractionPayload> interactions) {
+        for (InteractionPayload payload : interactions) {
+
+            //Only the first target node is used, the interaction is only added once
+            long b = LongLongMap.NOT_FOUND;
+            final long[] targetEntities = payload.getTargetEntities();
+            if (targetEntities != null) {
+                for (int t = 0; t < targetEntities.length && b == LongLongMap.NOT_FOUND; t++) {
+                    b = dbIds.get(targetEntities[t]);
+                }
+            } else {
+                Long created = createdReferenceEntities.get(payload.getTargetIdentifier());
+                b = created != null ? dbIds.get(created) : createReferenceEntityNode(payload.getTargetIdentifier(), payload.getReferenceEntity());
+            }
+            if (b == LongLongMap.NOT_FOUND) continue;
+
+            //Check whether the interaction has been added before
+            if (!addedInteractions.add(payload.getId())) continue;
+
+            //Add interaction instance (UndirectedInteraction)
+            long dbId = ++maxDbId;
+            Map<String, Object> interaction = payload.getInteraction();
+            interaction.put("dbId", dbId);
+            long interactionNode = ReactomeBatchImporter.saveNode(interaction, UNDIRECTED_INTERACTION_LABELS);
+            ReactomeBatchImporter.saveRelationship(intActReferenceDatabaseNode, interactionNode, REFERENCE_DATABASE, STD_RELATIONSHIP_PROP);
+            addCreated(interactionNode, graphImporterUserNode, graphSink);
+            dbIds.put(dbId, interactionNode);
+
+            //Add interaction source (A)
+            ReactomeBatchImporter.saveRelationship(a, interactionNode, INTERACTOR, STD_RELATIONSHIP_PROP);
+
+            //Add interaction target (B)
+            ReactomeBatchImporter.saveRelationship(b, interactionNode, INTERACTOR, TARGET_RELATIONSHIP_PROP);
+        }
+    }
+
+    /**
+     * Creates the node of a ReferenceEntity that is not in Reactome (only present as interactor) together with its
+     * referenceDatabase, created and species relationships
+     *
+     * @return the node of the new ReferenceEntity
+     */
+    private long createReferenceEntityNode(String targetIdentifier, InteractionPayload.ReferenceEntity referenceEntity) {
+        long dbId = ++maxDbId;
+        Map<String, Object> properties = referenceEntity.getProperties();
+        properties.put("dbId", dbId);
+        long b = ReactomeBatchImporter.saveNode(properties, referenceEntity.getLabels());
+        ReactomeBatchImporter.saveRelationship(referenceEntity.getReferenceDatabaseNode(), b, REFERENCE_DATABASE, STD_RELATIONSHIP_PROP);
+        addCreated(b, graphImporterUserNode, graphSink);
+        dbIds.put(dbId, b);
+        createdReferenceEntities.put(targetIdentifier, dbId);
+        //Adding species relationship when exists
+        Long speciesDbId = taxonomyHelper.getTaxonomyLineage(referenceEntity.getTaxId());
+        if (speciesDbId != null) {
+            long speciesNode = dbIds.get(speciesDbId);
+            if (speciesNode != LongLongMap.NOT_FOUND) {
+                ReactomeBatchImporter.saveRelationship(speciesNode, b, SPECIES, STD_RELATIONSHIP_PROP);
+                importLogger.info("species " + speciesDbId + " added to " + dbId);
+            }
+        }
+        addedReferenceEntities++;
+        return b;
+    }
 
-        Map<String, Object> rtn = new HashMap<>();
-        rtn.put("dbId", dbId);
+    /**
+     * @return the properties of the UndirectedInteraction node, but the dbId
+     */
+    private Map<String, Object> createInteractionMap(String name, IntActInteraction interaction){
+        String[] accession = interaction.getAccessions();
+        String[] pubmeds = interaction.getPubmeds();
+
+        StringBuilder url = new StringBuilder(INTACT_INTERACTION_URL.length() + accession.length * 20).append(INTACT_INTERACTION_URL);
+        for (int i = 0; i < accession.length; i++) {
+            if (i > 0) url.append("%20OR%20");
+            url.append(accession[i]);
+        }
+
+        Map<String, Object> rtn = new HashMap<>(16);
         rtn.put("displayName", name);
-        rtn.put("databaseName", "IntAct");
-        rtn.put("score", interaction.getIntactScore());
-        rtn.put("accession", accession.toArray(new String[0]));
-        if (pubmeds != null) rtn.put("pubmed", pubmeds.toArray(new String[0]));
-        rtn.put("url", interactionURL + String.join("%20OR%20", accession));
-        rtn.put("schemaClass", UndirectedInteraction.class.getSimpleName());
+        rtn.put("databaseName", INTACT);
+        rtn.put("score", interaction.getScore());
+        rtn.put("accession", accession);
+        if (pubmeds != null) rtn.put("pubmed", pubmeds);
+        rtn.put("url", url.toString());
+        rtn.put("schemaClass", UNDIRECTED_INTERACTION);
         return rtn;
     }
 
-    private Map<String, Object> createReferenceEntityMap(Interactor interactor){
-        InteractorResource resource = getInteractorResource(interactor);
-        String identifier = interactor.getAcc().split(" ")[0].trim();
-        String rawIdentifier = identifier.contains(":") ? identifier.split(":")[1] : identifier;
+    /**
+     * @return the node (properties but the dbId, labels and reference database) of the ReferenceEntity to be created
+     * for an interactor that is not in Reactome
+     */
+    private InteractionPayload.ReferenceEntity getReferenceEntity(IntActInteractor interactor){
+        String resource = interactor.getResourceName().toLowerCase();
+        String identifier = getIdentifier(interactor.getAcc()).trim();
+        int colon = identifier.indexOf(':');
+        String rawIdentifier = colon >= 0 ? identifier.substring(colon + 1) : identifier;
 
-        Map<String, Object> rtn = new HashMap<>();
-        rtn.put("dbId", ++maxDbId);
+        Map<String, Object> rtn = new HashMap<>(16);
 
-        String gn = interactor.getAliasWithoutSpecies(false);
+        String gn = interactor.getAliasWithoutSpecies();
         if (gn != null && !gn.isEmpty()) {
-            String[] geneName = new String[1];
-            geneName[0] = gn;
-            rtn.put("geneName", geneName);
+            rtn.put("geneName", new String[]{gn});
             rtn.put("displayName", identifier + " " + gn);    //Unified to Reactome name
         } else {
             rtn.put("displayName", identifier);               //Unified to Reactome name
         }
 
-        Class<?> schemaClass;
-        Long refDbId;
-        if (resource.getName().toLowerCase().contains("uniprot")) {
-            refDbId = REACTOME_UNIPROT_REFERENCE_DATABASE;
+        String schemaClass;
+        Label[] labels;
+        long refDbNode;
+        if (resource.contains("uniprot")) {
+            refDbNode = uniProtReferenceDatabaseNode;
             //displayName added below
-            String[] idSplit = rawIdentifier.split("[-#]");
-            rtn.put("identifier", idSplit[0]);  //DO NOT MOVE OUTSIDE
-            rtn.put("databaseName", "UniProt");
+            int separator = indexOfAny(rawIdentifier, '-', '#');
+            rtn.put("identifier", separator >= 0 ? rawIdentifier.substring(0, separator) : rawIdentifier);  //DO NOT MOVE OUTSIDE
+            rtn.put("databaseName", UNIPROT);
 
-            if (rawIdentifier.contains("-")) {
+            if (rawIdentifier.indexOf('-') >= 0) {
                 //for cases like UniProt:O00187#PRO_0000027598 MASP2
-                if(idSplit[1].contains("PRO")){
-                    rtn.put("url", "https://www.uniprot.org/uniprotkb/" + idSplit[0] +"/entry#" + idSplit[1]);
+                String isoform = rawIdentifier.substring(separator + 1);
+                int end = indexOfAny(isoform, '-', '#');
+                if (end >= 0) isoform = isoform.substring(0, end);
+                if(isoform.contains("PRO")){
+                    rtn.put("url", UNIPROT_URL + rawIdentifier.substring(0, separator) + "/entry#" + isoform);
                     rtn.put("stId", "uniprot:" + rawIdentifier.replace("-PRO", "#PRO"));
                 }else{
-                    rtn.put("url", "https://www.uniprot.org/uniprotkb/" + rawIdentifier + "/entry");
+                    rtn.put("url", UNIPROT_URL + rawIdentifier + "/entry");
                     rtn.put("stId", "uniprot:" + rawIdentifier);
                 }
                 rtn.put("variantIdentifier", rawIdentifier);
                 //isofromParent //TODO
-                schemaClass = ReferenceIsoform.class;
+                schemaClass = REFERENCE_ISOFORM;
+                labels = REFERENCE_ISOFORM_LABELS;
             } else {
-                rtn.put("url", "https://www.uniprot.org/uniprotkb/" + rawIdentifier + "/entry");
+                rtn.put("url", UNIPROT_URL + rawIdentifier + "/entry");
                 rtn.put("stId", "uniprot:" + rawIdentifier);
-                schemaClass = ReferenceGeneProduct.class;
+                schemaClass = REFERENCE_GENE_PRODUCT;
+                labels = REFERENCE_GENE_PRODUCT_LABELS;
             }
-        } else if (resource.getName().toLowerCase().contains("chebi")) {
-            refDbId = REACTOME_CHEBI_REFERENCE_DATABASE;
+        } else if (resource.contains("chebi")) {
+            refDbNode = chEBIReferenceDatabaseNode;
             //displayName added below
             rtn.put("identifier", rawIdentifier);  //DO NOT MOVE OUTSIDE
             rtn.put("stId", "chebi:" + rawIdentifier);
             String alias = interactor.getAlias();
             if(alias != null && !alias.isEmpty()) {
-                String[] name = new String[1];
-                name[0] = alias;
-                rtn.put("name", name);
+                rtn.put("name", new String[]{alias});
             }
-            rtn.put("databaseName", resource.getName());
-            rtn.put("url", "https://www.ebi.ac.uk/chebi/searchId.do?chebiId=CHEBI:" + rawIdentifier);
-            schemaClass = ReferenceMolecule.class;
+            rtn.put("databaseName", interactor.getResourceName());
+            rtn.put("url", CHEBI_URL + rawIdentifier);
+            schemaClass = REFERENCE_MOLECULE;
+            labels = REFERENCE_MOLECULE_LABELS;
         } else {
-            resource.setName("IntAct");
-            refDbId = intActReferenceDatabaseDbId;
+            refDbNode = intActReferenceDatabaseNode;
             rtn.put("identifier", rawIdentifier);  //DO NOT MOVE OUTSIDE
-            rtn.put("databaseName", resource.getName());
+            rtn.put("databaseName", INTACT);
             rtn.put("stId", "intact:" + rawIdentifier);
-            rtn.put("url", "https://www.ebi.ac.uk/intact/query/" + rawIdentifier);
-            schemaClass = ReferenceGeneProduct.class;
+            rtn.put("url", INTACT_URL + rawIdentifier);
+            schemaClass = REFERENCE_GENE_PRODUCT;
+            labels = REFERENCE_GENE_PRODUCT_LABELS;
         }
-        if (interactor.getSynonyms() != null && !interactor.getSynonyms().isEmpty()) {
-            rtn.put("secondaryIdentifier", interactor.getSynonyms().split("\\$"));
+        if (interactor.getSynonyms() != null && interactor.getSynonyms().length > 0) {
+            rtn.put("secondaryIdentifier", interactor.getSynonyms());
         }
-        rtn.put("schemaClass", schemaClass.getSimpleName());
+        rtn.put("schemaClass", schemaClass);
+        return new InteractionPayload.ReferenceEntity(rtn, labels, refDbNode, interactor.getTaxId());
+    }
 
-        //These two will removed from the map
-        rtn.put("referenceDatabaseNode", dbIds.get(refDbId));
-        rtn.put("labels", ReactomeBatchImporter.getLabels(schemaClass));
+    /**
+     * @return the accession without the description that might follow it (eg "UniProt:O00187-PRO_0000027598 MASP2")
+     */
+    private static String getIdentifier(String acc) {
+        int space = acc.indexOf(' ');
+        return space >= 0 ? acc.substring(0, space) : acc;
+    }
 
-        return rtn;
+    private static int indexOfAny(String value, char c1, char c2) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == c1 || c == c2) return i;
+        }
+        return -1;
     }
 
     private void initialise() {
         try {
             System.out.print("\n\nCleaning instances cache...");
             importLogger.info("Cleaning instances cache");
+            //The instances kept inflated by the cache are deflated before the adaptor drops its own cache
+            if (instanceCache.isEnabled()) instanceCache.evictAll();
             dba.refresh();
             if (useUserInteractionData) {
                 if (isSQLLite) {
@@ -285,11 +467,9 @@ public class InteractionImporter {
                     importLogger.info("Connected to the provided interaction data");
                     System.out.print("\rConnected to the provided interaction data");
                 } else {
-                    System.out.print("\rConnecting to the provided interaction data...");
-                    importLogger.info("Connecting to the provided interaction data");
-                    interactorsDatabase = IntactParser.getInteractors(INTERACTION_DATA_TMP_FILE, userInteractionDataFile);
-                    importLogger.info("Connected to the provided interaction data");
-                    System.out.print("\rConnected to the provided interaction data");
+                    //The flat file is streamed by getInteractionIndex, no temporary database is needed
+                    importLogger.info("The provided interaction data will be read from " + userInteractionDataFile);
+                    return;
                 }
             } else {
                 System.out.print("\rRetrieving interaction data...");
@@ -300,6 +480,8 @@ public class InteractionImporter {
             }
             interactionService = new InteractionService(interactorsDatabase);
             interactorResourceService = new InteractorResourceService(interactorsDatabase);
+            //The resources table is small, it is loaded once instead of on every miss
+            interactorResourceMap.putAll(interactorResourceService.getAllMappedById());
         } catch (SQLException | IOException e) {
             System.out.println("\rAn error occurred while retrieving the interaction data");
             importLogger.error("An error occurred while retrieving the interaction data", e);
@@ -308,23 +490,9 @@ public class InteractionImporter {
         }
     }
 
-    //It seems like the best way of cleaning the cache is to close the connection and connect again
-    private void cleanInteractorsCache(){
-        try {
-            importLogger.trace("Cleaning interactors cache");
-            interactorsDatabase.getConnection().close();
-            interactorsDatabase = new InteractorsDatabase(useUserInteractionData && isSQLLite ? userInteractionDataFile : INTERACTION_DATA_TMP_FILE);
-            interactionService = new InteractionService(interactorsDatabase);
-            interactorResourceService = new InteractorResourceService(interactorsDatabase);
-            importLogger.trace("Interactors cache cleaned");
-        } catch (SQLException e) {
-            importLogger.error("An error occurred while reconnecting to the interaction database", e);
-        }
-    }
-
     private void finalise() {
         try {
-            interactorsDatabase.getConnection().close();
+            if (interactorsDatabase != null) interactorsDatabase.getConnection().close();
         } catch (SQLException e) {
             importLogger.error(e.getMessage(), e);
         }
@@ -332,103 +500,83 @@ public class InteractionImporter {
     }
 
     /**
-     * Returns a list of ReferenceEntity instances that are target for interaction data and at the same
+     * Returns the ReferenceEntity instances that are target for interaction data and at the same
      * time populates the referenceEntityMap with all the (identifier->[ReferenceEntity instance dbId])
      * contained in the database
      *
-     * @return a list of ReferenceEntity instances that are target for interaction data
+     * @return the ReferenceEntity instances that are target for interaction data
      */
-    private Collection<GKInstance> getTargetReferenceEntities() {
+    private TargetReferenceEntities getTargetReferenceEntities() {
         System.out.print("\rRetrieving interaction data target ReferenceEntity instances...");
         importLogger.info("Retrieving target ReferenceEntity instances");
-        Collection<GKInstance> rtn = new HashSet<>();
+        TargetReferenceEntities rtn = null;
         try {
-            for (Object reAux : dba.fetchInstancesByClass(ReactomeJavaConstants.ReferenceEntity)) {
-                GKInstance re = (GKInstance) reAux;
-                if (re != null) {
-                    String identifier = null;
-                    if (re.getSchemClass().isValidAttribute(ReactomeJavaConstants.variantIdentifier)) {
-                        identifier = (String) re.getAttributeValue(ReactomeJavaConstants.variantIdentifier);
-                    }
-                    if (identifier == null && re.getSchemClass().isValidAttribute(ReactomeJavaConstants.identifier)) {
-                        identifier = (String) re.getAttributeValue(ReactomeJavaConstants.identifier);
-                    }
-
-                    boolean deflateRE = true;
-                    if (identifier != null) {
-                        GKInstance refDB = (GKInstance) re.getAttributeValue(ReactomeJavaConstants.referenceDatabase);
-                        identifier = refDB.getDisplayName() + ":" + identifier;
-
-                        referenceEntityMap.computeIfAbsent(identifier, k -> new HashSet<>()).add(re.getDBID());
-
-                        Collection<?> pes = re.getReferers(ReactomeJavaConstants.referenceEntity);
-                        if (pes != null) {
-                            for (Object peAux : pes) {
-                                GKInstance pe = (GKInstance) peAux;
-                                if (isTarget(pe)) {
-                                    rtn.add(re);
-                                    deflateRE = false;
-                                    break;  //Only one of the referral PhysicalEntities has to be target for re to be added
-                                }
-                            }
-                        }
-                    }
-                    if (deflateRE) re.deflate();
-                }
-            }
+            rtn = new TargetReferenceEntities(dba, referenceIndex, referenceEntityMap);
         } catch (Exception e) {
             importLogger.error("An error occurred while retrieving the target ReferenceEntity instances", e);
         }
+        if (rtn == null) rtn = TargetReferenceEntities.empty();
         System.out.print("\rRetrieving interaction data target ReferenceEntity instances >> Done");
-        importLogger.info("Target ReferenceEntity instances retrieved");
+        importLogger.info(String.format("%,d target ReferenceEntity instances retrieved", rtn.size()));
         return rtn;
     }
 
-    private boolean isTarget(GKInstance pe) {
-        boolean rtn = false;
-        try {
-            rtn = pe.getReferers(ReactomeJavaConstants.input) != null ||
-                  pe.getReferers(ReactomeJavaConstants.output) != null ||
-                  pe.getReferers(ReactomeJavaConstants.physicalEntity) != null ||
-                  pe.getReferers(ReactomeJavaConstants.diseaseEntity) != null ||
-                  pe.getReferers(ReactomeJavaConstants.regulator) != null;
-        } catch (Exception e) {
-            /*nothing here*/
-        } finally {
-            pe.deflate();
+    /**
+     * Adds the 'created' InstanceEdit of a node created by this importer. Every node keeps one 'created'
+     * relationship, but in the RUN mode all of them point to the same InstanceEdit
+     */
+    private void addCreated(Long node, Long graphImporterUserNode, GraphSink graphSink) {
+        if (provenance == Provenance.RUN) {
+            if (runInstanceEdit == null) runInstanceEdit = TrackingObjects.createInstanceEditNode(graphImporterUserNode, graphSink);
+            TrackingObjects.addCreated(node, runInstanceEdit);
+        } else {
+            TrackingObjects.addCreatedModified(node, graphImporterUserNode, graphSink);
         }
-        return rtn;
     }
 
-    private String getReferenceDatabaseName(GKInstance referenceEntity){
-        try {
-            GKInstance refDatabase = (GKInstance) referenceEntity.getAttributeValue(ReactomeJavaConstants.referenceDatabase);
-            return refDatabase.getDisplayName();
-        } catch (Exception e) {
-            return "undefined";
+    /**
+     * Retrieves the interactions of all the target ReferenceEntity instances in one pass
+     */
+    private InteractionIndex getInteractionIndex(List<String> accessions) {
+        System.out.print("\rRetrieving the interactions of the target ReferenceEntity instances...");
+        importLogger.info("Retrieving the interactions of the target ReferenceEntity instances");
+        InteractionIndex rtn = null;
+        if (interactorsDatabase == null && useUserInteractionData && !isSQLLite) {
+            try {
+                rtn = InteractionIndex.fromMiclusterFile(new File(userInteractionDataFile), accessions);
+            } catch (IOException e) {
+                System.out.println("\rAn error occurred while reading the interaction data");
+                importLogger.error("An error occurred while reading the interaction data from " + userInteractionDataFile, e);
+            }
+        } else if (interactionService != null) {
+            rtn = InteractionIndex.fromService(interactionService, accessions, QUERIES_OFFSET, this::convert);
         }
+        if (rtn == null) rtn = InteractionIndex.empty();
+        System.out.print("\rRetrieving the interactions of the target ReferenceEntity instances >> Done");
+        return rtn;
     }
 
-    private List<Interaction> getIntActInteraction(String resource, String identifier){
-        try {
-            String target = resource + ":" + identifier;
-            return interactionService.getInteractions(target, "static");
-        } catch (InvalidInteractionResourceException | SQLException e) {
-            return new ArrayList<>();
-        }
+    private IntActInteraction convert(Interaction interaction) {
+        Interactor interactorB = interaction.getInteractorB();
+        InteractorResource resource = getInteractorResource(interactorB);
+        String synonyms = interactorB.getSynonyms();
+        IntActInteractor partner = new IntActInteractor(
+                interactorB.getAcc(),
+                resource == null ? INTACT : resource.getName(),
+                interactorB.getAlias(),
+                interactorB.getAliasWithoutSpecies(false),
+                interactorB.getTaxid(),
+                synonyms == null || synonyms.isEmpty() ? null : synonyms.split("\\$")
+        );
+        List<String> accessions = new ArrayList<>();
+        interaction.getInteractionDetailsList().forEach(details -> accessions.add(details.getInteractionAc()));
+        List<String> pubmeds = interaction.getPubmedIdentifiers();
+        return new IntActInteraction(interaction.getId(), partner, accessions.toArray(new String[0]),
+                pubmeds == null ? null : pubmeds.toArray(new String[0]), interaction.getIntactScore());
     }
 
     private InteractorResource getInteractorResource(Interactor interactor){
-        InteractorResource ir = interactorResourceMap.get(interactor.getInteractorResourceId());
-        if(ir == null) {
-            try {
-                ir = interactorResourceService.getAllMappedById().get(interactor.getInteractorResourceId());
-                interactorResourceMap.put(interactor.getInteractorResourceId(), ir);
-            } catch (SQLException e) {
-                //Nothing here
-            }
-        }
-        return ir;
+        return interactorResourceMap.get(interactor.getInteractorResourceId());
     }
 
 }
@@ -0,0 +1,319 @@
+package org.reactome.server.graph.interactors;
+
+import org.reactome.server.graph.utils.ProgressBarUtils;
+import org.reactome.server.interactors.exception.InvalidInteractionResourceException;
+import org.reactome.server.interactors.model.Interaction;
+import org.reactome.server.interactors.service.InteractionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The interactions of all the target accessions, retrieved in one pass before the interaction data is added to the
+ * graph, so the rest of the import only does in-memory lookups. They come either from the interaction database,
+ * querying the sorted accessions in batches (one query per batch instead of one per accession), or straight from an
+ * IntAct micluster file (PSI-MITAB), keeping only the rows involving the target accessions.
+ * <p>
+ * Every interaction is kept once per side, as seen from that side (an interaction between two targets is found for
+ * both of them and each one gets the other as partner). The positions of the interactions of each accession are only
+ * grouped in a plain int array once all of them have been found.
+ */
+class InteractionIndex {
+
+    private static final Logger importLogger = LoggerFactory.getLogger("import");
+
+    private static final String RESOURCE = "static";
+    private static final int[] NONE = new int[0];
+
+    private final List<IntActInteraction> interactions = new ArrayList<>();
+    //Accession each interaction was found for (same positions as interactions), only until they are grouped
+    private final List<String> owners = new ArrayList<>();
+    private final Map<String, int[]> byAccession = new HashMap<>();
+
+    private InteractionIndex() {
+    }
+
+    static InteractionIndex empty() {
+        return new InteractionIndex();
+    }
+
+    /**
+     * @param accessions the accessions (resource:identifier) to retrieve the interactions for
+     * @param batchSize  number of accessions per query
+     * @param converter  converts the interactions provided by the service, which are seen from the queried accession
+     *                   (the same interaction is converted again for the other side when it is also a target)
+     */
+    static InteractionIndex fromService(InteractionService interactionService, Collection<String> accessions, int batchSize,
+                                        Function<Interaction, IntActInteraction> converter) {
+        return fromBatches(accessions, batchSize, batch -> getInteractions(interactionService, batch), converter);
+    }
+
+    /**
+     * @param accessions the accessions (resource:identifier) to retrieve the interactions for
+     * @param batchSize  number of accessions per query
+     * @param query      retrieves the interactions of a batch of sorted accessions, grouped by accession
+     * @param converter  converts the interactions retrieved for an accession, which are seen from that accession
+     */
+    static <T> InteractionIndex fromBatches(Collection<String> accessions, int batchSize, Function<List<String>, Map<String, List<T>>> query,
+                                            Function<T, IntActInteraction> converter) {
+        InteractionIndex rtn = new InteractionIndex();
+        List<String> sorted = new ArrayList<>(new TreeSet<>(accessions));
+        for (int from = 0; from < sorted.size(); from += batchSize) {
+            List<String> batch = sorted.subList(from, Math.min(from + batchSize, sorted.size()));
+            ProgressBarUtils.updateProgressBar(from + batch.size(), sorted.size());
+            for (Map.Entry<String, List<T>> entry : query.apply(batch).entrySet()) {
+                if (entry.getValue() == null) continue;
+                for (T interaction : entry.getValue()) rtn.add(entry.getKey(), converter.apply(interaction));
+            }
+        }
+        rtn.group();
+        rtn.log(sorted.size());
+        return rtn;
+    }
+
+    /**
+     * Parses the IntAct micluster file once. Only the rows where any of the interactors is in the given accessions
+     * are kept, everything else is discarded while reading.
+     *
+     * @param file       intact-micluster.txt (it can be gzipped)
+     * @param accessions the accessions (resource:identifier) to retrieve the interactions for
+     */
+    static InteractionIndex fromMiclusterFile(File file, Collection<String> accessions) throws IOException {
+        InteractionIndex rtn = new InteractionIndex();
+        Set<String> targets = new HashSet<>(accessions);
+        InputStream is = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) is = new GZIPInputStream(is, 1 << 16);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), 1 << 16)) {
+            String line;
+            long row = 0;
+            while ((line = reader.readLine()) != null) {
+                row++;
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] columns = line.split("\t", -1);
+                if (columns.length < MitabRow.COLUMNS) continue;
+                String accA = MitabRow.getAcc(columns[0]);
+                String accB = MitabRow.getAcc(columns[1]);
+                boolean isTargetA = accA != null && targets.contains(accA);
+                boolean isTargetB = accB != null && targets.contains(accB);
+                if (!isTargetA && !isTargetB) continue;
+
+                MitabRow mitab = new MitabRow(columns);
+                if (isTargetA) rtn.add(accA, mitab.toInteraction(row, false));
+                if (isTargetB && !accB.equals(accA)) rtn.add(accB, mitab.toInteraction(row, true));
+            }
+        }
+        rtn.group();
+        rtn.log(targets.size());
+        return rtn;
+    }
+
+    /**
+     * @return the interactions of the given accession (resource:identifier) in the order they were found
+     */
+    List<IntActInteraction> getInteractions(String accession) {
+        int[] refs = byAccession.getOrDefault(accession, NONE);
+        List<IntActInteraction> rtn = new ArrayList<>(refs.length);
+        for (int ref : refs) rtn.add(interactions.get(ref));
+        return rtn;
+    }
+
+    int size() {
+        return interactions.size();
+    }
+
+    /**
+     * @param accession the accession the interaction is seen from
+     */
+    private void add(String accession, IntActInteraction interaction) {
+        interactions.add(interaction);
+        owners.add(accession);
+    }
+
+    /**
+     * Groups the positions of the interactions per accession, keeping the order they were found in
+     */
+    private void group() {
+        Map<String, int[]> filled = new HashMap<>();
+        for (String accession : owners) filled.computeIfAbsent(accession, a -> new int[1])[0]++;
+        filled.forEach((accession, count) -> {
+            byAccession.put(accession, new int[count[0]]);
+            count[0] = 0;
+        });
+        for (int i = 0; i < owners.size(); i++) {
+            String accession = owners.get(i);
+            byAccession.get(accession)[filled.get(accession)[0]++] = i;
+        }
+        owners.clear();
+    }
+
+    private void log(int accessions) {
+        importLogger.info(String.format("%,d interactions retrieved for %,d of %,d accessions", interactions.size(), byAccession.size(), accessions));
+    }
+
+    /**
+     * Retrieves the interactions for the whole batch in one query, falling back to one query per accession if that
+     * fails (the accessions causing the problem are the only ones missing then)
+     */
+    static Map<String, List<Interaction>> getInteractions(InteractionService interactionService, List<String> batch) {
+        try {
+            return interactionService.getInteractions(batch, RESOURCE);
+        } catch (InvalidInteractionResourceException | SQLException e) {
+            importLogger.warn("The interactions could not be retrieved in batch, querying them one by one", e);
+        }
+        Map<String, List<Interaction>> rtn = new HashMap<>();
+        for (String accession : batch) {
+            try {
+                rtn.put(accession, interactionService.getInteractions(accession, RESOURCE));
+            } catch (InvalidInteractionResourceException | SQLException e) {
+                //Nothing here, the accession does not have interactions
+            }
+        }
+        return rtn;
+    }
+
+    /**
+     * One row of the micluster file (PSI-MITAB 2.5 columns). The fields are lists separated by '|' with values
+     * like database:value(description)
+     */
+    private static class MitabRow {
+        static final int COLUMNS = 15;
+
+        private final String[] columns;
+
+        MitabRow(String[] columns) {
+            this.columns = columns;
+        }
+
+        /**
+         * @param reversed true to see the interaction from interactor B (so A is the partner)
+         */
+        IntActInteraction toInteraction(long id, boolean reversed) {
+            int partner = reversed ? 0 : 1;
+            IntActInteractor interactor = new IntActInteractor(
+                    getAcc(columns[partner]),
+                    getResourceName(columns[partner]),
+                    getAlias(columns[4 + partner]),
+                    getAliasWithoutSpecies(columns[4 + partner]),
+                    getTaxId(columns[9 + partner]),
+                    getValues(columns[4 + partner], "gene name synonym")
+            );
+            String[] pubmeds = getDatabaseValues(columns[8], "pubmed");
+            String[] accessions = getDatabaseValues(columns[13], "intact");
+            return new IntActInteraction(id, interactor, accessions == null ? new String[0] : accessions, pubmeds, getScore(columns[14]));
+        }
+
+        /**
+         * @return resource:identifier as used in the rest of the import (eg UniProt:P12345 or ChEBI:15422)
+         */
+        static String getAcc(String ids) {
+            String[] id = first(ids);
+            if (id == null) return null;
+            String resource = getResourceName(id[0]);
+            String identifier = id[1];
+            if (resource.equals("ChEBI") && identifier.toUpperCase().startsWith("CHEBI:")) identifier = identifier.substring(6);
+            return resource + ":" + identifier;
+        }
+
+        static String getResourceName(String ids) {
+            String[] id = first(ids);
+            String db = id == null ? ids : id[0];
+            if (db.equalsIgnoreCase("uniprotkb")) return "UniProt";
+            if (db.equalsIgnoreCase("chebi")) return "ChEBI";
+            return "IntAct";
+        }
+
+        static String getAlias(String aliases) {
+            String[] alias = getValues(aliases, "display_long");
+            if (alias == null) alias = getValues(aliases, "gene name");
+            return alias == null ? null : alias[0];
+        }
+
+        static String getAliasWithoutSpecies(String aliases) {
+            String[] geneName = getValues(aliases, "gene name");
+            if (geneName != null) return geneName[0];
+            String alias = getAlias(aliases);
+            if (alias == null) return null;
+            int i = alias.lastIndexOf('_');
+            return i > 0 ? alias.substring(0, i) : alias;
+        }
+
+        static Integer getTaxId(String taxIds) {
+            String[] id = first(taxIds);
+            if (id == null) return null;
+            String value = id[1];
+            int i = value.indexOf('(');
+            try {
+                return Integer.valueOf(i >= 0 ? value.substring(0, i) : value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        static Double getScore(String confidences) {
+            String[] score = getDatabaseValues(confidences, "intact-miscore");
+            if (score == null) return null;
+            try {
+                return Double.valueOf(score[0]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return the values (without database) of the entries with the given description
+         */
+        static String[] getValues(String field, String description) {
+            List<String> rtn = new ArrayList<>();
+            for (String entry : split(field)) {
+                String suffix = "(" + description + ")";
+                if (!entry.endsWith(suffix)) continue;
+                String value = entry.substring(0, entry.length() - suffix.length());
+                int i = value.indexOf(':');
+                rtn.add(unquote(i >= 0 ? value.substring(i + 1) : value));
+            }
+            return rtn.isEmpty() ? null : rtn.toArray(new String[0]);
+        }
+
+        /**
+         * @return the values (without description) of the entries of the given database
+         */
+        static String[] getDatabaseValues(String field, String database) {
+            List<String> rtn = new ArrayList<>();
+            for (String entry : split(field)) {
+                if (!entry.startsWith(database + ":")) continue;
+                String value = entry.substring(database.length() + 1);
+                int i = value.indexOf('(');
+                if (i >= 0) value = value.substring(0, i);
+                rtn.add(unquote(value));
+            }
+            return rtn.isEmpty() ? null : rtn.toArray(new String[0]);
+        }
+
+        /**
+         * @return [database, value] of the first entry (null when empty)
+         */
+        static String[] first(String field) {
+            List<String> entries = split(field);
+            if (entries.isEmpty()) return null;
+            String entry = entries.get(0);
+            int i = entry.indexOf(':');
+            if (i < 0) return null;
+            return new String[]{entry.substring(0, i), unquote(entry.substring(i + 1))};
+        }
+
+        private static List<String> split(String field) {
+            if (field == null || field.isEmpty() || field.equals("-")) return List.of();
+            return Arrays.asList(field.split("\\|"));
+        }
+
+        private static String unquote(String value) {
+            return value.length() > 1 && value.startsWith("\"") && value.endsWith("\"") ? value.substring(1, value.length() - 1) : value;
+        }
+    }
+}
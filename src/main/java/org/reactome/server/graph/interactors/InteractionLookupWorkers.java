@@ -0,0 +1,138 @@
+package org.reactome.server.graph.interactors;
+
+import org.reactome.server.interactors.database.InteractorsDatabase;
+import org.reactome.server.interactors.model.Interaction;
+import org.reactome.server.interactors.service.InteractionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * Retrieves and prepares the interactions of batches of accessions with a pool of workers, so the lookups in the
+ * interaction database and the building of the node properties overlap with the writing of the previous batches.
+ * Every worker has its own query only connection to the SQLite database. The results are handed out in the same order
+ * the batches were given, so the single writer consuming them creates the nodes (and assigns the dbIds) in the same
+ * order as the serial import does.
+ * <p>
+ * Only a few batches per worker are requested ahead of the writer to keep the memory bounded.
+ */
+class InteractionLookupWorkers implements AutoCloseable {
+
+    private static final Logger importLogger = LoggerFactory.getLogger("import");
+
+    private static final int BATCHES_AHEAD_PER_WORKER = 2;
+
+    private final String databaseFile;
+    private final BiFunction<String, List<Interaction>, List<InteractionPayload>> preparer;
+    private final int window;
+    private final ExecutorService executor;
+    private final ThreadLocal<InteractionService> services = new ThreadLocal<>();
+    private final List<InteractorsDatabase> databases = Collections.synchronizedList(new ArrayList<>());
+    private final Deque<Future<Map<String, List<InteractionPayload>>>> pending = new ArrayDeque<>();
+
+    /**
+     * @param databaseFile the interaction database (SQLite) file
+     * @param preparer     prepares the interactions the service provides for an accession, which are seen from that
+     *                     accession (it is called from the workers)
+     */
+    InteractionLookupWorkers(String databaseFile, int threads, BiFunction<String, List<Interaction>, List<InteractionPayload>> preparer) {
+        this.databaseFile = databaseFile;
+        this.preparer = preparer;
+        this.window = threads * BATCHES_AHEAD_PER_WORKER;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "interaction-lookup-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param batches the accessions (resource:identifier) to retrieve the interactions for, in batches
+     * @return the prepared interactions of every batch (accession -> interactions) in the order of the batches
+     */
+    Iterator<Map<String, List<InteractionPayload>>> lookup(List<List<String>> batches) {
+        return new Iterator<>() {
+            private int submitted = 0;
+
+            @Override
+            public boolean hasNext() {
+                return !pending.isEmpty() || submitted < batches.size();
+            }
+
+            @Override
+            public Map<String, List<InteractionPayload>> next() {
+                while (submitted < batches.size() && pending.size() < window) {
+                    List<String> batch = batches.get(submitted++);
+                    pending.add(executor.submit(() -> getInteractions(batch)));
+                }
+                if (pending.isEmpty()) throw new NoSuchElementException();
+                return get(pending.poll());
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) importLogger.warn("The interaction lookup workers did not finish");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (InteractorsDatabase database : databases) {
+            try {
+                database.getConnection().close();
+            } catch (SQLException e) {
+                importLogger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private Map<String, List<InteractionPayload>> getInteractions(List<String> batch) throws SQLException {
+        Map<String, List<InteractionPayload>> rtn = new HashMap<>();
+        //An interaction between two accessions of the batch is found (and prepared) for each of them from its side
+        for (Map.Entry<String, List<Interaction>> entry : InteractionIndex.getInteractions(getService(), batch).entrySet()) {
+            if (entry.getValue() == null) continue;
+            rtn.put(entry.getKey(), preparer.apply(entry.getKey(), entry.getValue()));
+        }
+        return rtn;
+    }
+
+    /**
+     * @return the service of the current worker, connecting it to the database the first time
+     */
+    private InteractionService getService() throws SQLException {
+        InteractionService service = services.get();
+        if (service == null) {
+            InteractorsDatabase database = new InteractorsDatabase(databaseFile);
+            databases.add(database);
+            try (Statement statement = database.getConnection().createStatement()) {
+                statement.execute("PRAGMA query_only = ON");
+            }
+            service = new InteractionService(database);
+            services.set(service);
+        }
+        return service;
+    }
+
+    /**
+     * @return the interactions of the batch (empty if they could not be retrieved, the error is logged)
+     */
+    private static Map<String, List<InteractionPayload>> get(Future<Map<String, List<InteractionPayload>>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            importLogger.error("The interactions of a batch of accessions could not be retrieved", e.getCause());
+        }
+        return Collections.emptyMap();
+    }
+}
@@ -0,0 +1,88 @@
+package org.reactome.server.graph.interactors;
+
+import org.neo4j.graphdb.Label;
+
+import java.util.Map;
+
+/**
+ * Everything needed to write an interaction of a target ReferenceEntity that can be prepared without touching the
+ * graph: the properties of the UndirectedInteraction node and, when the partner is not in Reactome, the ones of
+ * the ReferenceEntity node to be created for it. The dbIds are not part of the properties, they are only assigned
+ * (in order) when the nodes are written.
+ */
+class InteractionPayload {
+
+    private final long id;
+    private final String targetIdentifier;
+    private final long[] targetEntities;
+    private final Map<String, Object> interaction;
+    private final ReferenceEntity referenceEntity;
+
+    /**
+     * @param targetEntities the Reactome ReferenceEntity dbIds of the partner (null when it is not in Reactome)
+     * @param referenceEntity the node to create for the partner when it is not in Reactome (null otherwise)
+     */
+    InteractionPayload(long id, String targetIdentifier, long[] targetEntities, Map<String, Object> interaction, ReferenceEntity referenceEntity) {
+        this.id = id;
+        this.targetIdentifier = targetIdentifier;
+        this.targetEntities = targetEntities;
+        this.interaction = interaction;
+        this.referenceEntity = referenceEntity;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    /**
+     * @return the accession of the partner (resource:identifier)
+     */
+    String getTargetIdentifier() {
+        return targetIdentifier;
+    }
+
+    long[] getTargetEntities() {
+        return targetEntities;
+    }
+
+    Map<String, Object> getInteraction() {
+        return interaction;
+    }
+
+    ReferenceEntity getReferenceEntity() {
+        return referenceEntity;
+    }
+
+    /**
+     * The node of a ReferenceEntity that is not in Reactome (only present as interactor)
+     */
+    static class ReferenceEntity {
+        private final Map<String, Object> properties;
+        private final Label[] labels;
+        private final long referenceDatabaseNode;
+        private final Integer taxId;
+
+        ReferenceEntity(Map<String, Object> properties, Label[] labels, long referenceDatabaseNode, Integer taxId) {
+            this.properties = properties;
+            this.labels = labels;
+            this.referenceDatabaseNode = referenceDatabaseNode;
+            this.taxId = taxId;
+        }
+
+        Map<String, Object> getProperties() {
+            return properties;
+        }
+
+        Label[] getLabels() {
+            return labels;
+        }
+
+        long getReferenceDatabaseNode() {
+            return referenceDatabaseNode;
+        }
+
+        Integer getTaxId() {
+            return taxId;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.reactome.server.graph.interactors;
+
+import org.gk.model.ReactomeJavaConstants;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+import org.reactome.server.graph.batchimport.ReverseReferenceIndex;
+import org.reactome.server.graph.utils.LongSet;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+import java.util.function.LongPredicate;
+
+import static org.reactome.server.graph.interactors.InteractionImporter.TARGET_ATTRIBUTES;
+
+/**
+ * The ReferenceEntities that are target for interaction data (referred by a PhysicalEntity that is itself referred
+ * via any of the TARGET_ATTRIBUTES) together with the accession (referenceDatabase:identifier) of every
+ * ReferenceEntity in the database. Everything is read with a few streamed queries over the attribute tables
+ * instead of fetching and inspecting the ReferenceEntity instances one by one:
+ * <ol>
+ *     <li>the PhysicalEntities referred via the TARGET_ATTRIBUTES (or the ReverseReferenceIndex when available)</li>
+ *     <li>the ReferenceEntities of those PhysicalEntities</li>
+ *     <li>one join over the ReferenceEntity tables for the identifiers and the name of the reference database</li>
+ * </ol>
+ */
+class TargetReferenceEntities {
+
+    private long[] dbIds = new long[1024];
+    private String[] resources = new String[1024];
+    private String[] identifiers = new String[1024];
+    private int size = 0;
+
+    //Only while the rows are read
+    private final LongSet targets = new LongSet();
+    private final List<String> rowAccessions = new ArrayList<>();
+    private long[] rowDbIds = new long[1024];
+
+    private TargetReferenceEntities() {
+    }
+
+    static TargetReferenceEntities empty() {
+        return new TargetReferenceEntities();
+    }
+
+    /**
+     * @param referenceIndex used instead of querying the TARGET_ATTRIBUTES tables when it covers them (it can be null)
+     * @param accessions     populated with accession -> ReferenceEntity dbIds for all the ReferenceEntities
+     */
+    TargetReferenceEntities(MySQLAdaptor dba, ReverseReferenceIndex referenceIndex, Map<String, long[]> accessions) throws Exception {
+        LongPredicate isTargetEntity;
+        if (referenceIndex == null || !Arrays.stream(TARGET_ATTRIBUTES).allMatch(referenceIndex::covers)) {
+            LongSet targetEntities = new LongSet();
+            for (String attribute : TARGET_ATTRIBUTES) {
+                for (String sql : ReverseReferenceIndex.getQueries(dba, attribute)) {
+                    try (Statement statement = ReverseReferenceIndex.createStreamingStatement(dba); ResultSet rs = statement.executeQuery(sql)) {
+                        while (rs.next()) targetEntities.add(rs.getLong(2));
+                    }
+                }
+            }
+            isTargetEntity = targetEntities::contains;
+        } else {
+            isTargetEntity = pe -> isTargetEntity(referenceIndex, pe);
+        }
+
+        for (String sql : ReverseReferenceIndex.getQueries(dba, ReactomeJavaConstants.referenceEntity)) {
+            try (Statement statement = ReverseReferenceIndex.createStreamingStatement(dba); ResultSet rs = statement.executeQuery(sql)) {
+                while (rs.next()) addReferenceEntity(rs.getLong(1), rs.getLong(2), isTargetEntity);
+            }
+        }
+
+        try (Statement statement = ReverseReferenceIndex.createStreamingStatement(dba);
+             ResultSet rs = statement.executeQuery(getAccessionsQuery(dba))) {
+            while (rs.next()) addAccession(rs.getLong(1), rs.getString(2), rs.getString(3));
+        }
+        group(accessions);
+    }
+
+    /**
+     * The ReferenceEntity is a target as soon as one of the PhysicalEntities referring to it is a target entity
+     *
+     * @param pe PhysicalEntity referring to the ReferenceEntity via referenceEntity
+     * @param re the ReferenceEntity
+     */
+    void addReferenceEntity(long pe, long re, LongPredicate isTargetEntity) {
+        if (!targets.contains(re) && isTargetEntity.test(pe)) targets.add(re);
+    }
+
+    /**
+     * Keeps the accession of every ReferenceEntity for the accessions map and the targets in the order they are read
+     *
+     * @param identifier the variantIdentifier if present, the identifier otherwise (the row is skipped when null)
+     * @param resource   the display name of the reference database
+     */
+    void addAccession(long dbId, String identifier, String resource) {
+        if (identifier == null) return;
+        if (rowAccessions.size() == rowDbIds.length) rowDbIds = Arrays.copyOf(rowDbIds, rowDbIds.length * 2);
+        rowDbIds[rowAccessions.size()] = dbId;
+        rowAccessions.add(resource + ":" + identifier);
+        if (targets.contains(dbId)) add(dbId, resource, identifier);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getDbId(int i) {
+        return dbIds[i];
+    }
+
+    /**
+     * @return the display name of the reference database (eg UniProt)
+     */
+    String getResource(int i) {
+        return resources[i];
+    }
+
+    /**
+     * @return the variantIdentifier if present, the identifier otherwise
+     */
+    String getIdentifier(int i) {
+        return identifiers[i];
+    }
+
+    private void add(long dbId, String resource, String identifier) {
+        if (size == dbIds.length) {
+            dbIds = Arrays.copyOf(dbIds, size * 2);
+            resources = Arrays.copyOf(resources, size * 2);
+            identifiers = Arrays.copyOf(identifiers, size * 2);
+        }
+        dbIds[size] = dbId;
+        resources[size] = resource;
+        identifiers[size] = identifier;
+        size++;
+    }
+
+    /**
+     * Adds the dbIds read by addAccession to the accessions map (once all of them have been read) creating the array
+     * of each accession once, after the ones already there
+     */
+    void group(Map<String, long[]> accessions) {
+        Map<String, int[]> filled = new HashMap<>();
+        for (String accession : rowAccessions) filled.computeIfAbsent(accession, a -> new int[1])[0]++;
+        filled.forEach((accession, count) -> {
+            long[] existing = accessions.get(accession);
+            int offset = existing == null ? 0 : existing.length;
+            long[] entities = existing == null ? new long[count[0]] : Arrays.copyOf(existing, offset + count[0]);
+            accessions.put(accession, entities);
+            count[0] = offset;
+        });
+        for (int i = 0; i < rowAccessions.size(); i++) {
+            String accession = rowAccessions.get(i);
+            accessions.get(accession)[filled.get(accession)[0]++] = rowDbIds[i];
+        }
+        rowAccessions.clear();
+        rowDbIds = new long[0];
+        targets.clear();
+    }
+
+    private static boolean isTargetEntity(ReverseReferenceIndex referenceIndex, long pe) {
+        for (String attribute : TARGET_ATTRIBUTES) {
+            if (referenceIndex.hasReferrers(pe, attribute)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Selects (dbId, identifier, reference database name) for every ReferenceEntity. The identifier is the
+     * variantIdentifier when present. Each attribute is read from the tables of the classes defining it
+     */
+    private static String getAccessionsQuery(MySQLAdaptor dba) throws Exception {
+        String root = ReactomeJavaConstants.ReferenceEntity;
+        List<String> joins = new ArrayList<>();
+        String variant = getColumn(dba, root, ReactomeJavaConstants.variantIdentifier, joins);
+        String identifier = getColumn(dba, root, ReactomeJavaConstants.identifier, joins);
+        String referenceDatabase = getColumn(dba, root, ReactomeJavaConstants.referenceDatabase, joins);
+        if (identifier == null || referenceDatabase == null) throw new IllegalStateException(root + " without identifier or referenceDatabase");
+        String id = variant == null ? identifier : "COALESCE(" + variant + ", " + identifier + ")";
+        return "SELECT re.DB_ID, " + id + ", rd._displayName FROM " + root + " re " + String.join(" ", joins) +
+                " JOIN DatabaseObject rd ON rd.DB_ID = " + referenceDatabase;
+    }
+
+    /**
+     * Adds a left join per table defining the (single valued) attribute for any subclass of the root class
+     *
+     * @return the expression to get the value (null if no class defines it)
+     */
+    private static String getColumn(MySQLAdaptor dba, String root, String attribute, List<String> joins) throws Exception {
+        Set<String> origins = new LinkedHashSet<>();
+        for (Object o : dba.fetchSchema().getClasses()) {
+            SchemaClass schemaClass = (SchemaClass) o;
+            if (!schemaClass.isa(root) || !schemaClass.isValidAttribute(attribute)) continue;
+            SchemaAttribute schemaAttribute = schemaClass.getAttribute(attribute);
+            if (schemaAttribute.isMultiple()) throw new IllegalStateException(attribute + " is expected to be single valued");
+            origins.add(schemaAttribute.getOrigin().getName());
+        }
+        if (origins.isEmpty()) return null;
+        List<String> columns = new ArrayList<>();
+        for (String origin : origins) {
+            String alias = attribute + "_" + joins.size();
+            joins.add("LEFT JOIN " + origin + " " + alias + " ON " + alias + ".DB_ID = re.DB_ID");
+            columns.add(alias + "." + attribute);
+        }
+        return columns.size() == 1 ? columns.get(0) : "COALESCE(" + String.join(", ", columns) + ")";
+    }
+}
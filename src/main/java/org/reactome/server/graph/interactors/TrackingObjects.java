@@ -1,11 +1,13 @@
 package org.reactome.server.graph.interactors;
 
-import org.neo4j.batchinsert.BatchInserter;
 import org.neo4j.graphdb.RelationshipType;
 import org.reactome.server.graph.batchimport.ReactomeBatchImporter;
 import org.reactome.server.graph.domain.model.InstanceEdit;
 import org.reactome.server.graph.domain.model.Person;
 import org.reactome.server.graph.domain.model.ReferenceDatabase;
+import org.reactome.server.graph.sink.GraphSink;
+import org.reactome.server.graph.utils.LabelRegistry;
+import org.reactome.server.graph.utils.LongLongMap;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -31,7 +33,7 @@ class TrackingObjects {
         properties.put(ORDER, 1);
     }
 
-    static Long createIntActReferenceDatabase(Map<Long, Long> dbIds, Long graphImporterUserNode, BatchInserter batchInserter) {
+    static Long createIntActReferenceDatabase(LongLongMap dbIds, GraphSink graphSink) {
         Class<?> schemaClass = ReferenceDatabase.class;
         Map<String, Object> intact = new HashMap<>();
         intact.put("dbId", ++maxDbId);
@@ -40,13 +42,12 @@ class TrackingObjects {
         intact.put("schemaClass", schemaClass.getSimpleName());
         intact.put("url", "https://www.ebi.ac.uk/intact");
         intact.put("accessUrl", "https://www.ebi.ac.uk/intact/query/###ID###");
-        Long id = batchInserter.createNode(intact, ReactomeBatchImporter.getLabels(schemaClass));
-        addCreatedModified(id, graphImporterUserNode, batchInserter);
+        Long id = graphSink.createNode(intact, LabelRegistry.getLabels(schemaClass));
         dbIds.put(maxDbId, id);
         return maxDbId;
     }
 
-    static Long createGraphImporterUserNode(BatchInserter batchInserter) {
+    static Long createGraphImporterUserNode(GraphSink graphSink) {
         Class<?> schemaClass = Person.class;
         Map<String, Object> grapUserNode = new HashMap<>();
         grapUserNode.put("dbId", ++maxDbId);
@@ -55,18 +56,25 @@ class TrackingObjects {
         grapUserNode.put("surname", "Script");
         grapUserNode.put("initial", "AF");
         grapUserNode.put("schemaClass", schemaClass.getSimpleName());
-        return batchInserter.createNode(grapUserNode, ReactomeBatchImporter.getLabels(schemaClass));
+        return graphSink.createNode(grapUserNode, LabelRegistry.getLabels(schemaClass));
     }
 
-    static void addCreatedModified(Long node, Long graphImporterUserNode, BatchInserter batchInserter) {
-        Long c = createInstanceEditNode(graphImporterUserNode, batchInserter);
-        ReactomeBatchImporter.saveRelationship(c, node, created, properties);
+    static void addCreatedModified(Long node, Long graphImporterUserNode, GraphSink graphSink) {
+        Long c = createInstanceEditNode(graphImporterUserNode, graphSink);
+        addCreated(node, c);
 
-//        Long m = createInstanceEditNode(graphImporterUserNode, batchInserter);
+//        Long m = createInstanceEditNode(graphImporterUserNode, graphSink);
 //        ReactomeBatchImporter.saveRelationship(m, node, modified, properties);
     }
 
-    private static Long createInstanceEditNode(Long graphImporterUserNode, BatchInserter batchInserter) {
+    /**
+     * Links the node to an existing InstanceEdit (eg the one shared by all the objects created in the run)
+     */
+    static void addCreated(Long node, Long instanceEditNode) {
+        ReactomeBatchImporter.saveRelationship(instanceEditNode, node, created, properties);
+    }
+
+    static Long createInstanceEditNode(Long graphImporterUserNode, GraphSink graphSink) {
         Class<?> schemaClass = InstanceEdit.class;
         String dateTime = formatter.format(new Date());
         Map<String, Object> instanceEdit = new HashMap<>();
@@ -74,7 +82,7 @@ class TrackingObjects {
         instanceEdit.put("displayName", "Interactions Importer, " + dateTime);
         instanceEdit.put("dateTime", dateTime);
         instanceEdit.put("schemaClass", schemaClass.getSimpleName());
-        Long id = batchInserter.createNode(instanceEdit, ReactomeBatchImporter.getLabels(schemaClass));
+        Long id = graphSink.createNode(instanceEdit, LabelRegistry.getLabels(schemaClass));
         ReactomeBatchImporter.saveRelationship(graphImporterUserNode, id, author, properties);
         return id;
     }
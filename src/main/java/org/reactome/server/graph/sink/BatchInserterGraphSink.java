@@ -0,0 +1,144 @@
+package org.reactome.server.graph.sink;
+
+import org.neo4j.batchinsert.BatchInserter;
+import org.neo4j.batchinsert.BatchInserters;
+import org.neo4j.batchinsert.BatchRelationship;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.io.layout.DatabaseLayout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Writes the graph straight to a Neo4j store using the BatchInserter. If the directory already contains a store,
+ * the new content is added to it (node ids continue after the existing ones) and the existing nodes can be rewritten.
+ * <p>
+ * The BatchInserter cannot delete anything, so the deletions are written as a cypher script (see DeletionsScript)
+ * next to the store (graph.db.deletions.cypher for graph.db) to be executed once the database is started.
+ */
+public class BatchInserterGraphSink implements ResumableGraphSink {
+
+    private static final String DBID = "dbId";
+
+    private final File directory;
+    private final DatabaseLayout layout;
+    private BatchInserter batchInserter;
+    private final DeletionsScript deletions = new DeletionsScript();
+
+    public BatchInserterGraphSink(File directory) throws IOException {
+        this.directory = directory.getAbsoluteFile();
+        this.layout = DatabaseLayout.ofFlat(directory.toPath());
+        this.batchInserter = BatchInserters.inserter(layout);
+    }
+
+    @Override
+    public long createNode(Map<String, Object> properties, Label... labels) {
+        return batchInserter.createNode(properties, labels);
+    }
+
+    @Override
+    public void createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+        batchInserter.createRelationship(from, to, type, properties);
+    }
+
+    @Override
+    public void createUniqueConstraint(Label label, String property) {
+        batchInserter.createDeferredConstraint(label).assertPropertyIsUnique(property).create();
+    }
+
+    @Override
+    public void createIndex(Label label, String property) {
+        batchInserter.createDeferredSchemaIndex(label).on(property).create();
+    }
+
+    /**
+     * Replaces the properties and labels of an existing node
+     */
+    public void setNode(long node, Map<String, Object> properties, Label... labels) {
+        batchInserter.setNodeProperties(node, properties);
+        batchInserter.setNodeLabels(node, labels);
+    }
+
+    public Map<String, Object> getNodeProperties(long node) {
+        return batchInserter.getNodeProperties(node);
+    }
+
+    /**
+     * @return the relationships of the node in both directions
+     */
+    public Iterable<BatchRelationship> getRelationships(long node) {
+        return batchInserter.getRelationships(node);
+    }
+
+    public Map<String, Object> getRelationshipProperties(long relationship) {
+        return batchInserter.getRelationshipProperties(relationship);
+    }
+
+    public void setRelationshipProperties(long relationship, Map<String, Object> properties) {
+        batchInserter.setRelationshipProperties(relationship, properties);
+    }
+
+    /**
+     * The node with the given dbId (and its relationships) is deleted by the deletions script
+     */
+    public void deleteNode(long dbId) {
+        deletions.addNode(dbId);
+    }
+
+    /**
+     * The relationship is deleted by the deletions script. Both ends have to be nodes with a dbId and the importer does
+     * not keep more than one relationship of a type between two nodes
+     */
+    public void deleteRelationship(BatchRelationship relationship) {
+        Object start = batchInserter.getNodeProperties(relationship.getStartNode()).get(DBID);
+        Object end = batchInserter.getNodeProperties(relationship.getEndNode()).get(DBID);
+        if (!(start instanceof Number) || !(end instanceof Number)) {
+            throw new IllegalArgumentException("The relationship " + relationship.getId() + " does not connect two nodes with a dbId");
+        }
+        deletions.addRelationship(relationship.getType().name(), ((Number) start).longValue(), ((Number) end).longValue());
+    }
+
+    public File getDeletionsScript() {
+        return getDeletionsScript(directory);
+    }
+
+    /**
+     * @return the deletions script of the given store (it only exists while the deletions are pending)
+     */
+    public static File getDeletionsScript(File store) {
+        File dir = store.getAbsoluteFile();
+        return new File(dir.getParentFile(), dir.getName() + ".deletions.cypher");
+    }
+
+    /**
+     * The BatchInserter only leaves a consistent store after its shutdown, so it is shut down and opened again
+     */
+    @Override
+    public void flush() {
+        batchInserter.shutdown();
+        try {
+            batchInserter = BatchInserters.inserter(layout);
+        } catch (IOException e) {
+            throw new UncheckedIOException("The store could not be opened again after flushing it", e);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        batchInserter.shutdown();
+        File script = getDeletionsScript();
+        try {
+            //A pending script can only belong to a store replaced by a full import (the delta import does not start then)
+            Files.deleteIfExists(script.toPath());
+            if (deletions.isEmpty()) return;
+            Files.write(script.toPath(), deletions.getStatements(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("The deletions script could not be written to " + script, e);
+        }
+    }
+}
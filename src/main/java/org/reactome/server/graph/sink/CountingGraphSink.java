@@ -0,0 +1,71 @@
+package org.reactome.server.graph.sink;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Discards the graph and only counts the nodes, relationships (per type) and properties created. Used to measure the
+ * cost of the conversion apart from the cost of writing the store.
+ */
+public class CountingGraphSink implements GraphSink {
+
+    private static final Logger importLogger = LoggerFactory.getLogger("import");
+
+    private final Map<String, long[]> relationshipsByType = new TreeMap<>();
+    private long nodes = 0;
+    private long relationships = 0;
+    private long properties = 0;
+    private int schema = 0;
+
+    @Override
+    public long createNode(Map<String, Object> properties, Label... labels) {
+        this.properties += properties.size();
+        return nodes++;
+    }
+
+    @Override
+    public void createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+        this.properties += properties.size();
+        relationshipsByType.computeIfAbsent(type.name(), k -> new long[1])[0]++;
+        relationships++;
+    }
+
+    @Override
+    public void createUniqueConstraint(Label label, String property) {
+        schema++;
+    }
+
+    @Override
+    public void createIndex(Label label, String property) {
+        schema++;
+    }
+
+    @Override
+    public void shutdown() {
+        importLogger.info(nodes + " nodes, " + relationships + " relationships, " + properties + " properties and "
+                + schema + " constraints and indexes would have been created");
+        relationshipsByType.forEach((type, count) -> importLogger.info(type + ": " + count[0] + " relationships"));
+    }
+
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    public long getRelationshipCount() {
+        return relationships;
+    }
+
+    public long getRelationshipCount(String type) {
+        long[] count = relationshipsByType.get(type);
+        return count == null ? 0 : count[0];
+    }
+
+    public long getPropertyCount() {
+        return properties;
+    }
+}
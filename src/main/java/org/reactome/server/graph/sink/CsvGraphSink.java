@@ -0,0 +1,327 @@
+package org.reactome.server.graph.sink;
+
+import org.apache.commons.io.FileUtils;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.reactome.server.graph.utils.LabelRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the graph as compressed CSV files for the Neo4j offline importer (neo4j-admin import), which builds the
+ * store using all the available cores. There is one file per label combination (see LabelRegistry) for the nodes and
+ * one per type for the relationships. The header files are written at the end because the columns (and their types)
+ * are discovered while the rows are written: rows written before a column is found simply have less fields.
+ * <p>
+ * The type of a column is the one of its first value. Later values of another type are only accepted when they can be
+ * read as the column type (eg an int in a long column, or any value in a string column), and an int column becomes
+ * a long one when a long value is found. Any other change of type makes the sink fail, because neo4j-admin would
+ * reject (or mis-type) the rows written before.
+ * <p>
+ * Once the files are ready, an arguments file for neo4j-admin import and a cypher script with the constraints and
+ * indexes (not created by the offline importer) are written in the same directory. If neo4j-admin is found (the
+ * provided path, $NEO4J_HOME/bin or the PATH), the import is launched.
+ */
+public class CsvGraphSink implements GraphSink {
+
+    private static final Logger importLogger = LoggerFactory.getLogger("import");
+    private static final Logger errorLogger = LoggerFactory.getLogger("import_error");
+
+    private static final String NEO4J_ADMIN = "neo4j-admin";
+    private static final String ARGS_FILE = "import.args";
+    private static final String CONSTRAINTS_FILE = "constraints.cypher";
+    //Unit separator, it is not expected in the content (neo4j-admin import has no way of escaping it)
+    private static final char ARRAY_DELIMITER = '\u001F';
+
+    private final File directory;
+    private final String database;
+    private final File neo4jAdmin;
+    private final List<CsvFile> nodeFiles = new ArrayList<>(); //by LabelRegistry id
+    private int nodeFileCount = 0;
+    private final Map<String, CsvFile> relationshipFiles = new LinkedHashMap<>();
+    private final List<String> schema = new ArrayList<>();
+    private long nodes = 0;
+
+    /**
+     * @param directory  where the CSV files are written (it is cleaned first)
+     * @param database   name of the database to be created by neo4j-admin import
+     * @param neo4jAdmin path of neo4j-admin (null to look for it in $NEO4J_HOME/bin and then in the PATH)
+     */
+    public CsvGraphSink(File directory, String database, String neo4jAdmin) throws IOException {
+        this.directory = directory;
+        this.database = database;
+        this.neo4jAdmin = findNeo4jAdmin(neo4jAdmin, System.getenv("NEO4J_HOME"), System.getenv("PATH"));
+        if (directory.exists()) {
+            FileUtils.cleanDirectory(directory);
+        } else {
+            FileUtils.forceMkdir(directory);
+        }
+    }
+
+    @Override
+    public long createNode(Map<String, Object> properties, Label... labels) {
+        int labelSet = LabelRegistry.getId(labels);
+        while (nodeFiles.size() <= labelSet) nodeFiles.add(null);
+        CsvFile file = nodeFiles.get(labelSet);
+        if (file == null) {
+            file = new CsvFile("nodes-" + nodeFileCount++, LabelRegistry.getKey(labelSet), ":ID");
+            nodeFiles.set(labelSet, file);
+        }
+        long id = nodes++;
+        file.write(properties, id);
+        return id;
+    }
+
+    @Override
+    public void createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+        CsvFile file = relationshipFiles.computeIfAbsent(type.name(),
+                k -> new CsvFile("relationships-" + relationshipFiles.size(), k, ":START_ID", ":END_ID"));
+        file.write(properties, from, to);
+    }
+
+    @Override
+    public void createUniqueConstraint(Label label, String property) {
+        schema.add(String.format("CREATE CONSTRAINT IF NOT EXISTS ON (n:`%s`) ASSERT n.`%s` IS UNIQUE;", label.name(), property));
+    }
+
+    @Override
+    public void createIndex(Label label, String property) {
+        schema.add(String.format("CREATE INDEX IF NOT EXISTS FOR (n:`%s`) ON (n.`%s`);", label.name(), property));
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            List<String> args = new ArrayList<>();
+            args.add("--database=" + database);
+            args.add("--id-type=INTEGER");
+            args.add("--array-delimiter=U+001F");
+            args.add("--multiline-fields=true");
+            for (CsvFile file : nodeFiles) if (file != null) args.add("--nodes=" + file.close());
+            for (CsvFile file : relationshipFiles.values()) args.add("--relationships=" + file.close());
+            File argsFile = new File(directory, ARGS_FILE);
+            Files.write(argsFile.toPath(), args, StandardCharsets.UTF_8);
+            Files.write(new File(directory, CONSTRAINTS_FILE).toPath(), schema, StandardCharsets.UTF_8);
+            importLogger.info(nodes + " nodes written to " + nodeFileCount + " files and " + relationshipFiles.size()
+                    + " relationship files written in " + directory.getAbsolutePath());
+            runNeo4jAdminImport(argsFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("The CSV files for neo4j-admin import could not be completed", e);
+        }
+    }
+
+    /**
+     * @return the neo4j-admin executable, or null if it cannot be found
+     */
+    static File findNeo4jAdmin(String configured, String neo4jHome, String path) {
+        if (configured != null) {
+            File file = new File(configured);
+            return file.canExecute() ? file : null;
+        }
+        if (neo4jHome != null) {
+            File file = new File(new File(neo4jHome, "bin"), NEO4J_ADMIN);
+            if (file.canExecute()) return file;
+        }
+        if (path != null) {
+            for (String dir : path.split(File.pathSeparator)) {
+                if (dir.isEmpty()) continue;
+                File file = new File(dir, NEO4J_ADMIN);
+                if (file.canExecute()) return file;
+            }
+        }
+        return null;
+    }
+
+    private void runNeo4jAdminImport(File argsFile) {
+        File constraints = new File(directory, CONSTRAINTS_FILE);
+        if (neo4jAdmin == null) {
+            System.out.println("\rThe CSV files are ready. To create the database run: neo4j-admin import @" + argsFile.getAbsolutePath()
+                    + " and then execute " + constraints.getAbsolutePath());
+            return;
+        }
+        try {
+            System.out.print("\rRunning neo4j-admin import...");
+            Process process = new ProcessBuilder(neo4jAdmin.getAbsolutePath(), "import", "@" + argsFile.getAbsolutePath())
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File(directory, "neo4j-admin-import.log"))
+                    .start();
+            int exit = process.waitFor();
+            if (exit == 0) {
+                importLogger.info("neo4j-admin import finished. Constraints and indexes are in " + constraints.getAbsolutePath());
+                System.out.println("\rneo4j-admin import finished. Execute " + constraints.getAbsolutePath() + " once the database is started");
+            } else {
+                errorLogger.error("neo4j-admin import finished with exit code " + exit
+                        + " (see neo4j-admin-import.log in " + directory.getAbsolutePath() + ")");
+                System.err.println("\rneo4j-admin import failed (see neo4j-admin-import.log in " + directory.getAbsolutePath() + ")");
+            }
+        } catch (IOException e) {
+            errorLogger.error("neo4j-admin import could not be launched", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A data file with its header. The first fields of every row are fixed (ids), the rest are the properties
+     * in the order they have been found.
+     */
+    private class CsvFile {
+        private final String name;
+        private final String target;
+        private final String[] fixedColumns;
+        private final Map<String, Integer> index = new HashMap<>();
+        private final List<String> columns = new ArrayList<>();
+        private final List<String> types = new ArrayList<>();
+        private final Writer writer;
+        private Object[] values = new Object[16]; //reused for every row
+
+        CsvFile(String name, String target, String... fixedColumns) {
+            this.name = name;
+            this.target = target;
+            this.fixedColumns = fixedColumns;
+            try {
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(new File(directory, name + ".csv.gz")), 1 << 16);
+                this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+            } catch (IOException e) {
+                throw new UncheckedIOException("The CSV file " + name + " could not be created", e);
+            }
+        }
+
+        void write(Map<String, Object> properties, long... ids) {
+            int size = columns.size() + properties.size();
+            if (values.length < size) values = new Object[Math.max(size, values.length * 2)];
+            try {
+                int fields = 0;
+                for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                    if (entry.getValue() == null) continue;
+                    int i = getColumn(entry.getKey(), entry.getValue());
+                    values[i] = entry.getValue();
+                    fields = Math.max(fields, i + 1);
+                }
+                for (int i = 0; i < ids.length; i++) {
+                    if (i > 0) writer.write(',');
+                    writer.write(Long.toString(ids[i]));
+                }
+                for (int i = 0; i < fields; i++) {
+                    writer.write(',');
+                    if (values[i] != null) writer.write(format(values[i]));
+                }
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException("An error occurred writing to " + name, e);
+            } finally {
+                Arrays.fill(values, 0, size, null);
+            }
+        }
+
+        private int getColumn(String property, Object value) {
+            String type = getType(value);
+            Integer i = index.get(property);
+            if (i == null) {
+                i = columns.size();
+                index.put(property, i);
+                columns.add(property);
+                types.add(type);
+            } else if (!types.get(i).equals(type)) {
+                String column = types.get(i);
+                if (getBaseType(column).equals("int") && getBaseType(type).equals("long") && isArray(column) == isArray(type)) {
+                    types.set(i, type);
+                } else if (!isReadableAs(type, column)) {
+                    throw new IllegalArgumentException("Property '" + property + "' in " + target + " found as " + type
+                            + " after being written as " + column + ". neo4j-admin import cannot read both in one column");
+                }
+            }
+            return i;
+        }
+
+        /**
+         * Closes the data file and writes the header
+         *
+         * @return the neo4j-admin import argument for this file
+         */
+        String close() throws IOException {
+            writer.close();
+            List<String> header = new ArrayList<>(Arrays.asList(fixedColumns));
+            for (int i = 0; i < columns.size(); i++) header.add(columns.get(i) + ":" + types.get(i));
+            File headerFile = new File(directory, name + "-header.csv");
+            Files.writeString(headerFile.toPath(), String.join(",", header) + "\n", StandardCharsets.UTF_8);
+            File dataFile = new File(directory, name + ".csv.gz");
+            return target + "=" + headerFile.getAbsolutePath() + "," + dataFile.getAbsolutePath();
+        }
+    }
+
+    /**
+     * @return true if a value of the given type written as text is read by neo4j-admin as the column type (a single
+     * value is read as an array of one element)
+     */
+    static boolean isReadableAs(String type, String column) {
+        if (isArray(type) && !isArray(column)) return false;
+        String base = getBaseType(type);
+        switch (getBaseType(column)) {
+            case "string":
+                return true;
+            case "long":
+                return base.equals("long") || base.equals("int") || base.equals("short") || base.equals("byte");
+            case "int":
+                return base.equals("int") || base.equals("short") || base.equals("byte");
+            case "double":
+                return !base.equals("string") && !base.equals("boolean");
+            default:
+                return base.equals(getBaseType(column));
+        }
+    }
+
+    private static boolean isArray(String type) {
+        return type.endsWith("[]");
+    }
+
+    private static String getBaseType(String type) {
+        return isArray(type) ? type.substring(0, type.length() - 2) : type;
+    }
+
+    static String getType(Object value) {
+        Class<?> clazz = value.getClass().isArray() ? value.getClass().getComponentType() : value.getClass();
+        String type;
+        if (clazz == Long.class || clazz == long.class) type = "long";
+        else if (clazz == Integer.class || clazz == int.class) type = "int";
+        else if (clazz == Boolean.class || clazz == boolean.class) type = "boolean";
+        else if (clazz == Double.class || clazz == double.class) type = "double";
+        else if (clazz == Float.class || clazz == float.class) type = "float";
+        else if (clazz == Short.class || clazz == short.class) type = "short";
+        else if (clazz == Byte.class || clazz == byte.class) type = "byte";
+        else type = "string";
+        return value.getClass().isArray() ? type + "[]" : type;
+    }
+
+    static String format(Object value) {
+        if (!value.getClass().isArray()) return quote(checkDelimiter(value.toString()));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Array.getLength(value); i++) {
+            if (i > 0) sb.append(ARRAY_DELIMITER);
+            sb.append(checkDelimiter(String.valueOf(Array.get(value, i))));
+        }
+        return quote(sb.toString());
+    }
+
+    /**
+     * A value containing the array delimiter would be split by neo4j-admin (when the column is an array) and there
+     * is no way of escaping it, so it is not written at all
+     */
+    private static String checkDelimiter(String value) {
+        if (value.indexOf(ARRAY_DELIMITER) >= 0) {
+            throw new IllegalArgumentException("The value '" + value + "' contains the array delimiter U+001F");
+        }
+        return value;
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
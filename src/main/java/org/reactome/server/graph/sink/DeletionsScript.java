@@ -0,0 +1,50 @@
+package org.reactome.server.graph.sink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The cypher statements deleting the nodes and relationships that the BatchInserter cannot delete. They are found by
+ * the dbId of the nodes, since the internal ids of the deleted ones are reused by neo4j. The relationships go first
+ * (grouped by type), so the ones between deleted nodes do not have to be matched once the nodes are gone.
+ */
+class DeletionsScript {
+
+    private static final int DELETIONS_PER_STATEMENT = 1000;
+
+    private final List<String> nodes = new ArrayList<>();
+    //Relationship type -> [start dbId, end dbId] of the deleted relationships
+    private final Map<String, List<String>> relationships = new TreeMap<>();
+
+    void addNode(long dbId) {
+        nodes.add(Long.toString(dbId));
+    }
+
+    void addRelationship(String type, long startDbId, long endDbId) {
+        relationships.computeIfAbsent(type, k -> new ArrayList<>()).add("[" + startDbId + "," + endDbId + "]");
+    }
+
+    boolean isEmpty() {
+        return nodes.isEmpty() && relationships.isEmpty();
+    }
+
+    /**
+     * @return the statements, each one deleting at most DELETIONS_PER_STATEMENT nodes or relationships
+     */
+    List<String> getStatements() {
+        List<String> statements = new ArrayList<>();
+        relationships.forEach((type, ends) -> addStatements(statements, "UNWIND [%s] AS ends "
+                + "MATCH (:DatabaseObject {dbId: ends[0]})-[r:`" + type + "`]->(:DatabaseObject {dbId: ends[1]}) DELETE r;", ends));
+        addStatements(statements, "MATCH (n:DatabaseObject) WHERE n.dbId IN [%s] DETACH DELETE n;", nodes);
+        return statements;
+    }
+
+    private static void addStatements(List<String> statements, String template, List<String> values) {
+        for (int i = 0; i < values.size(); i += DELETIONS_PER_STATEMENT) {
+            List<String> batch = values.subList(i, Math.min(values.size(), i + DELETIONS_PER_STATEMENT));
+            statements.add(String.format(template, String.join(",", batch)));
+        }
+    }
+}
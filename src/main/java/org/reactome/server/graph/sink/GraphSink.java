@@ -0,0 +1,39 @@
+package org.reactome.server.graph.sink;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.Map;
+
+/**
+ * Destination of the nodes and relationships created while converting the Reactome relational database. The
+ * converter only relies on this interface, so the same traversal can either write a store with the BatchInserter
+ * or, for instance, produce the files for the Neo4j offline importer.
+ */
+public interface GraphSink {
+
+    enum Type {
+        /** Writes the store with the BatchInserter */
+        NEO4J,
+        /** Writes the files for neo4j-admin import */
+        CSV,
+        /** Only counts what is created (measures the conversion cost alone) */
+        COUNTING
+    }
+
+    /**
+     * @return the id of the new node, to be used when creating relationships to or from it
+     */
+    long createNode(Map<String, Object> properties, Label... labels);
+
+    void createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties);
+
+    void createUniqueConstraint(Label label, String property);
+
+    void createIndex(Label label, String property);
+
+    /**
+     * Flushes everything to the final destination. The sink cannot be used afterwards
+     */
+    void shutdown();
+}
@@ -0,0 +1,147 @@
+package org.reactome.server.graph.sink;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.reactome.server.graph.utils.LabelRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+import static org.reactome.server.graph.batchimport.ReactomeBatchImporter.ORDER;
+import static org.reactome.server.graph.batchimport.ReactomeBatchImporter.STOICHIOMETRY;
+
+/**
+ * Keeps the whole graph in memory so it can be inspected once the conversion finishes, without building a store.
+ * Node ids are the positions in the arrays. Nodes keep the LabelRegistry id of their labels, relationship types are
+ * interned, and relationships are kept column-wise in primitive arrays (source, target, type, stoichiometry and
+ * order), which are the only properties the importer sets on them. Node properties are kept as they are received.
+ */
+public class InMemoryGraphSink implements GraphSink {
+
+    private static final Logger importLogger = LoggerFactory.getLogger("import");
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final List<String> types = new ArrayList<>();
+    private final Map<String, Integer> typeIndex = new HashMap<>();
+    private final List<String> constraints = new ArrayList<>();
+    private final List<String> indexes = new ArrayList<>();
+
+    private int[] nodeLabels = new int[INITIAL_CAPACITY];
+    private Object[] nodeProperties = new Object[INITIAL_CAPACITY];
+    private int nodes = 0;
+
+    private long[] from = new long[INITIAL_CAPACITY];
+    private long[] to = new long[INITIAL_CAPACITY];
+    private int[] type = new int[INITIAL_CAPACITY];
+    private int[] stoichiometry = new int[INITIAL_CAPACITY];
+    private int[] order = new int[INITIAL_CAPACITY];
+    private int relationships = 0;
+
+    @Override
+    public long createNode(Map<String, Object> properties, Label... labels) {
+        if (nodes == nodeLabels.length) {
+            nodeLabels = Arrays.copyOf(nodeLabels, nodes * 2);
+            nodeProperties = Arrays.copyOf(nodeProperties, nodes * 2);
+        }
+        nodeLabels[nodes] = LabelRegistry.getId(labels);
+        nodeProperties[nodes] = properties;
+        return nodes++;
+    }
+
+    @Override
+    public void createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+        if (relationships == this.from.length) grow();
+        this.from[relationships] = from;
+        this.to[relationships] = to;
+        this.type[relationships] = typeIndex.computeIfAbsent(type.name(), k -> {
+            types.add(k);
+            return types.size() - 1;
+        });
+        //The properties map is reused by the callers, so the values are copied
+        stoichiometry[relationships] = getInt(properties, STOICHIOMETRY);
+        order[relationships] = getInt(properties, ORDER);
+        relationships++;
+    }
+
+    @Override
+    public void createUniqueConstraint(Label label, String property) {
+        constraints.add(label.name() + "." + property);
+    }
+
+    @Override
+    public void createIndex(Label label, String property) {
+        indexes.add(label.name() + "." + property);
+    }
+
+    @Override
+    public void shutdown() {
+        importLogger.info(nodes + " nodes (" + LabelRegistry.size() + " label combinations) and " + relationships
+                + " relationships (" + types.size() + " types) kept in memory");
+    }
+
+    public int getNodeCount() {
+        return nodes;
+    }
+
+    public Label[] getLabels(long node) {
+        return LabelRegistry.getLabelSet(nodeLabels[check(node, nodes)]).clone();
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getProperties(long node) {
+        return Collections.unmodifiableMap((Map<String, Object>) nodeProperties[check(node, nodes)]);
+    }
+
+    public int getRelationshipCount() {
+        return relationships;
+    }
+
+    public long getFrom(int relationship) {
+        return from[check(relationship, relationships)];
+    }
+
+    public long getTo(int relationship) {
+        return to[check(relationship, relationships)];
+    }
+
+    public String getType(int relationship) {
+        return types.get(type[check(relationship, relationships)]);
+    }
+
+    public int getStoichiometry(int relationship) {
+        return stoichiometry[check(relationship, relationships)];
+    }
+
+    public int getOrder(int relationship) {
+        return order[check(relationship, relationships)];
+    }
+
+    public List<String> getConstraints() {
+        return Collections.unmodifiableList(constraints);
+    }
+
+    public List<String> getIndexes() {
+        return Collections.unmodifiableList(indexes);
+    }
+
+    private void grow() {
+        int capacity = from.length * 2;
+        from = Arrays.copyOf(from, capacity);
+        to = Arrays.copyOf(to, capacity);
+        type = Arrays.copyOf(type, capacity);
+        stoichiometry = Arrays.copyOf(stoichiometry, capacity);
+        order = Arrays.copyOf(order, capacity);
+    }
+
+    private static int getInt(Map<String, Object> properties, String key) {
+        Object value = properties.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
+    private static int check(long i, int size) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        return (int) i;
+    }
+}
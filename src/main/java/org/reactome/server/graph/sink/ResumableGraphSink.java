@@ -0,0 +1,13 @@
+package org.reactome.server.graph.sink;
+
+/**
+ * A GraphSink whose content can be made durable while the conversion goes on, so checkpoints of it can be taken and
+ * an interrupted import can be resumed from them.
+ */
+public interface ResumableGraphSink extends GraphSink {
+
+    /**
+     * Makes everything created so far durable in the sink destination, which keeps accepting content afterwards
+     */
+    void flush();
+}
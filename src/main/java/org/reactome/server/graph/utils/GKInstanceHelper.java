@@ -5,57 +5,77 @@ import org.gk.model.ReactomeJavaConstants;
 import org.gk.pathwaylayout.DiagramGeneratorFromDB;
 import org.gk.persistence.MySQLAdaptor;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class GKInstanceHelper {
 
+    private static final long[] EMPTY = new long[0];
+
     private final DiagramGeneratorFromDB diagramHelper;
 
     private final Map<Long, GKInstance> hasDiagramCache = new HashMap<>();
 
+    private final Map<Long, long[]> eventClosureCache = new HashMap<>();
+
     public GKInstanceHelper(MySQLAdaptor dba) {
         this.diagramHelper = new DiagramGeneratorFromDB();
         this.diagramHelper.setMySQLAdaptor(dba);
     }
 
-    @SuppressWarnings("ConstantConditions")
+    /**
+     * @return true if processNode is one of the events of the pathway or of any of its sub-pathways not having
+     * a diagram of their own (so they are drawn in the pathway diagram)
+     */
     public boolean pathwayContainsProcessNode(GKInstance pathway, GKInstance processNode) {
+        return Arrays.binarySearch(getEventClosure(pathway), processNode.getDBID()) >= 0;
+    }
+
+    /**
+     * @return the sorted dbIds of the events contained in the pathway, walking down hasEvent through the
+     * sub-pathways that do not have their own diagram. Calculated once per pathway.
+     */
+    private long[] getEventClosure(GKInstance pathway) {
+        long[] closure = eventClosureCache.get(pathway.getDBID());
+        if (closure != null) return closure;
+        //Placeholder to break hasEvent cycles (the pathway being calculated contributes nothing to itself)
+        eventClosureCache.put(pathway.getDBID(), EMPTY);
+        long[] events = EMPTY;
+        int size = 0;
         try {
-            boolean found = false;
             for (Object o : pathway.getAttributeValuesList(ReactomeJavaConstants.hasEvent)) {
                 GKInstance child = (GKInstance) o;
-                found |= child.equals(processNode);
-                if (found) break;
+                boolean withoutDiagram = child.getSchemClass().isa(ReactomeJavaConstants.Pathway) && getHasDiagram(child) == null;
+                long[] sub = withoutDiagram ? getEventClosure(child) : EMPTY;
+                if (size + 1 + sub.length > events.length) events = Arrays.copyOf(events, Math.max(2 * events.length, size + 1 + sub.length));
+                events[size++] = child.getDBID();
+                System.arraycopy(sub, 0, events, size, sub.length);
+                size += sub.length;
             }
-
-            if (!found) {
-                for (Object o : pathway.getAttributeValuesList(ReactomeJavaConstants.hasEvent)) {
-                    GKInstance child = (GKInstance) o;
-                    if (child.getSchemClass().isa(ReactomeJavaConstants.Pathway) && getHasDiagram(child) == null) {
-                        found |= pathwayContainsProcessNode(child, processNode);
-                        if (found) break;
-                    }
-                }
-            }
-            return found;
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return false;
+        Arrays.sort(events, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || events[i] != events[unique - 1]) events[unique++] = events[i];
+        }
+        closure = Arrays.copyOf(events, unique);
+        eventClosureCache.put(pathway.getDBID(), closure);
+        return closure;
     }
 
     public GKInstance getHasDiagram(GKInstance pathway) {
-        GKInstance diagram = hasDiagramCache.get(pathway.getDBID());
-        if (diagram != null) return diagram;
+        if (hasDiagramCache.containsKey(pathway.getDBID())) return hasDiagramCache.get(pathway.getDBID());
+        GKInstance diagram = null;
         try {
             diagram = diagramHelper.getPathwayDiagram(pathway);
-            if (diagram != null) {
-                hasDiagramCache.put(pathway.getDBID(), diagram);
-            }
         } catch (Exception e) {
             e.printStackTrace();
         }
+        //Pathways without diagram are cached as well (null), most of the lookups are for those
+        hasDiagramCache.put(pathway.getDBID(), diagram);
         return diagram;
     }
 }
@@ -0,0 +1,228 @@
+package org.reactome.server.graph.utils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the wall time, CPU time and number of calls of every Phase of the import, together with the number of
+ * instances and a histogram of the time needed to import each of them per schema class, and writes everything as a
+ * JSON report at the end of the run so different runs (or releases) can be compared.
+ * <p>
+ * Phases are measured with a Scope (try-with-resources) on the thread doing the work and they may be nested in other
+ * phases (eg the DIAGRAMS time is part of the EXTRACTION time and the writes done while importing the interactions
+ * are also part of the INTERACTIONS time). A phase must not be nested in itself. Not thread safe (the import is single
+ * threaded), work done in background threads is added with record once it has finished.
+ * <p>
+ * The wall time is measured on every call, but the CPU time is only sampled on one call out of CPU_SAMPLE_INTERVAL
+ * (phases like NODE_WRITES run millions of times and reading the thread CPU time costs more than the write itself).
+ * The CPU time of a phase is extrapolated from the sampled calls, in proportion to their wall time.
+ */
+public class ImportMetrics {
+
+    public enum Phase {
+        /** Reading the instances and the instances they refer to from the relational database */
+        EXTRACTION,
+        /** Turning the attribute values into node properties */
+        CONVERSION,
+        NODE_WRITES,
+        RELATIONSHIP_WRITES,
+        /** Finding the encapsulated events in the pathway diagrams */
+        DIAGRAMS,
+        CHECKSUM,
+        INTERACTIONS,
+        SHUTDOWN
+    }
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private static final int CPU_SAMPLE_INTERVAL = 64;
+
+    private final boolean cpuTime = threadMXBean.isCurrentThreadCpuTimeSupported();
+    private final long[] wall = new long[Phase.values().length];
+    private final long[] cpu = new long[Phase.values().length];
+    private final long[] calls = new long[Phase.values().length];
+    private final long[] sampledWall = new long[Phase.values().length];
+    private final long[] wallStart = new long[Phase.values().length];
+    private final long[] cpuStart = new long[Phase.values().length];
+    private final boolean[] sampling = new boolean[Phase.values().length];
+    private final Scope[] scopes = new Scope[Phase.values().length];
+    private final Map<String, Histogram> instances = new TreeMap<>();
+    private final long start = System.currentTimeMillis();
+
+    /**
+     * Closing the scope ends the measure of the phase
+     */
+    public final class Scope implements AutoCloseable {
+        private final Phase phase;
+
+        private Scope(Phase phase) {
+            this.phase = phase;
+        }
+
+        @Override
+        public void close() {
+            end(phase);
+        }
+    }
+
+    public ImportMetrics() {
+        for (Phase phase : Phase.values()) scopes[phase.ordinal()] = new Scope(phase);
+    }
+
+    /**
+     * Starts measuring the phase, to be used as try (ImportMetrics.Scope ignored = metrics.measure(phase)) {...}
+     */
+    public Scope measure(Phase phase) {
+        int i = phase.ordinal();
+        sampling[i] = cpuTime && calls[i] % CPU_SAMPLE_INTERVAL == 0;
+        if (sampling[i]) cpuStart[i] = threadMXBean.getCurrentThreadCpuTime();
+        wallStart[i] = System.nanoTime();
+        return scopes[i];
+    }
+
+    private void end(Phase phase) {
+        int i = phase.ordinal();
+        long elapsed = System.nanoTime() - wallStart[i];
+        wall[i] += elapsed;
+        if (sampling[i]) {
+            cpu[i] += threadMXBean.getCurrentThreadCpuTime() - cpuStart[i];
+            sampledWall[i] += elapsed;
+        }
+        calls[i]++;
+    }
+
+    /**
+     * Adds the time of a phase measured somewhere else (eg in background threads)
+     *
+     * @param cpuNanos CPU time used by all the threads involved
+     */
+    public synchronized void record(Phase phase, long wallNanos, long cpuNanos) {
+        int i = phase.ordinal();
+        wall[i] += wallNanos;
+        sampledWall[i] += wallNanos;
+        cpu[i] += cpuNanos;
+        calls[i]++;
+    }
+
+    /**
+     * @param nanos time needed to import the instance (creating its node and relationships)
+     */
+    public void recordInstance(String schemaClass, long nanos) {
+        instances.computeIfAbsent(schemaClass, k -> new Histogram()).record(nanos);
+    }
+
+    /**
+     * @return the CPU time used by the current thread (0 when the JVM does not support it)
+     */
+    public long getCurrentThreadCpuTime() {
+        return cpuTime ? threadMXBean.getCurrentThreadCpuTime() : 0L;
+    }
+
+    /**
+     * @param properties added to the report as they are (eg the database name and the options of the run)
+     */
+    public synchronized void writeReport(File file, Map<String, Object> properties) throws IOException {
+        JSONObject report = new JSONObject();
+        properties.forEach(report::put);
+        report.put("start", Instant.ofEpochMilli(start).toString());
+        report.put("wallMs", System.currentTimeMillis() - start);
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            report.put("cpuMs", ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() / 1_000_000);
+        }
+        long gcCount = 0, gcTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcTime += Math.max(0, gc.getCollectionTime());
+        }
+        report.put("gcCount", gcCount);
+        report.put("gcMs", gcTime);
+        report.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+
+        JSONObject phases = new JSONObject();
+        for (Phase phase : Phase.values()) {
+            int i = phase.ordinal();
+            if (calls[i] == 0) continue;
+            JSONObject p = new JSONObject();
+            p.put("wallMs", wall[i] / 1_000_000);
+            p.put("cpuMs", getCpu(i) / 1_000_000);
+            p.put("count", calls[i]);
+            phases.put(phase.name().toLowerCase(), p);
+        }
+        report.put("phases", phases);
+
+        JSONObject classes = new JSONObject();
+        instances.forEach((schemaClass, histogram) -> classes.put(schemaClass, histogram.toJSON()));
+        report.put("schemaClasses", classes);
+
+        Files.write(file.toPath(), report.toString(2).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the CPU time of the phase, extrapolated from the sampled calls
+     */
+    private long getCpu(int i) {
+        if (sampledWall[i] == 0) return 0;
+        return (long) (cpu[i] * ((double) wall[i] / sampledWall[i]));
+    }
+
+    /**
+     * Latency histogram with one bucket per power of two of microseconds, so the percentiles are accurate within a
+     * factor of two (enough to spot regressions and outliers) and recording is just an increment.
+     */
+    static class Histogram {
+        private static final int BUCKETS = 40;
+        private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+        private static final String[] PERCENTILE_NAMES = {"p50Us", "p90Us", "p99Us", "p999Us"};
+
+        private final long[] counts = new long[BUCKETS];
+        private long count = 0;
+        private long total = 0;
+        private long max = 0;
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1_000);
+            counts[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))]++;
+            count++;
+            total += micros;
+            max = Math.max(max, micros);
+        }
+
+        /**
+         * @return upper bound (in microseconds) of the bucket containing the percentile
+         */
+        long getPercentile(double percentile) {
+            long target = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= target && seen > 0) return Math.min(max, (1L << i) - 1);
+            }
+            return max;
+        }
+
+        JSONObject toJSON() {
+            JSONObject rtn = new JSONObject();
+            rtn.put("count", count);
+            rtn.put("totalMs", total / 1_000);
+            rtn.put("meanUs", count == 0 ? 0 : total / count);
+            rtn.put("maxUs", max);
+            for (int i = 0; i < PERCENTILES.length; i++) rtn.put(PERCENTILE_NAMES[i], getPercentile(PERCENTILES[i]));
+            JSONArray buckets = new JSONArray();
+            for (long c : counts) buckets.put(c);
+            rtn.put("log2UsBuckets", buckets);
+            return rtn;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.reactome.server.graph.utils;
+
+import org.gk.model.GKInstance;
+import org.gk.model.ReactomeJavaConstants;
+import org.gk.schema.SchemaClass;
+
+import java.util.*;
+
+/**
+ * Decides when the attribute values of the GKInstances are released (deflated). Instead of deflating every instance
+ * as soon as it has been used, the released instances are kept inflated in a least recently used list with a budget
+ * of entries and only the eldest ones are deflated when the budget is exceeded, so instances used again shortly
+ * after (very common for the shared ones) do not have to be loaded again from the relational database.
+ * <p>
+ * Instances of the RESIDENT_CLASSES (species, compartments, reference databases, instance edits...) are referred by
+ * most of the other instances, they are few and they are never deflated.
+ * <p>
+ * The heap is checked every now and then, if it is running out the cache is shrunk to half of its size.
+ */
+public class InstanceCache {
+
+    //Disabled unless requested, so every instance is deflated as soon as it has been used
+    public static final int DEFAULT_MAX_ENTRIES = 0;
+
+    private static final List<String> RESIDENT_CLASSES = List.of(
+            ReactomeJavaConstants.Species,
+            ReactomeJavaConstants.Compartment,
+            ReactomeJavaConstants.ReferenceDatabase,
+            ReactomeJavaConstants.InstanceEdit,
+            ReactomeJavaConstants.Person,
+            ReactomeJavaConstants.DatabaseIdentifier
+    );
+
+    private static final int HEAP_CHECK_INTERVAL = 1024;
+    private static final double MAX_HEAP_USAGE = 0.85;
+
+    private final int maxEntries;
+    private final LinkedHashMap<Long, GKInstance> instances = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<SchemaClass, Boolean> resident = new HashMap<>();
+    private int releases = 0;
+
+    /**
+     * @param maxEntries maximum number of released instances kept inflated (0 deflates all of them straight away, the
+     *                   ones of the RESIDENT_CLASSES included)
+     */
+    public InstanceCache(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    /**
+     * The caller does not need the attribute values of the instance anymore. It is kept inflated while it fits in
+     * the budget (or forever if it is resident) and deflated otherwise.
+     */
+    public void release(GKInstance instance) {
+        if (instance == null || instance.getDBID() == null) return;
+        if (maxEntries == 0) {
+            instance.deflate();
+            return;
+        }
+        if (isResident(instance)) return;
+        instances.put(instance.getDBID(), instance);
+        if (instances.size() > maxEntries) evict(maxEntries);
+        if (++releases % HEAP_CHECK_INTERVAL == 0 && isHeapRunningOut()) evict(instances.size() / 2);
+    }
+
+    /**
+     * @return true when the released instances are kept inflated within a budget instead of deflated straight away
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Deflates all the cached instances except the resident ones
+     */
+    public void evictAll() {
+        evict(0);
+    }
+
+    public int size() {
+        return instances.size();
+    }
+
+    private void evict(int size) {
+        Iterator<GKInstance> it = instances.values().iterator();
+        while (instances.size() > size && it.hasNext()) {
+            it.next().deflate();
+            it.remove();
+        }
+    }
+
+    private boolean isResident(GKInstance instance) {
+        SchemaClass schemaClass = instance.getSchemClass();
+        if (schemaClass == null) return false;
+        return resident.computeIfAbsent(schemaClass, c -> RESIDENT_CLASSES.stream().anyMatch(c::isa));
+    }
+
+    private static boolean isHeapRunningOut() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return used > runtime.maxMemory() * MAX_HEAP_USAGE;
+    }
+}
@@ -0,0 +1,122 @@
+package org.reactome.server.graph.utils;
+
+import org.neo4j.graphdb.Label;
+import org.reactome.server.graph.domain.model.DatabaseObject;
+
+import java.lang.reflect.AnnotatedType;
+import java.util.*;
+
+/**
+ * Interns every label combination used in the graph and gives it a small integer id. The combinations of a domain
+ * class (eg Pathway, Reaction) are registered the first time the class is requested, together with its TopLevelPathway
+ * and DBInfo variants, so creating a node never allocates a label array and the sinks can use the id (or the key,
+ * the label names joined by ':') to group the nodes by label combination.
+ * <p>
+ * The arrays handed out are shared, so they must not be modified. Not thread safe (the import is single threaded).
+ */
+public final class LabelRegistry {
+
+    public static final Label TOP_LEVEL_PATHWAY = Label.label("TopLevelPathway");
+    public static final Label DB_INFO = Label.label("DBInfo");
+
+    private static final Map<Class<?>, Label[][]> byClass = new HashMap<>();
+    private static final Map<Label[], Integer> byArray = new IdentityHashMap<>();
+    private static final Map<String, Integer> byKey = new HashMap<>();
+    private static final List<Label[]> labelSets = new ArrayList<>();
+    private static final List<String> keys = new ArrayList<>();
+
+    private LabelRegistry() {
+    }
+
+    /**
+     * @return the labels of the nodes for the given domain class: its simple name plus the ones of its super classes
+     * and of the domain interfaces it implements
+     */
+    public static Label[] getLabels(Class<?> clazz) {
+        return getVariants(clazz)[0];
+    }
+
+    public static Label[] getTopLevelPathwayLabels(Class<?> clazz) {
+        return getVariants(clazz)[1];
+    }
+
+    public static Label[] getDbInfoLabels(Class<?> clazz) {
+        return getVariants(clazz)[2];
+    }
+
+    /**
+     * @return the id of the label combination (arrays not obtained from the registry are interned by content)
+     */
+    public static int getId(Label[] labels) {
+        Integer id = byArray.get(labels);
+        return id != null ? id : intern(labels);
+    }
+
+    public static Label[] getLabelSet(int id) {
+        return labelSets.get(id);
+    }
+
+    /**
+     * @return the label names of the combination joined by ':'
+     */
+    public static String getKey(int id) {
+        return keys.get(id);
+    }
+
+    /**
+     * @return number of label combinations registered so far
+     */
+    public static int size() {
+        return labelSets.size();
+    }
+
+    private static Label[][] getVariants(Class<?> clazz) {
+        Label[][] variants = byClass.get(clazz);
+        if (variants == null) {
+            Label[] labels = register(recursiveClassFetcher(clazz, new ArrayList<>()).toArray(new Label[0]));
+            Label[] topLevelPathway = Arrays.copyOf(labels, labels.length + 1);
+            topLevelPathway[labels.length] = TOP_LEVEL_PATHWAY;
+            Label[] dbInfo = new Label[labels.length + 1];
+            dbInfo[0] = DB_INFO;
+            System.arraycopy(labels, 0, dbInfo, 1, labels.length);
+            variants = new Label[][]{labels, register(topLevelPathway), register(dbInfo)};
+            byClass.put(clazz, variants);
+        }
+        return variants;
+    }
+
+    /**
+     * @return the interned array with the same content
+     */
+    private static Label[] register(Label[] labels) {
+        return labelSets.get(intern(labels));
+    }
+
+    private static int intern(Label[] labels) {
+        StringJoiner joiner = new StringJoiner(":");
+        for (Label label : labels) joiner.add(label.name());
+        String key = joiner.toString();
+        Integer id = byKey.get(key);
+        if (id == null) {
+            id = labelSets.size();
+            Label[] copy = labels.clone();
+            labelSets.add(copy);
+            keys.add(key);
+            byKey.put(key, id);
+            byArray.put(copy, id);
+        }
+        return id;
+    }
+
+    private static List<Label> recursiveClassFetcher(Class<?> clazz, List<Label> labels) {
+        if (clazz == Object.class) return labels;
+        labels.add(Label.label(clazz.getSimpleName()));
+        for (AnnotatedType type : clazz.getAnnotatedInterfaces()) {
+            if (!(type.getType() instanceof Class<?>)) continue;
+            Class<?> i = (Class<?>) type.getType();
+            if (i.getPackage().equals(DatabaseObject.class.getPackage())) labels.add(Label.label(i.getSimpleName()));
+        }
+        recursiveClassFetcher(clazz.getSuperclass(), labels);
+        return labels;
+    }
+}
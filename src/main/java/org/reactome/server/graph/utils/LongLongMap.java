@@ -0,0 +1,218 @@
+package org.reactome.server.graph.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Primitive long to long map (open addressing with linear probing) used to keep the mappings that grow with the
+ * number of imported objects, such as the Reactome dbId to neo4j node id one. Keys and values are kept in two
+ * LongBuffer, so every slot takes 16 bytes and, depending on the Storage, the content can live outside of the heap.
+ * <p>
+ * The map is not thread safe.
+ */
+public class LongLongMap {
+
+    public static final long NOT_FOUND = -1L;
+
+    private static final long EMPTY = 0L;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 27; // 8 bytes per slot have to fit in one single ByteBuffer
+    private static final double LOAD_FACTOR = 0.75;
+
+    public enum Storage {
+        /** Backed by long arrays in the heap */
+        HEAP,
+        /** Backed by direct buffers (limited by -XX:MaxDirectMemorySize) */
+        OFFHEAP,
+        /** Backed by memory mapped temporary files, so the operating system can page the content out */
+        MMAP;
+
+        LongBuffer allocate(int capacity) {
+            switch (this) {
+                case OFFHEAP:
+                    return ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+                case MMAP:
+                    try {
+                        File file = File.createTempFile("graph-importer-", ".map");
+                        file.deleteOnExit();
+                        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                            LongBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * Long.BYTES)
+                                    .order(ByteOrder.nativeOrder()).asLongBuffer();
+                            //noinspection ResultOfMethodCallIgnored (the mapping stays valid once the file is deleted)
+                            file.delete();
+                            return buffer;
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("The memory mapped file for the map cannot be created", e);
+                    }
+                default:
+                    return LongBuffer.allocate(capacity);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    private final Storage storage;
+    private LongBuffer keys;
+    private LongBuffer values;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    //EMPTY marks the free slots so the entry for the key 0 (if any) is kept aside
+    private boolean hasEmptyKey = false;
+    private long emptyKeyValue;
+
+    public LongLongMap() {
+        this(Storage.HEAP, MIN_CAPACITY);
+    }
+
+    /**
+     * @param storage          where the content of the map is kept
+     * @param expectedElements number of entries the map will hold without having to be resized
+     */
+    public LongLongMap(Storage storage, int expectedElements) {
+        this.storage = storage;
+        allocate(capacityFor(expectedElements));
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public int size() {
+        return size + (hasEmptyKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == EMPTY) return hasEmptyKey;
+        return keys.get(slot(key)) != EMPTY;
+    }
+
+    /**
+     * @return the value for the given key or NOT_FOUND when the key is not contained in the map
+     */
+    public long get(long key) {
+        if (key == EMPTY) return hasEmptyKey ? emptyKeyValue : NOT_FOUND;
+        int slot = slot(key);
+        return keys.get(slot) == EMPTY ? NOT_FOUND : values.get(slot);
+    }
+
+    public void put(long key, long value) {
+        if (key == EMPTY) {
+            hasEmptyKey = true;
+            emptyKeyValue = value;
+            return;
+        }
+        int slot = slot(key);
+        if (keys.get(slot) == EMPTY) {
+            if (size >= threshold) {
+                resize(keys.capacity() * 2);
+                slot = slot(key);
+            }
+            keys.put(slot, key);
+            size++;
+        }
+        values.put(slot, value);
+    }
+
+    /**
+     * @return true if the key was contained in the map
+     */
+    public boolean remove(long key) {
+        if (key == EMPTY) {
+            boolean had = hasEmptyKey;
+            hasEmptyKey = false;
+            return had;
+        }
+        int slot = slot(key);
+        if (keys.get(slot) == EMPTY) return false;
+        //Backward shift deletion: entries after the removed one are moved back when their probe sequence allows it
+        int free = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            long k = keys.get(i);
+            if (k == EMPTY) break;
+            int ideal = hash(k) & mask;
+            boolean inRange = free <= i ? (free < ideal && ideal <= i) : (free < ideal || ideal <= i);
+            if (!inRange) {
+                keys.put(free, k);
+                values.put(free, values.get(i));
+                free = i;
+            }
+        }
+        keys.put(free, EMPTY);
+        size--;
+        return true;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        if (hasEmptyKey) consumer.accept(EMPTY, emptyKeyValue);
+        for (int i = 0; i < keys.capacity(); i++) {
+            long k = keys.get(i);
+            if (k != EMPTY) consumer.accept(k, values.get(i));
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < keys.capacity(); i++) keys.put(i, EMPTY);
+        size = 0;
+        hasEmptyKey = false;
+    }
+
+    private int slot(long key) {
+        int i = hash(key) & mask;
+        long k;
+        while ((k = keys.get(i)) != EMPTY && k != key) i = (i + 1) & mask;
+        return i;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int capacity) {
+        keys = storage.allocate(capacity);
+        values = storage.allocate(capacity);
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void resize(int capacity) {
+        if (capacity > MAX_CAPACITY) throw new IllegalStateException("The map cannot hold more than " + threshold + " entries");
+        LongBuffer oldKeys = keys;
+        LongBuffer oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.capacity(); i++) {
+            long k = oldKeys.get(i);
+            if (k != EMPTY) {
+                int slot = slot(k);
+                keys.put(slot, k);
+                values.put(slot, oldValues.get(i));
+            }
+        }
+    }
+
+    private static int capacityFor(int expectedElements) {
+        long required = (long) Math.ceil(Math.max(expectedElements, 1) / LOAD_FACTOR);
+        int capacity = MIN_CAPACITY;
+        while (capacity < required && capacity < MAX_CAPACITY) capacity <<= 1;
+        return capacity;
+    }
+}
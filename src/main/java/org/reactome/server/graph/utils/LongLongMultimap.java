@@ -0,0 +1,95 @@
+package org.reactome.server.graph.utils;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Primitive long to many longs map. The values are kept in one single array where every entry points to the previous
+ * value added for the same key, while a LongLongMap keeps the last entry per key, so adding a value takes constant
+ * time and no object is created per key or value.
+ */
+public class LongLongMultimap {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final int NONE = -1;
+    private static final long[] EMPTY_VALUES = new long[0];
+
+    private final LongLongMap last = new LongLongMap();
+    private long[] values = new long[INITIAL_CAPACITY];
+    private int[] previous = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public void put(long key, long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            previous = Arrays.copyOf(previous, size * 2);
+        }
+        long entry = last.get(key);
+        previous[size] = entry == LongLongMap.NOT_FOUND ? NONE : (int) entry;
+        values[size] = value;
+        last.put(key, size++);
+    }
+
+    public boolean containsKey(long key) {
+        return last.containsKey(key);
+    }
+
+    /**
+     * @return the values for the key in the order they were added (empty if there are none)
+     */
+    public long[] get(long key) {
+        int n = count(key);
+        if (n == 0) return EMPTY_VALUES;
+        long[] rtn = new long[n];
+        get(key, rtn);
+        return rtn;
+    }
+
+    /**
+     * Variant of get for the hot paths, filling a buffer owned by the caller instead of creating an array per lookup
+     *
+     * @param buffer receives the values for the key in the order they were added, only when all of them fit in it
+     * @return the number of values for the key (when it is bigger than the buffer length, nothing has been copied)
+     */
+    public int get(long key, long[] buffer) {
+        long entry = last.get(key);
+        if (entry == LongLongMap.NOT_FOUND) return 0;
+        int n = count((int) entry);
+        if (n > buffer.length) return n;
+        int j = n;
+        for (int i = (int) entry; i != NONE; i = previous[i]) buffer[--j] = values[i];
+        return n;
+    }
+
+    /**
+     * @return number of values for the key
+     */
+    public int count(long key) {
+        long entry = last.get(key);
+        return entry == LongLongMap.NOT_FOUND ? 0 : count((int) entry);
+    }
+
+    public void forEach(long key, LongConsumer consumer) {
+        for (long value : get(key)) consumer.accept(value);
+    }
+
+    /**
+     * @return number of keys
+     */
+    public int keys() {
+        return last.size();
+    }
+
+    /**
+     * @return number of values
+     */
+    public int size() {
+        return size;
+    }
+
+    private int count(int entry) {
+        int n = 0;
+        for (int i = entry; i != NONE; i = previous[i]) n++;
+        return n;
+    }
+}
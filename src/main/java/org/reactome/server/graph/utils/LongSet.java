@@ -0,0 +1,54 @@
+package org.reactome.server.graph.utils;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Primitive long set backed by a LongLongMap, so it shares its Storage options
+ */
+public class LongSet {
+
+    private static final long PRESENT = 1L;
+
+    private final LongLongMap map;
+
+    public LongSet() {
+        this.map = new LongLongMap();
+    }
+
+    public LongSet(LongLongMap.Storage storage, int expectedElements) {
+        this.map = new LongLongMap(storage, expectedElements);
+    }
+
+    /**
+     * @return true if the value was not already contained in the set
+     */
+    public boolean add(long value) {
+        if (map.containsKey(value)) return false;
+        map.put(value, PRESENT);
+        return true;
+    }
+
+    public boolean contains(long value) {
+        return map.containsKey(value);
+    }
+
+    public boolean remove(long value) {
+        return map.remove(value);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public void forEach(LongConsumer consumer) {
+        map.forEach((k, v) -> consumer.accept(k));
+    }
+
+    public void clear() {
+        map.clear();
+    }
+}
@@ -0,0 +1,33 @@
+package org.reactome.server.graph.utils;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Opens plain JDBC connections to the Reactome relational database. The MySQLAdaptor wraps one single connection,
+ * so these are used by the tasks that read from the database concurrently to the import.
+ */
+public class MySQLConnectionFactory {
+
+    private final String url;
+    private final Properties properties;
+
+    public MySQLConnectionFactory(String host, Integer port, String name, String user, String password) {
+        this.url = "jdbc:mysql://" + host + ":" + port + "/" + name;
+        this.properties = new Properties();
+        properties.setProperty("user", user);
+        properties.setProperty("password", password);
+        properties.setProperty("useSSL", "false");
+        properties.setProperty("zeroDateTimeBehavior", "convertToNull");
+        properties.setProperty("useUnicode", "true");
+        properties.setProperty("characterEncoding", "UTF-8");
+    }
+
+    public Connection getConnection() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, properties);
+        connection.setReadOnly(true);
+        return connection;
+    }
+}
@@ -0,0 +1,127 @@
+package org.reactome.server.graph.utils;
+
+import org.gk.model.GKInstance;
+import org.gk.model.ReactomeJavaConstants;
+import org.gk.pathwaylayout.PathwayDiagramXMLGenerator;
+import org.gk.persistence.MySQLAdaptor;
+
+import java.util.*;
+
+/**
+ * Retrieves the events drawn as ProcessNode (the green boxes pointing to other diagrams) in a PathwayDiagram.
+ * The reactomeId of every ProcessNode is read straight from the stored diagram XML (storedATXML) so the full
+ * diagram XML does not need to be generated. The generator reads that same storedATXML into the renderable objects
+ * and writes them back, so the ProcessNode reactomeIds are the ones found here. Only the diagrams without stored
+ * XML fall back to the generator.
+ * <p>
+ * The stored XML results are cached per diagram, so pathways sharing a diagram only pay for it once. The generated
+ * ones depend on the pathway as well, so they are cached per diagram and pathway.
+ */
+public class ProcessNodeExtractor {
+
+    private static final String PROCESS_NODE = "<org.gk.render.ProcessNode";
+    private static final String REACTOME_ID = "reactomeId";
+
+    private final MySQLAdaptor dba;
+
+    private final Map<Long, List<GKInstance>> cache = new HashMap<>();
+    private final Map<List<Long>, List<GKInstance>> generated = new HashMap<>();
+
+    public ProcessNodeExtractor(MySQLAdaptor dba) {
+        this.dba = dba;
+    }
+
+    /**
+     * @param diagram PathwayDiagram instance
+     * @param pathway one of the pathways represented by the diagram (only used when the XML has to be generated)
+     * @return the events represented as ProcessNode in the diagram (never null)
+     */
+    public List<GKInstance> getProcessNodes(GKInstance diagram, GKInstance pathway) throws Exception {
+        List<GKInstance> processNodes = cache.get(diagram.getDBID());
+        if (processNodes != null) return processNodes;
+
+        String xml = null;
+        if (diagram.getSchemClass().isValidAttribute(ReactomeJavaConstants.storedATXML)) {
+            xml = (String) diagram.getAttributeValue(ReactomeJavaConstants.storedATXML);
+        }
+        if (xml != null && !xml.isEmpty()) {
+            processNodes = fetchEvents(getReactomeIds(xml));
+            cache.put(diagram.getDBID(), processNodes);
+            return processNodes;
+        }
+
+        List<Long> key = Arrays.asList(diagram.getDBID(), pathway.getDBID());
+        processNodes = generated.get(key);
+        if (processNodes == null) {
+            xml = new PathwayDiagramXMLGenerator().generateXMLForPathwayDiagram(diagram, pathway);
+            processNodes = fetchEvents(getReactomeIds(xml));
+            generated.put(key, processNodes);
+        }
+        return processNodes;
+    }
+
+    /**
+     * Scans the XML for the ProcessNode elements and returns their reactomeId in order of appearance, wherever the
+     * attribute is placed in the element
+     */
+    static Set<Long> getReactomeIds(String xml) {
+        Set<Long> rtn = new LinkedHashSet<>();
+        if (xml == null) return rtn;
+        int from = xml.indexOf(PROCESS_NODE);
+        while (from >= 0) {
+            int i = from + PROCESS_NODE.length();
+            //Only an element named exactly ProcessNode (not a longer name starting the same way)
+            if (i < xml.length() && (Character.isWhitespace(xml.charAt(i)) || xml.charAt(i) == '>' || xml.charAt(i) == '/')) {
+                Long reactomeId = null;
+                while (i < xml.length() && xml.charAt(i) != '>') {
+                    char c = xml.charAt(i);
+                    if (Character.isWhitespace(c) || c == '/') {
+                        i++;
+                        continue;
+                    }
+                    int eq = xml.indexOf('=', i);
+                    if (eq < 0) break;
+                    String name = xml.substring(i, eq).trim();
+                    int open = eq + 1;
+                    while (open < xml.length() && Character.isWhitespace(xml.charAt(open))) open++;
+                    if (open >= xml.length()) break;
+                    char quote = xml.charAt(open);
+                    int close = xml.indexOf(quote, open + 1);
+                    if (close < 0 || (quote != '"' && quote != '\'')) break;
+                    if (name.equals(REACTOME_ID)) {
+                        try {
+                            reactomeId = Long.valueOf(xml.substring(open + 1, close).trim());
+                        } catch (NumberFormatException e) {
+                            //Nothing here, ProcessNodes without a valid reactomeId are not linked to any event
+                        }
+                    }
+                    i = close + 1;
+                }
+                if (reactomeId != null) rtn.add(reactomeId);
+            }
+            from = xml.indexOf(PROCESS_NODE, i);
+        }
+        return rtn;
+    }
+
+    /**
+     * Fetches all the targets in a single query keeping the order of the given identifiers
+     */
+    private List<GKInstance> fetchEvents(Set<Long> dbIds) throws Exception {
+        if (dbIds.isEmpty()) return Collections.emptyList();
+        Map<Long, GKInstance> events = new HashMap<>();
+        Collection<?> instances = dba.fetchInstanceByAttribute(ReactomeJavaConstants.DatabaseObject, ReactomeJavaConstants.DB_ID, "=", dbIds);
+        if (instances != null) {
+            for (Object o : instances) {
+                GKInstance instance = (GKInstance) o;
+                events.put(instance.getDBID(), instance);
+            }
+        }
+        List<GKInstance> rtn = new ArrayList<>(dbIds.size());
+        for (Long dbId : dbIds) {
+            GKInstance event = events.get(dbId);
+            if (event != null) rtn.add(event);
+        }
+        return Collections.unmodifiableList(rtn);
+    }
+}
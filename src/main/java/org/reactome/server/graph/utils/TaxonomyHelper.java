@@ -6,78 +6,167 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 public class TaxonomyHelper {
 
     private static final Logger logger = LoggerFactory.getLogger("importLogger");
 
+    private static final int ROOT = 1;
+    private static final String ENSEMBL_TAXONOMY_URL = "http://rest.ensembl.org/taxonomy/id/";
+
     private final Map<Integer, Long> taxonomyMap;
+    private final String ensemblUrl;
+
+    //Taxonomy ids known not to lead to any species in the taxonomyMap
+    private final Set<Integer> misses = new HashSet<>();
+
+    //parents[taxId] is the parent taxId as found in the NCBI taxonomy dump (null when resolving through Ensembl)
+    private final int[] parents;
 
     public TaxonomyHelper(Map<Integer, Long> taxonomyMap) {
+        this(taxonomyMap, ENSEMBL_TAXONOMY_URL);
+    }
+
+    /**
+     * @param ensemblUrl the taxonomy endpoint of the Ensembl REST API, followed by the taxonomy id
+     */
+    TaxonomyHelper(Map<Integer, Long> taxonomyMap, String ensemblUrl) {
+        this.taxonomyMap = taxonomyMap;
+        this.ensemblUrl = ensemblUrl;
+        this.parents = null;
+    }
+
+    /**
+     * @param nodesDump nodes.dmp file from the NCBI taxonomy dump (taxdump), it can be gzipped. The lineages are
+     *                  resolved offline with it instead of querying the Ensembl REST API.
+     */
+    public TaxonomyHelper(Map<Integer, Long> taxonomyMap, File nodesDump) throws IOException {
         this.taxonomyMap = taxonomyMap;
+        this.ensemblUrl = null;
+        this.parents = loadParents(nodesDump);
     }
 
     /**
-     * Query Ensembl REST API in order to get the taxonomy lineage
-     * and then get the parent.
+     * Gets the species in Reactome for the taxonomy id. When the NCBI taxonomy dump is available, the lineage is
+     * walked up in memory to the nearest species in the map, otherwise the Ensembl REST API is queried to get
+     * the parent.
      * <p>
-     * Once we found the species we add it to the global map, it will
-     * reduce the amount of queries to an external resource.
+     * Once we found the species we add it to the global map, and the taxonomy ids without species are also kept,
+     * so every taxonomy id is only resolved once. The ids that could not be resolved because Ensembl failed (or kept
+     * asking to slow down) are not kept as misses, so they are asked again the next time.
      *
      * @return the species
      */
     public Long getTaxonomyLineage(Integer taxId) {
-        if (taxId == 1 || taxId == 0 || taxId == -1) return null;
+        if (taxId == null || taxId == ROOT || taxId == 0 || taxId == -1) return null;
 
         Long speciesId = this.taxonomyMap.get(taxId);
         if (speciesId != null) return speciesId;
+        if (misses.contains(taxId)) return null;
 
+        Long species;
         try {
-            String urlString = "http://rest.ensembl.org/taxonomy/id/" + taxId;
-            URL url = new URL(urlString);
-
-            URLConnection connection = url.openConnection();
-            HttpURLConnection httpConnection = (HttpURLConnection) connection;
-            httpConnection.setRequestProperty("Content-Type", "application/json");
-
-            InputStream response = httpConnection.getInputStream();
-            int responseCode = httpConnection.getResponseCode();
-
-            if (responseCode != 200) {
-                if (responseCode == 429 && httpConnection.getHeaderField("Retry-After") != null) {
-                    double sleepFloatingPoint = Double.parseDouble(httpConnection.getHeaderField("Retry-After"));
-                    double sleepMillis = 1000 * sleepFloatingPoint;
-                    try {
-                        Thread.sleep((long) sleepMillis);
-                    } catch (InterruptedException e) {
-                        logger.error(e.getMessage(), e);
-                    }
-                    return getTaxonomyLineage(taxId);
+            species = parents != null ? getFromDump(taxId) : getFromEnsembl(taxId);
+        } catch (IOException e) {
+            logger.warn("The species of the taxonomy id " + taxId + " could not be retrieved: " + e.getMessage());
+            return null;
+        }
+        if (species != null) {
+            taxonomyMap.put(taxId, species);
+        } else {
+            misses.add(taxId);
+        }
+        return species;
+    }
+
+    private Long getFromDump(int taxId) {
+        int current = taxId;
+        //The depth of the NCBI taxonomy is below 100, the limit only protects from a corrupted dump
+        for (int depth = 0; depth < 256 && current > ROOT && current < parents.length; depth++) {
+            current = parents[current];
+            Long species = taxonomyMap.get(current);
+            if (species != null) return species;
+            if (misses.contains(current)) return null;
+        }
+        return null;
+    }
+
+    /**
+     * @return the species of the parent, or null when the parent is not a species in the map or the taxonomy id is
+     * not known by Ensembl
+     * @throws IOException when Ensembl could not answer, so the taxonomy id might be resolved later
+     */
+    private Long getFromEnsembl(Integer taxId) throws IOException {
+        URL url = new URL(ensemblUrl + taxId);
+
+        URLConnection connection = url.openConnection();
+        HttpURLConnection httpConnection = (HttpURLConnection) connection;
+        httpConnection.setRequestProperty("Content-Type", "application/json");
+
+        int responseCode = httpConnection.getResponseCode();
+        if (responseCode == 400 || responseCode == 404) return null;
+        if (responseCode != 200) {
+            if (responseCode == 429 && httpConnection.getHeaderField("Retry-After") != null) {
+                double sleepFloatingPoint = Double.parseDouble(httpConnection.getHeaderField("Retry-After"));
+                double sleepMillis = 1000 * sleepFloatingPoint;
+                try {
+                    Thread.sleep((long) sleepMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to query Ensembl again");
                 }
-                throw new RuntimeException("Response code was not 200. Detected response was " + responseCode);
+                return getFromEnsembl(taxId);
             }
+            throw new IOException("Response code was not 200. Detected response was " + responseCode);
+        }
 
+        try (InputStream response = httpConnection.getInputStream()) {
             String StringFromInputStream = IOUtils.toString(response, StandardCharsets.UTF_8);
             JSONObject jsonObject = new JSONObject(StringFromInputStream);
 
-            int parentTaxId = jsonObject.getJSONObject("parent").getInt("id");
-            response.close();
+            //The root of the taxonomy has no parent
+            JSONObject parent = jsonObject.optJSONObject("parent");
+            return parent == null ? null : taxonomyMap.get(parent.getInt("id"));
+        } catch (JSONException e) {
+            throw new IOException("Unexpected response from Ensembl for the taxonomy id " + taxId, e);
+        }
+    }
 
-            if (taxonomyMap.containsKey(parentTaxId)) {
-                Long species = taxonomyMap.get(parentTaxId);
-                taxonomyMap.put(taxId, species);
-                return species;
+    /**
+     * Reads the "tax_id | parent tax_id | ..." lines of nodes.dmp into an array indexed by tax_id
+     */
+    private static int[] loadParents(File nodesDump) throws IOException {
+        int[] parents = new int[1 << 22];
+        int max = 0;
+        InputStream is = new FileInputStream(nodesDump);
+        if (nodesDump.getName().endsWith(".gz")) is = new GZIPInputStream(is, 1 << 16);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.US_ASCII), 1 << 16)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int first = line.indexOf('|');
+                if (first < 0) continue;
+                int second = line.indexOf('|', first + 1);
+                if (second < 0) continue;
+                int taxId = Integer.parseInt(line.substring(0, first).trim());
+                int parent = Integer.parseInt(line.substring(first + 1, second).trim());
+                if (taxId >= parents.length) parents = Arrays.copyOf(parents, Math.max(taxId + 1, parents.length * 2));
+                parents[taxId] = parent;
+                max = Math.max(max, taxId);
             }
-        } catch (IOException | JSONException e) {
-            return null;
+        } catch (NumberFormatException e) {
+            throw new IOException(nodesDump + " is not a valid NCBI taxonomy nodes.dmp file", e);
         }
-        return null;
+        logger.info(String.format("NCBI taxonomy loaded from %s (max tax_id %,d)", nodesDump, max));
+        return Arrays.copyOf(parents, max + 1);
     }
 }
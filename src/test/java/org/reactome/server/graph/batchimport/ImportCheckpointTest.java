@@ -0,0 +1,71 @@
+package org.reactome.server.graph.batchimport;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reactome.server.graph.utils.LongLongMap;
+import org.reactome.server.graph.utils.LongSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportCheckpointTest {
+
+    @TempDir
+    File tmp;
+
+    @Test
+    void roundTrip() throws IOException {
+        File store = new File(tmp, "graph.db");
+        File content = new File(store, "neostore");
+        Files.createDirectories(store.toPath());
+        Files.write(content.toPath(), "saved".getBytes(StandardCharsets.UTF_8));
+
+        LongLongMap dbIds = new LongLongMap();
+        LongSet done = new LongSet();
+        Map<Integer, Long> taxIds = new HashMap<>();
+        for (long dbId = 0; dbId < 10_000; dbId++) {
+            dbIds.put(dbId, dbId * 2);
+            if (dbId % 3 == 0) done.add(dbId);
+        }
+        taxIds.put(9606, 48887L);
+
+        ImportCheckpoint checkpoint = new ImportCheckpoint(store);
+        assertFalse(checkpoint.exists());
+        checkpoint.save(out -> {
+            ImportCheckpoint.write(out, dbIds);
+            ImportCheckpoint.write(out, done);
+            ImportCheckpoint.write(out, taxIds);
+        });
+        assertTrue(checkpoint.exists());
+
+        //The store moves on after the checkpoint was taken
+        Files.write(content.toPath(), "changed".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(store, "extra").toPath(), new byte[]{1});
+
+        LongLongMap restoredDbIds = new LongLongMap();
+        LongSet restoredDone = new LongSet();
+        Map<Integer, Long> restoredTaxIds = new HashMap<>();
+        new ImportCheckpoint(store).restore(in -> {
+            ImportCheckpoint.read(in, restoredDbIds);
+            ImportCheckpoint.read(in, restoredDone);
+            ImportCheckpoint.readInts(in, restoredTaxIds);
+        });
+
+        assertEquals("saved", new String(Files.readAllBytes(content.toPath()), StandardCharsets.UTF_8));
+        assertFalse(new File(store, "extra").exists());
+        assertEquals(dbIds.size(), restoredDbIds.size());
+        dbIds.forEach((dbId, node) -> assertEquals(node, restoredDbIds.get(dbId)));
+        assertEquals(done.size(), restoredDone.size());
+        done.forEach(dbId -> assertTrue(restoredDone.contains(dbId)));
+        assertEquals(taxIds, restoredTaxIds);
+
+        checkpoint.delete();
+        assertFalse(checkpoint.exists());
+    }
+}
@@ -0,0 +1,47 @@
+package org.reactome.server.graph.batchimport;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reactome.server.graph.utils.LongLongMap;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeIdMapFileTest {
+
+    @TempDir
+    File tmp;
+
+    @Test
+    void roundTrip() throws IOException {
+        File store = new File(tmp, "graph.db");
+        LongLongMap dbIds = new LongLongMap();
+        for (long dbId = 0; dbId < 50_000; dbId++) dbIds.put(dbId, dbId + 1_000_000);
+
+        NodeIdMapFile file = new NodeIdMapFile(store);
+        assertFalse(file.exists());
+        file.save(9_999, 12_345, true, "reactome|123|abc", dbIds);
+        assertTrue(file.exists());
+        assertEquals(new File(tmp, "graph.db.ids"), file.getFile());
+
+        NodeIdMapFile header = new NodeIdMapFile(store);
+        header.loadHeader();
+        assertEquals(9_999, header.getReleaseDbId());
+        assertEquals(12_345, header.getLastInstanceEditDbId());
+        assertTrue(header.hasInteractions());
+        assertEquals("reactome|123|abc", header.getSignature());
+
+        LongLongMap loaded = new LongLongMap(LongLongMap.Storage.MMAP, 1);
+        loaded.put(-5, 5); // replaced by the content of the file
+        NodeIdMapFile read = new NodeIdMapFile(store);
+        read.load(loaded);
+        assertEquals(dbIds.size(), loaded.size());
+        assertFalse(loaded.containsKey(-5));
+        dbIds.forEach((dbId, node) -> assertEquals(node, loaded.get(dbId)));
+
+        read.delete();
+        assertFalse(read.exists());
+    }
+}
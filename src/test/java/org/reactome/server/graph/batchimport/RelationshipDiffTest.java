@@ -0,0 +1,79 @@
+package org.reactome.server.graph.batchimport;
+
+import org.junit.jupiter.api.Test;
+import org.neo4j.batchinsert.BatchRelationship;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelationshipDiffTest {
+
+    private static final Set<String> REVERSED = Set.of("created", "modified");
+    private static final Set<String> UNDIRECTED = Set.of("inferredTo", "reverseReaction");
+    private static final long NODE = 10;
+
+    @Test
+    void keys() {
+        assertEquals(RelationshipKey.of(3, 7, "inferredTo", true), RelationshipKey.of(7, 3, "inferredTo", true));
+        assertNotEquals(RelationshipKey.of(3, 7, "hasEvent", false), RelationshipKey.of(7, 3, "hasEvent", false));
+        assertNotEquals(RelationshipKey.of(3, 7, "hasEvent", false), RelationshipKey.of(3, 7, "output", false));
+
+        RelationshipKey key = RelationshipKey.of(12_345_678_901L, 5, "inferredTo", true);
+        assertEquals(5, key.getStart());
+        assertEquals(12_345_678_901L, key.getEnd());
+        assertEquals("inferredTo", key.getType());
+    }
+
+    @Test
+    void compare() {
+        Map<RelationshipKey, Map<String, Object>> needed = new LinkedHashMap<>();
+        needed.put(key(NODE, 11, "hasEvent"), properties(1, 0));        // unchanged
+        needed.put(key(NODE, 12, "hasEvent"), properties(1, 1));        // order changed
+        needed.put(key(20, NODE, "created"), properties(1, 0));         // reversed, unchanged
+        needed.put(key(NODE, 16, "inferredTo"), properties(1, 0));      // saved by the other end
+        needed.put(key(NODE, 17, "hasEvent"), properties(2, 2));        // new
+
+        Map<Long, Map<String, Object>> stored = new HashMap<>();
+        List<BatchRelationship> existing = List.of(
+                relationship(1, NODE, 11, "hasEvent", properties(1, 0), stored),
+                relationship(2, NODE, 12, "hasEvent", properties(1, 5), stored),
+                relationship(3, 20, NODE, "created", properties(1, 0), stored),
+                relationship(4, 16, NODE, "inferredTo", properties(1, 0), stored),
+                relationship(5, NODE, 13, "hasEvent", properties(1, 2), stored),   // not needed, owned
+                relationship(6, 21, NODE, "modified", properties(1, 0), stored),   // not needed, owned (reversed)
+                relationship(7, 30, NODE, "hasEvent", properties(1, 0), stored),   // owned by node 30
+                relationship(8, NODE, 31, "modified", properties(1, 0), stored),   // owned by node 31 (reversed)
+                relationship(9, 15, NODE, "inferredTo", properties(1, 0), stored)  // not needed, undirected
+        );
+
+        RelationshipDiff diff = new RelationshipDiff(NODE, needed, existing, stored::get, REVERSED, UNDIRECTED);
+
+        assertEquals(Map.of(2L, properties(1, 1)), diff.getUpdated());
+        assertEquals(List.of(5L, 6L), ids(diff.getDeleted()));
+        assertEquals(List.of(9L), ids(diff.getUndirected()));
+        assertEquals(Map.of(key(NODE, 17, "hasEvent"), properties(2, 2)), diff.getCreated());
+        assertEquals(5, needed.size()); // the given map is not modified
+    }
+
+    private static RelationshipKey key(long start, long end, String type) {
+        return RelationshipKey.of(start, end, type, UNDIRECTED.contains(type));
+    }
+
+    private static Map<String, Object> properties(int stoichiometry, int order) {
+        return Map.of("stoichiometry", stoichiometry, "order", order);
+    }
+
+    private static BatchRelationship relationship(long id, long start, long end, String type, Map<String, Object> properties,
+                                                  Map<Long, Map<String, Object>> stored) {
+        stored.put(id, properties);
+        return new BatchRelationship(id, start, end, RelationshipType.withName(type));
+    }
+
+    private static List<Long> ids(List<BatchRelationship> relationships) {
+        List<Long> rtn = new ArrayList<>();
+        relationships.forEach(relationship -> rtn.add(relationship.getId()));
+        return rtn;
+    }
+}
@@ -0,0 +1,65 @@
+package org.reactome.server.graph.batchimport;
+
+import org.junit.jupiter.api.Test;
+import org.reactome.server.graph.utils.LongLongMultimap;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReverseReferenceIndexTest {
+
+    @Test
+    void duplicatedRowsCollapse() {
+        //(referrer, referred) rows as read from a Class_2_attribute table, 10 listing 1 twice
+        long[][] rows = {{10, 1}, {11, 1}, {10, 1}, {12, 2}, {13, 1}, {11, 1}};
+        LongLongMultimap map = new LongLongMultimap();
+        for (long[] row : rows) map.put(row[1], row[0]);
+
+        long[] referrers = map.get(1);
+        int n = ReverseReferenceIndex.distinct(referrers, referrers.length);
+        assertArrayEquals(new long[]{10, 11, 13}, Arrays.copyOf(referrers, n));
+        assertArrayEquals(toArray(getReferers(rows, 1)), Arrays.copyOf(referrers, n));
+
+        long[] single = map.get(2);
+        assertEquals(1, ReverseReferenceIndex.distinct(single, single.length));
+        assertEquals(0, ReverseReferenceIndex.distinct(new long[0], 0));
+    }
+
+    @Test
+    void manyReferrersKeepTheFirstSeenOrder() {
+        //above the linear scan threshold, so the duplicates are found with a LongSet
+        long[] values = new long[200];
+        for (int i = 0; i < values.length; i++) values[i] = (i * 7919L) % 83;
+        long[] expected = toArray(new LinkedHashSet<>(toList(values)));
+        int n = ReverseReferenceIndex.distinct(values, values.length);
+        assertEquals(83, n);
+        assertArrayEquals(expected, Arrays.copyOf(values, n));
+    }
+
+    @Test
+    void onlyThePrefixIsConsidered() {
+        long[] buffer = {5, 5, 6, 9, 9};
+        assertEquals(2, ReverseReferenceIndex.distinct(buffer, 3));
+        assertArrayEquals(new long[]{5, 6}, Arrays.copyOf(buffer, 2));
+    }
+
+    /**
+     * Distinct referrers in the order their rows come, as GKInstance.getReferers returns them
+     */
+    private static Set<Long> getReferers(long[][] rows, long referred) {
+        Set<Long> rtn = new LinkedHashSet<>();
+        for (long[] row : rows) if (row[1] == referred) rtn.add(row[0]);
+        return rtn;
+    }
+
+    private static List<Long> toList(long[] values) {
+        List<Long> rtn = new ArrayList<>();
+        for (long value : values) rtn.add(value);
+        return rtn;
+    }
+
+    private static long[] toArray(Collection<Long> values) {
+        return values.stream().mapToLong(Long::longValue).toArray();
+    }
+}
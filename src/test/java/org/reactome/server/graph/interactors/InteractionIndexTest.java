@@ -0,0 +1,154 @@
+package org.reactome.server.graph.interactors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InteractionIndexTest {
+
+    //intact-micluster.txt rows (PSI-MITAB 2.5, tab separated), "-" standing for the empty fields
+    private static final String[] MICLUSTER = {
+            "#ID(s) interactor A\tID(s) interactor B\tAlt. ID(s) interactor A\tAlt. ID(s) interactor B\tAlias(es) interactor A\t"
+                    + "Alias(es) interactor B\tInteraction detection method(s)\tPublication 1st author(s)\tPublication Identifier(s)\t"
+                    + "Taxid interactor A\tTaxid interactor B\tInteraction type(s)\tSource database(s)\tInteraction identifier(s)\t"
+                    + "Confidence value(s)",
+            row("uniprotkb:P12345", "uniprotkb:Q99999-2", "intact:EBI-1", "intact:EBI-2",
+                    "psi-mi:abc_human(display_long)|uniprotkb:ABC(gene name)|uniprotkb:ABC1(gene name synonym)|uniprotkb:XYZ(gene name synonym)",
+                    "psi-mi:def_mouse(display_long)|uniprotkb:Def(gene name)", "psi-mi:\"MI:0018\"(two hybrid)", "-",
+                    "pubmed:10831611|imex:IM-12345", "taxid:9606(human)|taxid:9606(Homo sapiens)", "taxid:10090(mouse)|taxid:10090(\"Mus musculus\")",
+                    "psi-mi:\"MI:0915\"(physical association)", "psi-mi:\"MI:0469\"(IntAct)", "intact:EBI-100|intact:EBI-101|imex:IM-12345-1",
+                    "intact-miscore:0.56"),
+            row("uniprotkb:P12345", "chebi:\"CHEBI:15422\"", "intact:EBI-1", "intact:EBI-3",
+                    "psi-mi:abc_human(display_long)|uniprotkb:ABC(gene name)|uniprotkb:ABC1(gene name synonym)|uniprotkb:XYZ(gene name synonym)",
+                    "psi-mi:atp(display_long)", "-", "-", "-", "taxid:9606(human)", "-", "-", "-", "-", "-"),
+            row("uniprotkb:P99999", "uniprotkb:P88888", "-", "-", "-", "-", "-", "-", "pubmed:1", "taxid:9606(human)", "taxid:9606(human)",
+                    "-", "-", "intact:EBI-200", "intact-miscore:0.3"),
+            row("intact:EBI-4", "uniprotkb:P12345", "-", "-", "psi-mi:ghi_yeast(display_long)", "-", "-", "-", "-", "taxid:-1(in vitro)",
+                    "taxid:9606(human)", "-", "-", "intact:EBI-300", "intact-miscore:none"),
+            "uniprotkb:P12345\tuniprotkb:Q11111",
+            ""
+    };
+
+    @TempDir
+    File tmp;
+
+    @Test
+    void batchesAreSortedAndGroupedPerAccession() {
+        //Interactions as the service returns them, seen from the queried accession
+        Map<String, List<Long>> service = new HashMap<>();
+        service.put("UniProt:P1", List.of(1L, 2L));
+        service.put("UniProt:P2", List.of(1L));
+        service.put("UniProt:P3", null);
+        service.put("ChEBI:15422", List.of(3L, 4L, 5L));
+
+        List<List<String>> batches = new ArrayList<>();
+        InteractionIndex index = InteractionIndex.fromBatches(
+                List.of("UniProt:P3", "UniProt:P1", "ChEBI:15422", "UniProt:P2", "UniProt:P1", "UniProt:P4"), 2,
+                batch -> {
+                    batches.add(new ArrayList<>(batch));
+                    //The accessions come back in any order, as the service groups them in a map
+                    Map<String, List<Long>> rtn = new HashMap<>();
+                    for (String accession : batch) if (service.containsKey(accession)) rtn.put(accession, service.get(accession));
+                    return rtn;
+                },
+                id -> new IntActInteraction(id, null, new String[]{"EBI-" + id}, null, null));
+
+        assertEquals(List.of(List.of("ChEBI:15422", "UniProt:P1"), List.of("UniProt:P2", "UniProt:P3"), List.of("UniProt:P4")), batches);
+        //The interaction between P1 and P2 is kept once per side
+        assertEquals(6, index.size());
+        assertEquals(List.of(1L, 2L), ids(index.getInteractions("UniProt:P1")));
+        assertEquals(List.of(1L), ids(index.getInteractions("UniProt:P2")));
+        assertEquals(List.of(3L, 4L, 5L), ids(index.getInteractions("ChEBI:15422")));
+        assertTrue(index.getInteractions("UniProt:P3").isEmpty());
+        assertTrue(index.getInteractions("UniProt:P4").isEmpty());
+        assertTrue(index.getInteractions("UniProt:P5").isEmpty());
+    }
+
+    @Test
+    void noAccessions() {
+        InteractionIndex index = InteractionIndex.fromBatches(List.of(), 10, batch -> fail("Nothing to query"), id -> null);
+        assertEquals(0, index.size());
+        assertTrue(InteractionIndex.empty().getInteractions("UniProt:P1").isEmpty());
+    }
+
+    @Test
+    void miclusterRowsAsTheParserReadsThem() throws IOException {
+        File file = new File(tmp, "intact-micluster.txt");
+        Files.write(file.toPath(), Arrays.asList(MICLUSTER), StandardCharsets.UTF_8);
+        InteractionIndex index = InteractionIndex.fromMiclusterFile(file, List.of("UniProt:P12345", "ChEBI:15422", "UniProt:P00000"));
+        assertMicluster(index);
+    }
+
+    @Test
+    void gzippedMiclusterFile() throws IOException {
+        File file = new File(tmp, "intact-micluster.txt.gz");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8)) {
+            for (String line : MICLUSTER) writer.write(line + "\n");
+        }
+        assertMicluster(InteractionIndex.fromMiclusterFile(file, List.of("UniProt:P12345", "ChEBI:15422", "UniProt:P00000")));
+    }
+
+    /**
+     * The fields are the ones the interaction database gets from IntactParser: the display_long alias, the gene name as
+     * alias without species, the gene name synonyms, the first taxid, the intact-miscore and the intact interaction
+     * accessions, with nothing for the "-" fields
+     */
+    private static void assertMicluster(InteractionIndex index) {
+        //The row between P12345 and ChEBI:15422 is kept for both of them, the one of other accessions is discarded
+        assertEquals(4, index.size());
+        List<IntActInteraction> p12345 = index.getInteractions("UniProt:P12345");
+        assertEquals(List.of(2L, 3L, 5L), ids(p12345));
+
+        IntActInteraction interaction = p12345.get(0);
+        assertInteractor(interaction.getInteractorB(), "UniProt:Q99999-2", "UniProt", "def_mouse", "Def", 10090, null);
+        assertArrayEquals(new String[]{"EBI-100", "EBI-101"}, interaction.getAccessions());
+        assertArrayEquals(new String[]{"10831611"}, interaction.getPubmeds());
+        assertEquals(0.56, interaction.getScore());
+
+        interaction = p12345.get(1);
+        assertInteractor(interaction.getInteractorB(), "ChEBI:15422", "ChEBI", "atp", "atp", null, null);
+        assertArrayEquals(new String[0], interaction.getAccessions());
+        assertNull(interaction.getPubmeds());
+        assertNull(interaction.getScore());
+
+        //Seen from B, so the partner is A, whose alias has no gene name
+        interaction = p12345.get(2);
+        assertInteractor(interaction.getInteractorB(), "IntAct:EBI-4", "IntAct", "ghi_yeast", "ghi", -1, null);
+        assertArrayEquals(new String[]{"EBI-300"}, interaction.getAccessions());
+        assertNull(interaction.getScore());
+
+        List<IntActInteraction> chebi = index.getInteractions("ChEBI:15422");
+        assertEquals(List.of(3L), ids(chebi));
+        assertInteractor(chebi.get(0).getInteractorB(), "UniProt:P12345", "UniProt", "abc_human", "ABC", 9606, new String[]{"ABC1", "XYZ"});
+
+        assertTrue(index.getInteractions("UniProt:P00000").isEmpty());
+        assertTrue(index.getInteractions("UniProt:P99999").isEmpty());
+    }
+
+    private static void assertInteractor(IntActInteractor interactor, String acc, String resourceName, String alias, String aliasWithoutSpecies,
+                                         Integer taxId, String[] synonyms) {
+        assertEquals(acc, interactor.getAcc());
+        assertEquals(resourceName, interactor.getResourceName());
+        assertEquals(alias, interactor.getAlias());
+        assertEquals(aliasWithoutSpecies, interactor.getAliasWithoutSpecies());
+        assertEquals(taxId, interactor.getTaxId());
+        assertArrayEquals(synonyms, interactor.getSynonyms());
+    }
+
+    private static String row(String... columns) {
+        return String.join("\t", columns);
+    }
+
+    private static List<Long> ids(List<IntActInteraction> interactions) {
+        List<Long> rtn = new ArrayList<>();
+        for (IntActInteraction interaction : interactions) rtn.add(interaction.getId());
+        return rtn;
+    }
+}
@@ -0,0 +1,57 @@
+package org.reactome.server.graph.interactors;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TargetReferenceEntitiesTest {
+
+    @Test
+    void targetsNeedOneTargetPhysicalEntity() {
+        //PhysicalEntities 100 and 102 are referred via the TARGET_ATTRIBUTES, 101 and 103 are not
+        Set<Long> targetEntities = Set.of(100L, 102L);
+        List<Long> tested = new ArrayList<>();
+        TargetReferenceEntities entities = TargetReferenceEntities.empty();
+        long[][] referenceEntityRows = {{101, 10}, {100, 10}, {102, 10}, {103, 11}, {102, 12}, {100, 13}};
+        for (long[] row : referenceEntityRows) {
+            entities.addReferenceEntity(row[0], row[1], pe -> tested.add(pe) && targetEntities.contains(pe));
+        }
+        //Once 10 is a target its other PhysicalEntities are not checked
+        assertEquals(List.of(101L, 100L, 103L, 102L, 100L), tested);
+
+        entities.addAccession(11, "P00002", "UniProt");
+        entities.addAccession(12, "P00001-2", "UniProt");
+        entities.addAccession(10, "P00001", "UniProt");
+        entities.addAccession(13, null, "UniProt");
+        entities.addAccession(14, "15422", "ChEBI");
+        entities.group(new HashMap<>());
+
+        //In the order the accessions are read, only the ones with an identifier
+        assertEquals(2, entities.size());
+        assertEquals(12, entities.getDbId(0));
+        assertEquals("UniProt", entities.getResource(0));
+        assertEquals("P00001-2", entities.getIdentifier(0));
+        assertEquals(10, entities.getDbId(1));
+        assertEquals("P00001", entities.getIdentifier(1));
+    }
+
+    @Test
+    void accessionsAreGroupedAfterTheExistingOnes() {
+        Map<String, long[]> accessions = new HashMap<>();
+        accessions.put("UniProt:P00001", new long[]{1});
+        TargetReferenceEntities entities = TargetReferenceEntities.empty();
+        entities.addAccession(10, "P00001", "UniProt");
+        entities.addAccession(20, "15422", "ChEBI");
+        entities.addAccession(11, "P00001", "UniProt");
+        entities.addAccession(30, null, "UniProt");
+        entities.addAccession(12, "P00001", "UniProt");
+        entities.group(accessions);
+
+        assertEquals(Set.of("UniProt:P00001", "ChEBI:15422"), accessions.keySet());
+        assertArrayEquals(new long[]{1, 10, 11, 12}, accessions.get("UniProt:P00001"));
+        assertArrayEquals(new long[]{20}, accessions.get("ChEBI:15422"));
+        assertEquals(0, entities.size());
+    }
+}
@@ -0,0 +1,161 @@
+package org.reactome.server.graph.sink;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvGraphSinkTest {
+
+    private static final Label[] LABELS = {Label.label("CsvTest"), Label.label("DatabaseObject")};
+
+    @TempDir
+    File tmp;
+
+    @Test
+    void nodesRoundTrip() throws IOException {
+        File dir = new File(tmp, "csv");
+        CsvGraphSink sink = new CsvGraphSink(dir, "graph.db", new File(tmp, "missing").getPath());
+        assertEquals(0, sink.createNode(properties("dbId", 1L, "name", "a, \"quoted\"\nvalue"), LABELS));
+        //synonyms is only found in the second row and dbId comes as an int (read as long)
+        assertEquals(1, sink.createNode(properties("dbId", 2L, "name", "b", "synonyms", new String[]{"x", "y,\"z\""}), LABELS));
+        assertEquals(2, sink.createNode(properties("dbId", 3, "synonyms", "single"), LABELS));
+        sink.shutdown();
+
+        assertEquals(List.of(":ID,dbId:long,name:string,synonyms:string[]"), Files.readAllLines(new File(dir, "nodes-0-header.csv").toPath()));
+        List<List<String>> rows = parse(read(new File(dir, "nodes-0.csv.gz")));
+        assertEquals(3, rows.size());
+        assertEquals(List.of("0", "1", "a, \"quoted\"\nvalue"), rows.get(0));
+        assertEquals(List.of("1", "2", "b", "x\u001Fy,\"z\""), rows.get(1));
+        assertArrayEquals(new String[]{"x", "y,\"z\""}, rows.get(1).get(3).split("\u001F"));
+        assertEquals(List.of("2", "3", "", "single"), rows.get(2));
+
+        List<String> args = Files.readAllLines(new File(dir, "import.args").toPath());
+        assertTrue(args.contains("--array-delimiter=U+001F"));
+        assertTrue(args.stream().anyMatch(arg -> arg.startsWith("--nodes=CsvTest:DatabaseObject=")));
+    }
+
+    @Test
+    void relationshipsWidenIntColumns() throws IOException {
+        File dir = new File(tmp, "csv");
+        CsvGraphSink sink = new CsvGraphSink(dir, "graph.db", new File(tmp, "missing").getPath());
+        RelationshipType type = RelationshipType.withName("hasComponent");
+        sink.createRelationship(1, 2, type, properties("stoichiometry", 1, "order", 0));
+        sink.createRelationship(1, 3, type, properties("stoichiometry", 5_000_000_000L, "order", 1));
+        sink.shutdown();
+
+        assertEquals(List.of(":START_ID,:END_ID,stoichiometry:long,order:int"),
+                Files.readAllLines(new File(dir, "relationships-0-header.csv").toPath()));
+        assertEquals(List.of(List.of("1", "2", "1", "0"), List.of("1", "3", "5000000000", "1")),
+                parse(read(new File(dir, "relationships-0.csv.gz"))));
+    }
+
+    @Test
+    void incompatibleTypesFail() throws IOException {
+        CsvGraphSink sink = new CsvGraphSink(new File(tmp, "csv"), "graph.db", null);
+        sink.createNode(properties("dbId", 1L, "value", 7), LABELS);
+        assertThrows(IllegalArgumentException.class, () -> sink.createNode(properties("dbId", 2L, "value", new String[]{"a"}), LABELS));
+        assertThrows(IllegalArgumentException.class, () -> sink.createNode(properties("dbId", 3L, "value", "a"), LABELS));
+        //nothing of the rejected rows is kept for the next one
+        sink.createNode(properties("dbId", 4L), LABELS);
+    }
+
+    @Test
+    void arrayDelimiterIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> CsvGraphSink.format(new String[]{"a\u001Fb"}));
+        assertThrows(IllegalArgumentException.class, () -> CsvGraphSink.format("a\u001Fb"));
+        assertEquals("\"a\u001Fb\"", CsvGraphSink.format(new String[]{"a", "b"}));
+    }
+
+    @Test
+    void readableTypes() {
+        assertTrue(CsvGraphSink.isReadableAs("int", "long"));
+        assertTrue(CsvGraphSink.isReadableAs("long", "string"));
+        assertTrue(CsvGraphSink.isReadableAs("string", "string[]"));
+        assertTrue(CsvGraphSink.isReadableAs("int[]", "long[]"));
+        assertTrue(CsvGraphSink.isReadableAs("float", "double"));
+        assertFalse(CsvGraphSink.isReadableAs("long", "int"));
+        assertFalse(CsvGraphSink.isReadableAs("string[]", "string"));
+        assertFalse(CsvGraphSink.isReadableAs("string", "boolean"));
+        assertFalse(CsvGraphSink.isReadableAs("boolean", "double"));
+    }
+
+    @Test
+    void findNeo4jAdmin() throws IOException {
+        File home = new File(tmp, "neo4j");
+        File homeAdmin = executable(new File(home, "bin/neo4j-admin"));
+        File pathAdmin = executable(new File(tmp, "path/neo4j-admin"));
+        String path = new File(tmp, "empty").getPath() + File.pathSeparator + pathAdmin.getParent();
+
+        assertEquals(pathAdmin, CsvGraphSink.findNeo4jAdmin(pathAdmin.getPath(), home.getPath(), path));
+        assertNull(CsvGraphSink.findNeo4jAdmin(new File(tmp, "missing").getPath(), home.getPath(), path));
+        assertEquals(homeAdmin, CsvGraphSink.findNeo4jAdmin(null, home.getPath(), path));
+        assertEquals(pathAdmin, CsvGraphSink.findNeo4jAdmin(null, new File(tmp, "empty").getPath(), path));
+        assertNull(CsvGraphSink.findNeo4jAdmin(null, null, new File(tmp, "empty").getPath()));
+    }
+
+    private static File executable(File file) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.writeString(file.toPath(), "#!/bin/sh\n");
+        assertTrue(file.setExecutable(true));
+        return file;
+    }
+
+    private static Map<String, Object> properties(Object... keyValues) {
+        Map<String, Object> rtn = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) rtn.put((String) keyValues[i], keyValues[i + 1]);
+        return rtn;
+    }
+
+    private static String read(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Reads the rows as neo4j-admin does with --multiline-fields=true (quoted fields, "" for a quote)
+     */
+    private static List<List<String>> parse(String csv) {
+        List<List<String>> rows = new ArrayList<>();
+        List<String> row = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < csv.length(); i++) {
+            char c = csv.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < csv.length() && csv.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                row.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                row.add(field.toString());
+                field.setLength(0);
+                rows.add(row);
+                row = new ArrayList<>();
+            } else {
+                field.append(c);
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,46 @@
+package org.reactome.server.graph.sink;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeletionsScriptTest {
+
+    @Test
+    void empty() {
+        DeletionsScript script = new DeletionsScript();
+        assertTrue(script.isEmpty());
+        assertEquals(List.of(), script.getStatements());
+    }
+
+    @Test
+    void statements() {
+        DeletionsScript script = new DeletionsScript();
+        script.addNode(5);
+        script.addRelationship("output", 1, 2);
+        script.addRelationship("hasEvent", 3, 4);
+        script.addRelationship("output", 12_345_678_901L, 6);
+        assertFalse(script.isEmpty());
+
+        assertEquals(List.of(
+                "UNWIND [[3,4]] AS ends MATCH (:DatabaseObject {dbId: ends[0]})-[r:`hasEvent`]->(:DatabaseObject {dbId: ends[1]}) DELETE r;",
+                "UNWIND [[1,2],[12345678901,6]] AS ends "
+                        + "MATCH (:DatabaseObject {dbId: ends[0]})-[r:`output`]->(:DatabaseObject {dbId: ends[1]}) DELETE r;",
+                "MATCH (n:DatabaseObject) WHERE n.dbId IN [5] DETACH DELETE n;"
+        ), script.getStatements());
+    }
+
+    @Test
+    void batches() {
+        DeletionsScript script = new DeletionsScript();
+        for (long dbId = 0; dbId < 2_500; dbId++) script.addNode(dbId);
+        List<String> statements = script.getStatements();
+        assertEquals(3, statements.size());
+        assertTrue(statements.get(0).contains("[0,1,2,"));
+        assertTrue(statements.get(0).contains(",999]"));
+        assertTrue(statements.get(1).contains("[1000,"));
+        assertTrue(statements.get(2).contains(",2499]"));
+    }
+}
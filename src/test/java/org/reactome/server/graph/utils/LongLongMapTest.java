@@ -0,0 +1,99 @@
+package org.reactome.server.graph.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongLongMapTest {
+
+    private static final int ENTRIES = 100_000;
+
+    @ParameterizedTest
+    @EnumSource(LongLongMap.Storage.class)
+    void putGetAndRemoveAcrossResizes(LongLongMap.Storage storage) {
+        LongLongMap map = new LongLongMap(storage, 1);
+        for (long key = 1; key <= ENTRIES; key++) map.put(key, key * 10);
+        assertEquals(ENTRIES, map.size());
+        for (long key = 1; key <= ENTRIES; key++) assertEquals(key * 10, map.get(key));
+        assertEquals(LongLongMap.NOT_FOUND, map.get(ENTRIES + 1));
+
+        for (long key = 1; key <= ENTRIES; key += 2) assertTrue(map.remove(key));
+        assertFalse(map.remove(1));
+        assertEquals(ENTRIES / 2, map.size());
+        for (long key = 1; key <= ENTRIES; key++) {
+            if (key % 2 == 1) {
+                assertFalse(map.containsKey(key));
+                assertEquals(LongLongMap.NOT_FOUND, map.get(key));
+            } else {
+                assertEquals(key * 10, map.get(key));
+            }
+        }
+    }
+
+    @Test
+    void keyZeroIsKeptAside() {
+        LongLongMap map = new LongLongMap();
+        assertFalse(map.containsKey(0));
+        assertEquals(LongLongMap.NOT_FOUND, map.get(0));
+
+        map.put(0, 42);
+        for (long key = 1; key <= 1_000; key++) map.put(key, key);
+        assertTrue(map.containsKey(0));
+        assertEquals(42, map.get(0));
+        assertEquals(1_001, map.size());
+
+        map.put(0, 43);
+        assertEquals(43, map.get(0));
+        assertEquals(1_001, map.size());
+
+        Map<Long, Long> seen = new HashMap<>();
+        map.forEach(seen::put);
+        assertEquals(1_001, seen.size());
+        assertEquals(43L, seen.get(0L));
+
+        assertTrue(map.remove(0));
+        assertFalse(map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(1_000, map.size());
+    }
+
+    @Test
+    void behavesLikeAHashMap() {
+        Random random = new Random(7);
+        LongLongMap map = new LongLongMap();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            //A small key space with negative keys, so the same keys are added and removed many times
+            long key = random.nextInt(20_000) - 10_000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                long value = random.nextLong();
+                expected.put(key, value);
+                map.put(key, value);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        expected.forEach((key, value) -> assertEquals(value.longValue(), map.get(key)));
+        map.forEach((key, value) -> assertEquals(expected.get(key).longValue(), value));
+    }
+
+    @Test
+    void clear() {
+        LongLongMap map = new LongLongMap();
+        map.put(0, 1);
+        map.put(5, 6);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(0));
+        assertFalse(map.containsKey(5));
+        map.put(5, 7);
+        assertEquals(7, map.get(5));
+    }
+}
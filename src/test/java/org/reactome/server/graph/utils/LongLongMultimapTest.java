@@ -0,0 +1,60 @@
+package org.reactome.server.graph.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongLongMultimapTest {
+
+    @Test
+    void keepsTheValuesInInsertionOrder() {
+        LongLongMultimap map = new LongLongMultimap();
+        //Interleaved keys (including 0) and enough values to grow the backing arrays several times
+        for (long value = 0; value < 10_000; value++) map.put(value % 3, value);
+        assertEquals(3, map.keys());
+        assertEquals(10_000, map.size());
+
+        for (long key = 0; key < 3; key++) {
+            long[] values = map.get(key);
+            assertEquals(map.count(key), values.length);
+            for (int i = 0; i < values.length; i++) assertEquals(key + 3L * i, values[i]);
+        }
+        assertFalse(map.containsKey(3));
+        assertEquals(0, map.get(3).length);
+        assertEquals(0, map.count(3));
+    }
+
+    @Test
+    void fillsTheCallerBuffer() {
+        LongLongMultimap map = new LongLongMultimap();
+        map.put(7, 1);
+        map.put(7, 2);
+        map.put(7, 3);
+        map.put(8, 4);
+
+        long[] buffer = new long[3];
+        assertEquals(3, map.get(7, buffer));
+        assertArrayEquals(new long[]{1, 2, 3}, buffer);
+        assertEquals(1, map.get(8, buffer));
+        assertEquals(4, buffer[0]);
+        assertEquals(0, map.get(9, buffer));
+
+        //Nothing is copied when the values do not fit
+        long[] small = {-1};
+        assertEquals(3, map.get(7, small));
+        assertEquals(-1, small[0]);
+    }
+
+    @Test
+    void forEach() {
+        LongLongMultimap map = new LongLongMultimap();
+        map.put(1, 10);
+        map.put(1, 11);
+        List<Long> values = new ArrayList<>();
+        map.forEach(1, values::add);
+        assertEquals(List.of(10L, 11L), values);
+    }
+}
@@ -0,0 +1,36 @@
+package org.reactome.server.graph.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongSetTest {
+
+    @Test
+    void addContainsAndRemove() {
+        LongSet set = new LongSet(LongLongMap.Storage.OFFHEAP, 1);
+        for (long value = -50_000; value <= 50_000; value++) assertTrue(set.add(value));
+        assertFalse(set.add(0));
+        assertFalse(set.add(-50_000));
+        assertEquals(100_001, set.size());
+        assertTrue(set.contains(0));
+        assertFalse(set.contains(50_001));
+
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertFalse(set.contains(0));
+        assertEquals(100_000, set.size());
+
+        Set<Long> seen = new HashSet<>();
+        set.forEach(seen::add);
+        assertEquals(100_000, seen.size());
+        assertFalse(seen.contains(0L));
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(1));
+    }
+}
@@ -0,0 +1,54 @@
+package org.reactome.server.graph.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProcessNodeExtractorTest {
+
+    //Fragment of a storedATXML as the curator tool writes it, with the reactomeId placed anywhere in the element
+    private static final String STORED_AT_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<Process reactomeId=\"109581\" isChanged=\"false\" nextId=\"40\">\n"
+            + "<Properties>\n<displayName>Apoptosis</displayName>\n</Properties>\n"
+            + "<Nodes>\n"
+            + "<org.gk.render.RenderableComplex id=\"5\" reactomeId=\"57046\" schemaClass=\"Complex\" position=\"120 80\">\n"
+            + "</org.gk.render.RenderableComplex>\n"
+            + "<org.gk.render.ProcessNode id=\"12\" schemaClass=\"Pathway\" position=\"473 229\" bounds=\"413 209 120 40\" "
+            + "bgColor=\"204 255 204\" reactomeId=\"109606\" textPosition=\"418 214\">\n"
+            + "<Properties>\n<displayName>Intrinsic Pathway for Apoptosis</displayName>\n</Properties>\n"
+            + "</org.gk.render.ProcessNode>\n"
+            + "<org.gk.render.ProcessNode reactomeId=\"75153\" id=\"14\" schemaClass=\"Pathway\" position=\"200 300\">\n"
+            + "</org.gk.render.ProcessNode>\n"
+            + "<org.gk.render.ProcessNode id=\"16\" schemaClass=\"Pathway\" position=\"300 300\" reactomeId = '75108' />\n"
+            + "<org.gk.render.ProcessNode id=\"18\" schemaClass=\"Pathway\" position=\"400 300\">\n"
+            + "</org.gk.render.ProcessNode>\n"
+            + "</Nodes>\n"
+            + "</Process>\n";
+
+    @Test
+    void reactomeIdsInOrder() {
+        assertEquals(List.of(109606L, 75153L, 75108L), List.copyOf(ProcessNodeExtractor.getReactomeIds(STORED_AT_XML)));
+    }
+
+    @Test
+    void onlyProcessNodeAttributesAreRead() {
+        //The reactomeId of the next element must not be taken for a ProcessNode without one
+        String xml = "<org.gk.render.ProcessNode id=\"1\" displayName=\"a > b\"/>\n"
+                + "<org.gk.render.RenderableComplex reactomeId=\"1\"/>\n"
+                + "<org.gk.render.ProcessNodeLike reactomeId=\"2\"/>\n"
+                + "<org.gk.render.ProcessNode tag=\"reactomeId=&quot;3&quot;\" reactomeId=\"4\"/>\n"
+                + "<org.gk.render.ProcessNode reactomeId=\"none\"/>\n"
+                + "<org.gk.render.ProcessNode id=\"6\" reactomeId=\"4\"/>\n";
+        assertEquals(Set.of(4L), ProcessNodeExtractor.getReactomeIds(xml));
+    }
+
+    @Test
+    void noProcessNodes() {
+        assertTrue(ProcessNodeExtractor.getReactomeIds(null).isEmpty());
+        assertTrue(ProcessNodeExtractor.getReactomeIds("").isEmpty());
+        assertTrue(ProcessNodeExtractor.getReactomeIds("<org.gk.render.ProcessNode id=\"1\" reactomeId=\"5").isEmpty());
+    }
+}
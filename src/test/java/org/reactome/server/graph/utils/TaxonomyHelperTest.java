@@ -0,0 +1,140 @@
+package org.reactome.server.graph.utils;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TaxonomyHelperTest {
+
+    private static final long HUMAN = 48887L;
+    private static final long MOUSE = 48892L;
+
+    //nodes.dmp lines (tax_id | parent tax_id | rank | ...): two subspecies chains below human and a branch without species
+    private static final List<String> NODES = List.of(
+            "1\t|\t1\t|\tno rank\t|\t\t|\t8\t|\t0\t|\t1\t|\t0\t|\t0\t|\t0\t|\t0\t|\t0\t|\t\t|",
+            "9605\t|\t207598\t|\tgenus\t|\t\t|\t2\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|",
+            "9606\t|\t9605\t|\tspecies\t|\tHS\t|\t5\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|",
+            "10090\t|\t10088\t|\tspecies\t|\tMM\t|\t1\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|",
+            "63221\t|\t9606\t|\tsubspecies\t|\tHS\t|\t5\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|",
+            "700000\t|\t700001\t|\tno rank\t|\t\t|\t5\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|",
+            "700001\t|\t700002\t|\tno rank\t|\t\t|\t5\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|",
+            "700002\t|\t63221\t|\tno rank\t|\t\t|\t5\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|",
+            "207598\t|\t1\t|\tsubfamily\t|\t\t|\t2\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|",
+            "800000\t|\t207598\t|\tno rank\t|\t\t|\t2\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|",
+            "800001\t|\t800000\t|\tno rank\t|\t\t|\t2\t|\t1\t|\t1\t|\t1\t|\t2\t|\t1\t|\t1\t|\t0\t|\t\t|",
+            ""
+    );
+
+    @TempDir
+    File tmp;
+
+    @Test
+    void lineageFromTheDump() throws IOException {
+        File nodes = new File(tmp, "nodes.dmp");
+        Files.write(nodes.toPath(), NODES, StandardCharsets.US_ASCII);
+        assertLineages(nodes);
+    }
+
+    @Test
+    void lineageFromTheGzippedDump() throws IOException {
+        File nodes = new File(tmp, "nodes.dmp.gz");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(nodes)), StandardCharsets.US_ASCII)) {
+            for (String line : NODES) writer.write(line + "\n");
+        }
+        assertLineages(nodes);
+    }
+
+    @Test
+    void malformedDump() throws IOException {
+        File nodes = new File(tmp, "nodes.dmp");
+        Files.write(nodes.toPath(), List.of("9606\t|\t9605\t|\tspecies\t|", "tax_id\t|\tparent\t|"), StandardCharsets.US_ASCII);
+        assertThrows(IOException.class, () -> new TaxonomyHelper(new HashMap<>(), nodes));
+    }
+
+    @Test
+    void onlyDefinitiveEnsemblMissesAreKept() throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/taxonomy/id/", exchange -> {
+            String taxId = exchange.getRequestURI().getPath().substring("/taxonomy/id/".length());
+            int n = requests.incrementAndGet();
+            String body;
+            int code;
+            if (taxId.equals("63221") && n == 1) {
+                code = 500;
+                body = "{\"error\":\"Internal error\"}";
+            } else if (taxId.equals("63221")) {
+                code = 200;
+                body = "{\"id\":\"63221\",\"parent\":{\"id\":\"9606\"}}";
+            } else if (taxId.equals("999999")) {
+                code = 400;
+                body = "{\"error\":\"Can't find taxon\"}";
+            } else {
+                code = 200;
+                body = "{\"id\":\"" + taxId + "\",\"parent\":{\"id\":\"1\"}}";
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(code, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        try {
+            Map<Integer, Long> taxonomyMap = new HashMap<>(Map.of(9606, HUMAN));
+            String url = "http://localhost:" + server.getAddress().getPort() + "/taxonomy/id/";
+            TaxonomyHelper helper = new TaxonomyHelper(taxonomyMap, url);
+
+            //The server error is not kept, so it is asked again
+            assertNull(helper.getTaxonomyLineage(63221));
+            assertEquals(HUMAN, helper.getTaxonomyLineage(63221));
+            assertEquals(HUMAN, taxonomyMap.get(63221));
+            assertEquals(2, requests.get());
+
+            //Unknown ids and parents without species are only asked once
+            assertNull(helper.getTaxonomyLineage(999999));
+            assertNull(helper.getTaxonomyLineage(999999));
+            assertNull(helper.getTaxonomyLineage(800000));
+            assertNull(helper.getTaxonomyLineage(800000));
+            assertEquals(4, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void assertLineages(File nodes) throws IOException {
+        Map<Integer, Long> taxonomyMap = new HashMap<>(Map.of(9606, HUMAN, 10090, MOUSE));
+        TaxonomyHelper helper = new TaxonomyHelper(taxonomyMap, nodes);
+
+        assertEquals(HUMAN, helper.getTaxonomyLineage(9606));
+        assertEquals(MOUSE, helper.getTaxonomyLineage(10090));
+        //700000 -> 700001 -> 700002 -> 63221 -> 9606
+        assertEquals(HUMAN, helper.getTaxonomyLineage(700000));
+        assertEquals(HUMAN, taxonomyMap.get(700000));
+        assertEquals(HUMAN, helper.getTaxonomyLineage(63221));
+
+        //800000 reaches the root without a species on its way
+        assertNull(helper.getTaxonomyLineage(800000));
+        assertFalse(taxonomyMap.containsKey(800000));
+        //The miss is kept: adding a species to its lineage afterwards does not change it, nor the one of its children
+        taxonomyMap.put(207598, HUMAN);
+        assertNull(helper.getTaxonomyLineage(800000));
+        assertNull(helper.getTaxonomyLineage(800001));
+
+        //Ids not in the dump and the ones meaning "no species"
+        assertNull(helper.getTaxonomyLineage(5_000_000));
+        assertNull(helper.getTaxonomyLineage(123));
+        assertNull(helper.getTaxonomyLineage(-1));
+        assertNull(helper.getTaxonomyLineage(null));
+    }
+}